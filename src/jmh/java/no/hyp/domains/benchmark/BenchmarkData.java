@@ -0,0 +1,224 @@
+package no.hyp.domains.benchmark;
+
+import no.hyp.domains.*;
+import no.hyp.domains.persistence.PartitionedChunkBlob;
+import no.hyp.domains.persistence.SqlDatabase;
+import no.hyp.domains.persistence.SqliteDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Generates the data used by the benchmarks.
+ *
+ * Every generator uses a fixed seed, so the same data is generated on every run and
+ * results can be compared between releases.
+ *
+ * The claims cover a square of chunks in a single world. The chunks are shuffled, and
+ * the first 100 000 are claimed exclusively and the next 10 000 are partitioned. The
+ * remaining chunks in the square are unclaimed.
+ */
+public final class BenchmarkData {
+
+    public static final long SEED = 0x5EED_D0AA_1A5L;
+
+    public static final UUID WORLD_UUID = new UUID(0x0123456789ABCDEFL, 0xFEDCBA9876543210L);
+
+    public static final int ROOT_DOMAINS = 100;
+
+    public static final int SUBDOMAINS = 10;
+
+    public static final int PLAYERS = 5_000;
+
+    public static final int TITLES_PER_DOMAIN = 8;
+
+    public static final int EXCLUSIVE_CHUNKS = 100_000;
+
+    public static final int PARTITIONED_CHUNKS = 10_000;
+
+    /**
+     * The width in chunks of the claimed square, leaving about a tenth unclaimed.
+     */
+    public static final int WIDTH = 350;
+
+    private static final Role[] ROLES = Role.values();
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * The keys of all domains. Each root domain has a number of subdomains.
+     */
+    public static List<Key> domainKeys() {
+        List<Key> keys = new ArrayList<>();
+        int root = 0;
+        while (root < ROOT_DOMAINS) {
+            String rootKey = "realm" + root;
+            keys.add(Key.of(rootKey));
+            int sub = 0;
+            while (sub < SUBDOMAINS) {
+                keys.add(Key.of(rootKey + ":estate" + sub));
+                sub++;
+            }
+            root++;
+        }
+        return keys;
+    }
+
+    public static UUID[] players() {
+        Random random = new Random(SEED);
+        UUID[] players = new UUID[PLAYERS];
+        int n = 0;
+        while (n < PLAYERS) {
+            players[n] = new UUID(random.nextLong(), random.nextLong());
+            n++;
+        }
+        return players;
+    }
+
+    /**
+     * All domains, each with titles granted to random players.
+     */
+    public static List<Domain> domains() {
+        Random random = new Random(SEED + 1);
+        UUID[] players = BenchmarkData.players();
+        List<Domain> domains = new ArrayList<>();
+        for (Key key : BenchmarkData.domainKeys()) {
+            Map<UUID, Title> titles = new HashMap<>();
+            int n = 0;
+            while (n < TITLES_PER_DOMAIN) {
+                UUID player = players[random.nextInt(players.length)];
+                Role role = ROLES[random.nextInt(ROLES.length)];
+                titles.put(player, new Title(key, player, role.name(), role));
+                n++;
+            }
+            domains.add(new Domain(key, Role.VISITOR, null, titles));
+        }
+        return domains;
+    }
+
+    /**
+     * The shuffled chunk positions of the claimed square, packed with {@link ChunkMap#key(int, int)}.
+     */
+    private static long[] chunkPositions() {
+        long[] positions = new long[WIDTH * WIDTH];
+        int n = 0;
+        while (n < positions.length) {
+            positions[n] = ChunkMap.key(n % WIDTH - WIDTH / 2, n / WIDTH - WIDTH / 2);
+            n++;
+        }
+        Random random = new Random(SEED + 2);
+        n = positions.length - 1;
+        while (n > 0) {
+            int m = random.nextInt(n + 1);
+            long position = positions[n];
+            positions[n] = positions[m];
+            positions[m] = position;
+            n--;
+        }
+        return positions;
+    }
+
+    public static List<ExclusiveChunk> exclusiveChunks() {
+        Random random = new Random(SEED + 3);
+        List<Key> keys = BenchmarkData.domainKeys();
+        long[] positions = BenchmarkData.chunkPositions();
+        List<ExclusiveChunk> chunks = new ArrayList<>(EXCLUSIVE_CHUNKS);
+        int n = 0;
+        while (n < EXCLUSIVE_CHUNKS) {
+            Key key = keys.get(random.nextInt(keys.size()));
+            chunks.add(new ExclusiveChunk(WORLD_UUID, ChunkMap.chunkX(positions[n]), ChunkMap.chunkZ(positions[n]), key));
+            n++;
+        }
+        return chunks;
+    }
+
+    /**
+     * Partitioned chunks, each with about half of its columns claimed by a few domains.
+     */
+    public static List<PartitionedChunk> partitionedChunks() {
+        Random random = new Random(SEED + 4);
+        List<Key> keys = BenchmarkData.domainKeys();
+        long[] positions = BenchmarkData.chunkPositions();
+        List<PartitionedChunk> chunks = new ArrayList<>(PARTITIONED_CHUNKS);
+        int n = 0;
+        while (n < PARTITIONED_CHUNKS) {
+            long position = positions[EXCLUSIVE_CHUNKS + n];
+            PartitionedChunk chunk = new PartitionedChunk(WORLD_UUID, ChunkMap.chunkX(position), ChunkMap.chunkZ(position));
+            Key[] owners = new Key[3];
+            int o = 0;
+            while (o < owners.length) {
+                owners[o] = keys.get(random.nextInt(keys.size()));
+                o++;
+            }
+            int column = 0;
+            while (column < 256) {
+                if (random.nextBoolean()) {
+                    chunk.setDomainKey(PartitionedChunk.iFromColumnNumber(column), PartitionedChunk.kFromColumnNumber(column), owners[random.nextInt(owners.length)]);
+                }
+                column++;
+            }
+            chunks.add(chunk);
+            n++;
+        }
+        return chunks;
+    }
+
+    /**
+     * Random block coordinates within the claimed square, as pairs of x and z.
+     */
+    public static int[] blockCoordinates(int count, long seed) {
+        Random random = new Random(seed);
+        int[] coordinates = new int[count * 2];
+        int n = 0;
+        while (n < count) {
+            coordinates[n * 2] = random.nextInt(WIDTH * 16) - WIDTH / 2 * 16;
+            coordinates[n * 2 + 1] = random.nextInt(WIDTH * 16) - WIDTH / 2 * 16;
+            n++;
+        }
+        return coordinates;
+    }
+
+    /**
+     * Create a SQLite database in a temporary file populated with all generated data.
+     * The file is deleted when the JVM exits.
+     */
+    public static File createDatabase() throws IOException, SQLException {
+        File file = File.createTempFile("domains-benchmark", ".db");
+        file.deleteOnExit();
+        SqliteDatabase database = new SqliteDatabase(file.getAbsolutePath());
+        database.upgradeDatabase();
+        BenchmarkData.populate(database);
+        database.close();
+        return file;
+    }
+
+    /**
+     * Insert all generated data in a single transaction.
+     */
+    public static void populate(SqlDatabase database) throws SQLException {
+        database.transaction();
+        for (Domain domain : BenchmarkData.domains()) {
+            String domainKey = domain.getKey().toString();
+            database.upsertDomain(domainKey, domain.getDefaultRole().name(), null);
+            for (Title title : domain.getTitles().values()) {
+                database.upsertTitle(domainKey, title.getPlayerUuid().toString(), title.getRole().name(), title.getName());
+            }
+        }
+        for (ExclusiveChunk chunk : BenchmarkData.exclusiveChunks()) {
+            String worldUuid = chunk.getWorldUuid().toString();
+            database.upsertChunkType(worldUuid, chunk.getChunkX(), chunk.getChunkZ(), ChunkType.EXCLUSIVE.name());
+            database.upsertExclusiveChunk(worldUuid, chunk.getChunkX(), chunk.getChunkZ(), chunk.getDomainKey().toString());
+        }
+        PartitionedChunkBlob.DomainIds domainIds = PartitionedChunkBlob.DomainIds.of(database).cached();
+        for (PartitionedChunk chunk : BenchmarkData.partitionedChunks()) {
+            String worldUuid = chunk.getWorldUuid().toString();
+            database.upsertChunkType(worldUuid, chunk.getChunkX(), chunk.getChunkZ(), ChunkType.PARTITIONED.name());
+            database.upsertPartitionedChunk(worldUuid, chunk.getChunkX(), chunk.getChunkZ(), PartitionedChunkBlob.encode(chunk, domainIds));
+        }
+        database.commit();
+    }
+
+}
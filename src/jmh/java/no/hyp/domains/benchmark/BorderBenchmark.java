@@ -0,0 +1,103 @@
+package no.hyp.domains.benchmark;
+
+import no.hyp.domains.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculating the border of a chunk from a synthetic snapshot.
+ *
+ * The snapshots have rolling terrain and a claim layout with whole chunk claims,
+ * claims ending inside the chunk and scattered column claims, so that every kind of
+ * border edge is calculated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BorderBenchmark {
+
+    private static final int SNAPSHOTS = 64;
+
+    private BorderSnapshot[] snapshots;
+
+    private DetailedBorderDrawer detailedDrawer;
+
+    private InstancedBorderDrawer instancedDrawer;
+
+    private VertexBuffer buffer;
+
+    private int snapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Domain> domains = BenchmarkData.domains();
+        Random random = new Random(BenchmarkData.SEED + 40);
+        this.snapshots = new BorderSnapshot[SNAPSHOTS];
+        int n = 0;
+        while (n < SNAPSHOTS) {
+            this.snapshots[n] = BorderBenchmark.createSnapshot(random, domains, n);
+            n++;
+        }
+        // The drawers only use the plugin when capturing snapshots, which the benchmark does itself.
+        this.detailedDrawer = new DetailedBorderDrawer(null, 24, 48.0);
+        this.instancedDrawer = new InstancedBorderDrawer(null, 48.0);
+        this.buffer = new VertexBuffer();
+        this.snapshot = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.detailedDrawer.close();
+    }
+
+    private static BorderSnapshot createSnapshot(Random random, List<Domain> domains, int chunkX) {
+        int size = BorderSnapshot.SIZE;
+        int[] heights = new int[size * size];
+        Domain[] owners = new Domain[size * size];
+        Domain main = domains.get(random.nextInt(domains.size()));
+        Domain other = domains.get(random.nextInt(domains.size()));
+        // The main domain claims a rectangle ending somewhere inside the chunk.
+        int claimWidth = 4 + random.nextInt(12);
+        int claimDepth = 4 + random.nextInt(12);
+        double phase = random.nextDouble() * Math.PI * 2;
+        int a = 0;
+        while (a < size) {
+            int b = 0;
+            while (b < size) {
+                int index = a * size + b;
+                heights[index] = 64 + (int) Math.round(6 * Math.sin(phase + a * 0.4) * Math.cos(b * 0.3));
+                if (a <= claimWidth && b <= claimDepth) {
+                    owners[index] = main;
+                } else if (random.nextInt(8) == 0) {
+                    owners[index] = other;
+                }
+                b++;
+            }
+            a++;
+        }
+        return new BorderSnapshot(BenchmarkData.WORLD_UUID, chunkX, 0, heights, owners);
+    }
+
+    private BorderSnapshot nextSnapshot() {
+        int n = this.snapshot;
+        this.snapshot = (n + 1) % SNAPSHOTS;
+        return this.snapshots[n];
+    }
+
+    @Benchmark
+    public DetailedBorder calculateDetailedBorder() {
+        return this.detailedDrawer.calculateChunkBorder(this.nextSnapshot(), this.buffer);
+    }
+
+    @Benchmark
+    public List<InstancedBorder> calculateInstancedBorder() {
+        return this.instancedDrawer.calculateChunkBorder(null, this.nextSnapshot());
+    }
+
+}
@@ -0,0 +1,54 @@
+package no.hyp.domains.benchmark;
+
+import no.hyp.domains.Key;
+import no.hyp.domains.PartitionedChunk;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up the claim of a column in a partitioned chunk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PartitionedChunkBenchmark {
+
+    private static final int LOOKUPS = 1 << 16;
+
+    private PartitionedChunk[] chunks;
+
+    private int[] columns;
+
+    private int lookup;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<PartitionedChunk> chunks = BenchmarkData.partitionedChunks();
+        Random random = new Random(BenchmarkData.SEED + 30);
+        this.chunks = new PartitionedChunk[LOOKUPS];
+        this.columns = new int[LOOKUPS];
+        int n = 0;
+        while (n < LOOKUPS) {
+            this.chunks[n] = chunks.get(random.nextInt(chunks.size()));
+            this.columns[n] = random.nextInt(256);
+            n++;
+        }
+        this.lookup = 0;
+    }
+
+    @Benchmark
+    public Optional<Key> getDomainKey() {
+        int n = this.lookup;
+        this.lookup = (n + 1) & (LOOKUPS - 1);
+        int column = this.columns[n];
+        return this.chunks[n].getDomainKey(PartitionedChunk.iFromColumnNumber(column), PartitionedChunk.kFromColumnNumber(column));
+    }
+
+}
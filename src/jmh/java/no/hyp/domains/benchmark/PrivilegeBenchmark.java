@@ -0,0 +1,69 @@
+package no.hyp.domains.benchmark;
+
+import no.hyp.domains.Domain;
+import no.hyp.domains.Privilegium;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking the privilege of a player in a domain, as every protected event does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrivilegeBenchmark {
+
+    private static final int CHECKS = 1 << 16;
+
+    private Domain[] domains;
+
+    private UUID[] players;
+
+    private Privilegium[] privileges;
+
+    private int check;
+
+    /**
+     * Pairs of domains and players, where about half of the players have a title in
+     * the domain, so both the title lookup and the fallback are measured.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Domain> domains = BenchmarkData.domains();
+        UUID[] players = BenchmarkData.players();
+        Privilegium[] values = Privilegium.values();
+        Random random = new Random(BenchmarkData.SEED + 20);
+        this.domains = new Domain[CHECKS];
+        this.players = new UUID[CHECKS];
+        this.privileges = new Privilegium[CHECKS];
+        int n = 0;
+        while (n < CHECKS) {
+            Domain domain = domains.get(random.nextInt(domains.size()));
+            this.domains[n] = domain;
+            if (random.nextBoolean()) {
+                UUID[] titled = domain.getTitles().keySet().toArray(new UUID[0]);
+                this.players[n] = titled[random.nextInt(titled.length)];
+            } else {
+                this.players[n] = players[random.nextInt(players.length)];
+            }
+            this.privileges[n] = values[random.nextInt(values.length)];
+            n++;
+        }
+        this.check = 0;
+    }
+
+    @Benchmark
+    public boolean playerHasPrivilege() {
+        int n = this.check;
+        this.check = (n + 1) & (CHECKS - 1);
+        return this.domains[n].playerHasPrivilege(this.players[n], this.privileges[n]);
+    }
+
+}
@@ -0,0 +1,68 @@
+package no.hyp.domains.benchmark;
+
+import no.hyp.domains.Domain;
+import no.hyp.domains.persistence.IndexedRepository;
+import no.hyp.domains.persistence.Repository;
+import no.hyp.domains.persistence.RepositoryException;
+import no.hyp.domains.persistence.SqlRepository;
+import no.hyp.domains.persistence.SqliteDatabase;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving the domain owning a column, as every protected event does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+    private static final int LOOKUPS = 1 << 16;
+
+    /**
+     * SQL queries the database on every lookup, INDEXED answers from the claim index.
+     */
+    @Param({"SQL", "INDEXED"})
+    public String repositoryType;
+
+    private SqliteDatabase database;
+
+    private Repository repository;
+
+    private int[] coordinates;
+
+    private int lookup;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException, RepositoryException {
+        File file = BenchmarkData.createDatabase();
+        this.database = new SqliteDatabase(file.getAbsolutePath());
+        Repository repository = new SqlRepository(this.database);
+        if (this.repositoryType.equals("INDEXED")) {
+            repository = new IndexedRepository(repository);
+        }
+        this.repository = repository;
+        this.coordinates = BenchmarkData.blockCoordinates(LOOKUPS, BenchmarkData.SEED + 10);
+        this.lookup = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws RepositoryException {
+        this.repository.close();
+    }
+
+    @Benchmark
+    public Domain getDomain() throws RepositoryException {
+        int n = this.lookup;
+        this.lookup = (n + 1) & (LOOKUPS - 1);
+        return this.repository.getDomain(BenchmarkData.WORLD_UUID, this.coordinates[n * 2], this.coordinates[n * 2 + 1]);
+    }
+
+}
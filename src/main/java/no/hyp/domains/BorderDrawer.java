@@ -4,13 +4,59 @@ import org.bukkit.Chunk;
 import org.bukkit.entity.Player;
 
 import java.util.Collection;
+import java.util.UUID;
 
 public interface BorderDrawer {
 
-    public void drawBorder();
+    /**
+     * Draw the cached borders to the players viewing them, sending at most the given
+     * number of particles in total.
+     *
+     * @return The number of particles sent.
+     */
+    public int drawBorder(Collection<? extends Player> viewers, int maxParticles);
+
+    /**
+     * Get the share of a viewer when a particle budget is divided between viewers. The
+     * remainder of the division is handed out one particle each from the first viewer,
+     * so that when there are more viewers than particles, some viewers still get a
+     * particle. Drawers rotate the first viewer between draws, so that every viewer
+     * gets its turn.
+     *
+     * @param position The position of the viewer, counted from the first viewer.
+     */
+    public static int viewerShare(int maxParticles, int viewers, int position) {
+        return maxParticles / viewers + (position < maxParticles % viewers ? 1 : 0);
+    }
+
+    /**
+     * Set how much of the border is drawn. A detail of 1 draws the full border, and a
+     * detail of n draws about one in every n particles.
+     */
+    public void setDetail(int detail);
 
     public void cacheChunks(Collection<Chunk> origins);
 
-    public void cacheNearby(Collection<Player> onlinePlayers);
+    public void cacheNearby(Collection<? extends Player> onlinePlayers);
+
+    /**
+     * Mark the border of a chunk and its neighbours as outdated, for example after a
+     * claim or the terrain in the chunk has changed. Outdated borders that are cached
+     * are recalculated on a following caching pass.
+     */
+    public default void invalidate(UUID worldUuid, int chunkX, int chunkZ) {
+        this.invalidate(worldUuid, chunkX, chunkZ, chunkX, chunkZ);
+    }
+
+    /**
+     * Mark the borders of a rectangle of chunks and their neighbours as outdated, for
+     * example after a region has been annexed. The bounds are inclusive.
+     */
+    public void invalidate(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ);
+
+    /**
+     * Release the resources of the drawer, such as worker threads.
+     */
+    public void close();
 
 }
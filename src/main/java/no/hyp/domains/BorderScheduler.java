@@ -0,0 +1,182 @@
+package no.hyp.domains;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A task running every tick that caches and draws borders within a budget.
+ *
+ * Border drawing gets a budget of particles and nanoseconds per tick. The load of
+ * the server is estimated from the time between ticks, since the Bukkit API does
+ * not expose the tick duration. When the server lags or drawing exceeds its time
+ * budget, the degradation level is raised, lowering the detail of the border. When
+ * there is headroom again, the level is lowered one step at a time.
+ */
+public class BorderScheduler implements Runnable {
+
+    /**
+     * The nominal time between ticks.
+     */
+    private static final long TICK_NANOS = 50_000_000;
+
+    /**
+     * The weight of a new sample in the moving averages.
+     */
+    private static final double SMOOTHING = 0.05;
+
+    /**
+     * The number of ticks between changes of the degradation level, so that a change
+     * shows in the averages before the next change is considered.
+     */
+    private static final int ADJUSTMENT_TICKS = 40;
+
+    /**
+     * The highest degradation level, which draws one in every 2^level particles.
+     */
+    private static final int MAXIMUM_LEVEL = 4;
+
+    private final DomainsPlugin plugin;
+
+    private final BorderDrawer drawer;
+
+    private final BorderViewers viewers;
+
+    /**
+     * The number of ticks between each draw.
+     */
+    private final int period;
+
+    /**
+     * The maximum number of particles sent per tick.
+     */
+    private final int particleBudget;
+
+    /**
+     * The maximum time in nanoseconds spent caching and drawing per tick.
+     */
+    private final long nanoBudget;
+
+    /**
+     * The average time in milliseconds between ticks above which the server is
+     * considered to be lagging.
+     */
+    private final double lagMillis;
+
+    /**
+     * The viewing players, collected again every draw.
+     */
+    private final List<Player> viewing;
+
+    private int degradationLevel;
+
+    private int tick;
+
+    private int ticksSinceAdjustment;
+
+    private long lastTickNanos;
+
+    private double averageTickMillis;
+
+    /**
+     * The average time in nanoseconds spent caching and drawing per tick.
+     */
+    private double averageDrawNanos;
+
+    /**
+     * The average number of particles sent per tick.
+     */
+    private double averageParticles;
+
+    public BorderScheduler(DomainsPlugin plugin, BorderDrawer drawer, BorderViewers viewers, int period, int particleBudget, long nanoBudget, double lagMillis) {
+        if (period < 1) {
+            throw new IllegalArgumentException("period must be at least 1.");
+        }
+        this.plugin = plugin;
+        this.drawer = drawer;
+        this.viewers = viewers;
+        this.period = period;
+        this.particleBudget = particleBudget;
+        this.nanoBudget = nanoBudget;
+        this.lagMillis = lagMillis;
+        this.viewing = new ArrayList<>();
+        this.degradationLevel = 0;
+        this.tick = 0;
+        this.ticksSinceAdjustment = 0;
+        this.lastTickNanos = 0;
+        this.averageTickMillis = TICK_NANOS / 1_000_000.0;
+        this.averageDrawNanos = 0;
+        this.averageParticles = 0;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        if (this.lastTickNanos != 0) {
+            double tickMillis = (start - this.lastTickNanos) / 1_000_000.0;
+            this.averageTickMillis += SMOOTHING * (tickMillis - this.averageTickMillis);
+        }
+        this.lastTickNanos = start;
+        int particles = 0;
+        if (this.tick % this.period == 0) {
+            this.viewing.clear();
+            this.viewers.collectViewing(this.plugin.getServer().getOnlinePlayers(), this.viewing);
+            this.drawer.cacheNearby(this.viewing);
+            particles = this.drawer.drawBorder(this.viewing, this.particleBudget * this.period);
+        }
+        this.tick++;
+        long drawNanos = System.nanoTime() - start;
+        this.averageDrawNanos += SMOOTHING * (drawNanos - this.averageDrawNanos);
+        this.averageParticles += SMOOTHING * (particles - this.averageParticles);
+        this.adjust();
+    }
+
+    /**
+     * Raise the degradation level if the server lags or drawing is over its time
+     * budget, and lower it if there is plenty of headroom.
+     */
+    private void adjust() {
+        this.ticksSinceAdjustment++;
+        if (this.ticksSinceAdjustment < ADJUSTMENT_TICKS) {
+            return;
+        }
+        boolean overloaded = this.averageTickMillis > this.lagMillis || this.averageDrawNanos > this.nanoBudget;
+        // Only recover with a margin, so that the level does not flap at the threshold.
+        boolean headroom = this.averageTickMillis < this.lagMillis * 0.9 && this.averageDrawNanos < this.nanoBudget / 2.0;
+        if (overloaded && this.degradationLevel < MAXIMUM_LEVEL) {
+            this.setDegradationLevel(this.degradationLevel + 1);
+        } else if (headroom && this.degradationLevel > 0) {
+            this.setDegradationLevel(this.degradationLevel - 1);
+        }
+    }
+
+    private void setDegradationLevel(int level) {
+        this.degradationLevel = level;
+        this.drawer.setDetail(1 << level);
+        this.ticksSinceAdjustment = 0;
+    }
+
+    /**
+     * The current degradation level, from 0 for full detail up to 4.
+     */
+    public int getDegradationLevel() {
+        return this.degradationLevel;
+    }
+
+    /**
+     * The average number of border particles sent per second.
+     */
+    public double getParticleRate() {
+        return this.averageParticles * 20.0;
+    }
+
+    public double getAverageTickMillis() {
+        return this.averageTickMillis;
+    }
+
+    public double getAverageDrawNanos() {
+        return this.averageDrawNanos;
+    }
+
+}
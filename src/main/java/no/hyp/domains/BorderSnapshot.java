@@ -0,0 +1,191 @@
+package no.hyp.domains;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * A snapshot of the terrain heights and claims around a chunk.
+ *
+ * The snapshot covers the 16 × 16 columns of the chunk and the ring of columns
+ * around it, which is everything needed to calculate the border of the chunk.
+ * It is captured on the server thread, after which the border can be calculated
+ * on any thread. The heights are read from the {@link ChunkSnapshot}s of the chunks
+ * the first time they are needed, which is on the thread calculating the border.
+ */
+public final class BorderSnapshot {
+
+    /**
+     * The width of the snapshot in columns: the chunk and one column on each side.
+     */
+    public static final int SIZE = 18;
+
+    private final UUID worldUuid;
+
+    private final int chunkX;
+
+    private final int chunkZ;
+
+    /**
+     * The y coordinate of the border in each column, one above the highest block.
+     */
+    private final int[] heights;
+
+    /**
+     * The snapshots of the chunk and its 3 × 3 neighbours the heights are read from,
+     * or null once the heights have been read. Unloaded neighbours have no snapshot.
+     */
+    private @Nullable ChunkSnapshot[] terrain;
+
+    /**
+     * The domain owning each column, or null if it is unclaimed. Domains are only
+     * compared by identity, so they are safe to hold across threads.
+     */
+    private final Domain[] owners;
+
+    public BorderSnapshot(UUID worldUuid, int chunkX, int chunkZ, int[] heights, Domain[] owners) {
+        if (heights.length != SIZE * SIZE || owners.length != SIZE * SIZE) {
+            throw new IllegalArgumentException("heights and owners must have a length of 18 * 18.");
+        }
+        this.worldUuid = worldUuid;
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.heights = heights;
+        this.owners = owners;
+        this.terrain = null;
+    }
+
+    private BorderSnapshot(UUID worldUuid, int chunkX, int chunkZ, ChunkSnapshot[] terrain, Domain[] owners) {
+        this(worldUuid, chunkX, chunkZ, new int[SIZE * SIZE], owners);
+        this.terrain = terrain;
+    }
+
+    /**
+     * Capture the snapshot of a chunk. Must be called on the server thread.
+     *
+     * Only the {@link ChunkSnapshot}s of the loaded chunks are taken here, and the
+     * owners are resolved from the resident claims once per chunk. Neighbouring
+     * chunks are not loaded to capture the ring of columns around the chunk. The
+     * ring columns in an unloaded chunk get the height of the nearest column inside
+     * the chunk instead.
+     *
+     * @param chunkSnapshots The chunk snapshots taken so far in the current caching
+     *                       pass, which are reused for neighbouring chunks.
+     */
+    public static BorderSnapshot capture(DomainsPlugin plugin, World world, int chunkX, int chunkZ, WorldChunkMap<ChunkSnapshot> chunkSnapshots) {
+        UUID worldUuid = world.getUID();
+        ChunkSnapshot[] terrain = new ChunkSnapshot[9];
+        ClaimedChunk[] claims = new ClaimedChunk[9];
+        int n = 0;
+        while (n < 9) {
+            int neighbourX = chunkX + n / 3 - 1;
+            int neighbourZ = chunkZ + n % 3 - 1;
+            // The chunk itself is always sampled, while unloaded neighbours are not loaded.
+            if (n == 4 || world.isChunkLoaded(neighbourX, neighbourZ)) {
+                ChunkSnapshot chunkSnapshot = chunkSnapshots.get(worldUuid, neighbourX, neighbourZ);
+                if (chunkSnapshot == null) {
+                    chunkSnapshot = world.getChunkAt(neighbourX, neighbourZ).getChunkSnapshot(true, false, false);
+                    chunkSnapshots.put(worldUuid, neighbourX, neighbourZ, chunkSnapshot);
+                }
+                terrain[n] = chunkSnapshot;
+            }
+            claims[n] = plugin.getResidentClaims(world, neighbourX, neighbourZ);
+            n++;
+        }
+        Domain[] owners = new Domain[SIZE * SIZE];
+        // Neighbouring columns are mostly owned by the same domain, so the last domain is reused.
+        Key ownerKey = null;
+        Domain owner = null;
+        int i = -1;
+        while (i <= 16) {
+            int k = -1;
+            while (k <= 16) {
+                ClaimedChunk chunk = claims[BorderSnapshot.neighbour(i, k)];
+                Key domainKey = chunk != null ? chunk.getColumnKey(i & 15, k & 15) : null;
+                if (domainKey != ownerKey) {
+                    ownerKey = domainKey;
+                    owner = domainKey != null ? plugin.getResidentDomain(domainKey) : null;
+                }
+                owners[BorderSnapshot.index(i, k)] = owner;
+                k++;
+            }
+            i++;
+        }
+        return new BorderSnapshot(worldUuid, chunkX, chunkZ, terrain, owners);
+    }
+
+    /**
+     * Read the heights from the chunk snapshots, and release the snapshots.
+     */
+    private void readHeights(ChunkSnapshot[] terrain) {
+        int i = -1;
+        while (i <= 16) {
+            int k = -1;
+            while (k <= 16) {
+                ChunkSnapshot chunk = terrain[BorderSnapshot.neighbour(i, k)];
+                int sampleI = i & 15;
+                int sampleK = k & 15;
+                if (chunk == null) {
+                    chunk = terrain[4];
+                    sampleI = Math.max(0, Math.min(15, i));
+                    sampleK = Math.max(0, Math.min(15, k));
+                }
+                this.heights[BorderSnapshot.index(i, k)] = chunk.getHighestBlockYAt(sampleI, sampleK) + 1;
+                k++;
+            }
+            i++;
+        }
+        this.terrain = null;
+    }
+
+    /**
+     * The index of the chunk of a column among the 3 × 3 chunks around the chunk.
+     */
+    private static int neighbour(int i, int k) {
+        return ((i >> 4) + 1) * 3 + ((k >> 4) + 1);
+    }
+
+    private static int index(int i, int k) {
+        return (i + 1) * SIZE + (k + 1);
+    }
+
+    public UUID getWorldUuid() {
+        return this.worldUuid;
+    }
+
+    public int getChunkX() {
+        return this.chunkX;
+    }
+
+    public int getChunkZ() {
+        return this.chunkZ;
+    }
+
+    /**
+     * Get the border height of a column.
+     *
+     * @param i The x coordinate of the column relative to the chunk, -1 to 16.
+     * @param k The z coordinate of the column relative to the chunk, -1 to 16.
+     */
+    public int getHeight(int i, int k) {
+        ChunkSnapshot[] terrain = this.terrain;
+        if (terrain != null) {
+            this.readHeights(terrain);
+        }
+        return this.heights[BorderSnapshot.index(i, k)];
+    }
+
+    /**
+     * Get the domain owning a column.
+     *
+     * @param i The x coordinate of the column relative to the chunk, -1 to 16.
+     * @param k The z coordinate of the column relative to the chunk, -1 to 16.
+     * @return The domain, or null if the column is unclaimed.
+     */
+    public @Nullable Domain getOwner(int i, int k) {
+        return this.owners[BorderSnapshot.index(i, k)];
+    }
+
+}
@@ -0,0 +1,110 @@
+package no.hyp.domains;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+
+/**
+ * The view of a player, used to cull border vertices that the player cannot see.
+ *
+ * A vertex is visible if it is within the view distance and inside a cone around
+ * the direction the player is looking. The cone is wider than the field of view
+ * of the client, so that the culling is only rough and never visible at the edges
+ * of the screen. Vertices right next to the player are always visible.
+ *
+ * The view is mutable, so a single instance can be reused for every player.
+ */
+public class BorderView {
+
+    /**
+     * The squared cosine of the half angle of the view cone, which is 60 degrees.
+     */
+    private static final double CONE_COSINE_SQUARED = 0.25;
+
+    /**
+     * The squared distance within which vertices are visible in every direction.
+     */
+    private static final double NEAR_DISTANCE_SQUARED = 4.0 * 4.0;
+
+    /**
+     * The distance from the centre of a chunk to its corners, ignoring height.
+     */
+    private static final double CHUNK_RADIUS = 8.0 * Math.sqrt(2.0);
+
+    private final double viewDistance;
+
+    private final double viewDistanceSquared;
+
+    private double eyeX;
+
+    private double eyeY;
+
+    private double eyeZ;
+
+    private double directionX;
+
+    private double directionY;
+
+    private double directionZ;
+
+    public BorderView(double viewDistance) {
+        this.viewDistance = viewDistance;
+        this.viewDistanceSquared = viewDistance * viewDistance;
+    }
+
+    /**
+     * Look from the eyes of a player.
+     */
+    public void set(Player player) {
+        Location eye = player.getEyeLocation();
+        Vector direction = eye.getDirection();
+        this.eyeX = eye.getX();
+        this.eyeY = eye.getY();
+        this.eyeZ = eye.getZ();
+        this.directionX = direction.getX();
+        this.directionY = direction.getY();
+        this.directionZ = direction.getZ();
+    }
+
+    /**
+     * The chunk radius around the player that can contain visible vertices.
+     */
+    public int getChunkRadius() {
+        return (int) Math.ceil(this.viewDistance / 16.0);
+    }
+
+    public int getChunkX() {
+        return (int) Math.floor(this.eyeX) >> 4;
+    }
+
+    public int getChunkZ() {
+        return (int) Math.floor(this.eyeZ) >> 4;
+    }
+
+    /**
+     * Whether any part of a chunk may be within the view distance.
+     */
+    public boolean isChunkInRange(int chunkX, int chunkZ) {
+        double dx = chunkX * 16 + 8 - this.eyeX;
+        double dz = chunkZ * 16 + 8 - this.eyeZ;
+        double range = this.viewDistance + CHUNK_RADIUS;
+        return dx * dx + dz * dz <= range * range;
+    }
+
+    public boolean canSee(double x, double y, double z) {
+        double dx = x - this.eyeX;
+        double dy = y - this.eyeY;
+        double dz = z - this.eyeZ;
+        double distanceSquared = dx * dx + dy * dy + dz * dz;
+        if (distanceSquared > this.viewDistanceSquared) {
+            return false;
+        }
+        if (distanceSquared <= NEAR_DISTANCE_SQUARED) {
+            return true;
+        }
+        // Inside the cone if the angle to the look direction is at most the half angle.
+        double dot = dx * this.directionX + dy * this.directionY + dz * this.directionZ;
+        return dot > 0 && dot * dot >= CONE_COSINE_SQUARED * distanceSquared;
+    }
+
+}
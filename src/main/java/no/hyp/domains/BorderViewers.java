@@ -0,0 +1,87 @@
+package no.hyp.domains;
+
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Tracks which players are viewing domain borders.
+ *
+ * A player views borders while they have toggled them on, or while they are holding
+ * the claim tool in their main hand. Borders are only cached around and drawn to
+ * viewing players.
+ */
+public class BorderViewers implements Listener {
+
+    /**
+     * The players that have toggled borders on.
+     */
+    private final Set<UUID> viewers;
+
+    /**
+     * The item that shows borders while held, or null if there is none.
+     */
+    private final @Nullable Material claimTool;
+
+    /**
+     * The maximum distance in blocks from a player at which border vertices are drawn.
+     */
+    private final double viewDistance;
+
+    public BorderViewers(@Nullable Material claimTool, double viewDistance) {
+        this.viewers = new HashSet<>();
+        this.claimTool = claimTool;
+        this.viewDistance = viewDistance;
+    }
+
+    public double getViewDistance() {
+        return this.viewDistance;
+    }
+
+    public boolean isViewing(Player player) {
+        if (this.viewers.contains(player.getUniqueId())) {
+            return true;
+        }
+        return this.claimTool != null && player.getInventory().getItemInMainHand().getType() == this.claimTool;
+    }
+
+    /**
+     * Toggle whether a player views borders regardless of what they are holding.
+     *
+     * @return Whether borders are now toggled on.
+     */
+    public boolean toggle(Player player) {
+        UUID playerUuid = player.getUniqueId();
+        if (this.viewers.remove(playerUuid)) {
+            return false;
+        }
+        this.viewers.add(playerUuid);
+        return true;
+    }
+
+    /**
+     * Add the viewing players among the given players to a collection.
+     */
+    public void collectViewing(Collection<? extends Player> players, Collection<Player> viewing) {
+        for (Player player : players) {
+            if (this.isViewing(player)) {
+                viewing.add(player);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        this.viewers.remove(event.getPlayer().getUniqueId());
+    }
+
+}
@@ -1,5 +1,7 @@
 package no.hyp.domains;
 
+import org.bukkit.HeightMap;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -27,8 +29,7 @@ public class BuildListener implements Listener {
     public void onBlockBreak(BlockBreakEvent event) {
         Player player = event.getPlayer();
         Block block = event.getBlock();
-        Domain domain = plugin.getDomain(block.getX(), block.getZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.BUILD)) {
+        if (!plugin.playerHasPrivilege(player, block.getWorld(), block.getX(), block.getZ(), Privilegium.BUILD)) {
             event.setCancelled(true);
         }
     }
@@ -37,8 +38,7 @@ public class BuildListener implements Listener {
     public void onFertilise(BlockFertilizeEvent event) {
         Player player = event.getPlayer();
         Block block = event.getBlock();
-        Domain domain = plugin.getDomain(block.getX(), block.getZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.BUILD)) {
+        if (!plugin.playerHasPrivilege(player, block.getWorld(), block.getX(), block.getZ(), Privilegium.BUILD)) {
             event.setCancelled(true);
         }
     }
@@ -47,8 +47,7 @@ public class BuildListener implements Listener {
     public void onBlockPlace(BlockPlaceEvent event) {
         Player player = event.getPlayer();
         Block block = event.getBlock();
-        Domain domain = plugin.getDomain(block.getX(), block.getZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.BUILD)) {
+        if (!plugin.playerHasPrivilege(player, block.getWorld(), block.getX(), block.getZ(), Privilegium.BUILD)) {
             event.setCancelled(true);
         }
     }
@@ -57,8 +56,7 @@ public class BuildListener implements Listener {
     public void onSignChange(SignChangeEvent event) {
         Player player = event.getPlayer();
         Block block = event.getBlock();
-        Domain domain = plugin.getDomain(block.getX(), block.getZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.BUILD)) {
+        if (!plugin.playerHasPrivilege(player, block.getWorld(), block.getX(), block.getZ(), Privilegium.BUILD)) {
             event.setCancelled(true);
         }
     }
@@ -67,8 +65,7 @@ public class BuildListener implements Listener {
     public void onBucketFill(PlayerBucketFillEvent event) {
         Player player = event.getPlayer();
         Block block = event.getBlock();
-        Domain domain = plugin.getDomain(block.getX(), block.getZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.BUILD)) {
+        if (!plugin.playerHasPrivilege(player, block.getWorld(), block.getX(), block.getZ(), Privilegium.BUILD)) {
             event.setCancelled(true);
         }
     }
@@ -77,10 +74,47 @@ public class BuildListener implements Listener {
     public void onBucketEmpty(PlayerBucketEmptyEvent event) {
         Player player = event.getPlayer();
         Block block = event.getBlock();
-        Domain domain = plugin.getDomain(block.getX(), block.getZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.BUILD)) {
+        if (!plugin.playerHasPrivilege(player, block.getWorld(), block.getX(), block.getZ(), Privilegium.BUILD)) {
             event.setCancelled(true);
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBorderBlockBreak(BlockBreakEvent event) {
+        this.invalidateBorderColumn(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBorderBlockPlace(BlockPlaceEvent event) {
+        this.invalidateBorderColumn(event.getBlock());
+    }
+
+    /**
+     * Invalidate the border around a block if it changes the surface of a column next
+     * to a border, that is a column with a neighbour owned by another domain.
+     */
+    private void invalidateBorderColumn(Block block) {
+        World world = block.getWorld();
+        int x = block.getX();
+        int z = block.getZ();
+        // A block below the surface does not move the border. The height map may not
+        // include the block yet, so a block at the surface counts as well.
+        if (block.getY() < world.getHighestBlockYAt(x, z, HeightMap.WORLD_SURFACE)) {
+            return;
+        }
+        Domain domain = plugin.getDomain(world, x, z);
+        int i = -1;
+        while (i <= 1) {
+            int k = -1;
+            while (k <= 1) {
+                if (plugin.getDomain(world, x + i, z + k) != domain) {
+                    plugin.getBorderDrawer().invalidate(world.getUID(), x >> 4, z >> 4);
+                    return;
+                }
+                k++;
+            }
+            i++;
+        }
+    }
+
 }
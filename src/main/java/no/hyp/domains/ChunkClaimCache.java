@@ -0,0 +1,161 @@
+package no.hyp.domains;
+
+import no.hyp.domains.persistence.IndexedRepository;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+
+/**
+ * Keeps the claims of the loaded chunks resident in an {@link IndexedRepository},
+ * following the chunk lifecycle of the server.
+ *
+ * The claims of the chunks loaded during a tick are fetched in the background at the
+ * end of the tick. The claims of an unloaded chunk are evicted after a grace period,
+ * unless the chunk has been loaded again, so that chunks loaded and unloaded
+ * repeatedly are not fetched every time.
+ */
+public class ChunkClaimCache implements Listener, Runnable {
+
+    private final DomainsPlugin plugin;
+
+    private final IndexedRepository repository;
+
+    /**
+     * The number of ticks the claims of an unloaded chunk stay resident.
+     */
+    private final long graceTicks;
+
+    private long tick;
+
+    /**
+     * The chunks loaded since the last run, by world.
+     */
+    private final Map<UUID, List<Long>> loaded;
+
+    /**
+     * The unloaded chunks, in the order they are evicted.
+     */
+    private final Deque<Eviction> evictions;
+
+    /**
+     * The tick at which each unloaded chunk is evicted, from its latest unload. An
+     * eviction queued by an earlier unload of a chunk that has since been loaded and
+     * unloaded again is stale, and is skipped.
+     */
+    private final WorldChunkMap<Long> evictionTicks;
+
+    public ChunkClaimCache(DomainsPlugin plugin, IndexedRepository repository, long graceTicks) {
+        this.plugin = plugin;
+        this.repository = repository;
+        this.graceTicks = graceTicks;
+        this.tick = 0;
+        this.loaded = new HashMap<>();
+        this.evictions = new ArrayDeque<>();
+        this.evictionTicks = new WorldChunkMap<>();
+    }
+
+    /**
+     * Fetch the claims of every chunk that is already loaded, such as the spawn chunks
+     * loaded before the plugin is enabled.
+     */
+    public void fetchLoadedChunks() {
+        for (World world : this.plugin.getServer().getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                this.loaded.computeIfAbsent(world.getUID(), x -> new ArrayList<>()).add(ChunkMap.key(chunk.getX(), chunk.getZ()));
+            }
+        }
+    }
+
+    /**
+     * Fetch the claims of a chunk at the end of the tick, such as a loaded chunk whose
+     * claims are not resident because its fetch failed.
+     */
+    public void fetchChunk(UUID worldUuid, int chunkX, int chunkZ) {
+        this.loaded.computeIfAbsent(worldUuid, x -> new ArrayList<>()).add(ChunkMap.key(chunkX, chunkZ));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent e) {
+        Chunk chunk = e.getChunk();
+        this.loaded.computeIfAbsent(e.getWorld().getUID(), x -> new ArrayList<>()).add(ChunkMap.key(chunk.getX(), chunk.getZ()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent e) {
+        Chunk chunk = e.getChunk();
+        UUID worldUuid = e.getWorld().getUID();
+        long tick = this.tick + this.graceTicks;
+        this.evictions.add(new Eviction(worldUuid, chunk.getX(), chunk.getZ(), tick));
+        this.evictionTicks.put(worldUuid, chunk.getX(), chunk.getZ(), tick);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent e) {
+        UUID worldUuid = e.getWorld().getUID();
+        this.loaded.remove(worldUuid);
+        this.evictionTicks.removeWorld(worldUuid);
+        this.repository.evictWorld(worldUuid);
+    }
+
+    @Override
+    public void run() {
+        this.tick++;
+        if (!this.loaded.isEmpty()) {
+            BukkitScheduler scheduler = this.plugin.getServer().getScheduler();
+            Executor executor = runnable -> scheduler.runTaskAsynchronously(this.plugin, runnable);
+            Executor serverExecutor = runnable -> scheduler.runTask(this.plugin, runnable);
+            for (Map.Entry<UUID, List<Long>> entry : this.loaded.entrySet()) {
+                this.repository.fetchChunks(entry.getKey(), entry.getValue(), executor, serverExecutor).exceptionally(e -> {
+                    this.plugin.getLogger().log(Level.SEVERE, "Could not fetch the claims of loaded chunks.", e);
+                    return null;
+                });
+            }
+            this.loaded.clear();
+        }
+        while (!this.evictions.isEmpty() && this.evictions.peek().tick <= this.tick) {
+            Eviction eviction = this.evictions.poll();
+            Long tick = this.evictionTicks.get(eviction.worldUuid, eviction.chunkX, eviction.chunkZ);
+            if (tick == null || tick != eviction.tick) {
+                continue;
+            }
+            this.evictionTicks.remove(eviction.worldUuid, eviction.chunkX, eviction.chunkZ);
+            World world = this.plugin.getServer().getWorld(eviction.worldUuid);
+            if (world == null || !world.isChunkLoaded(eviction.chunkX, eviction.chunkZ)) {
+                this.repository.evictChunk(eviction.worldUuid, eviction.chunkX, eviction.chunkZ);
+            }
+        }
+    }
+
+    private static final class Eviction {
+
+        private final UUID worldUuid;
+
+        private final int chunkX;
+
+        private final int chunkZ;
+
+        /**
+         * The tick at which the chunk is evicted.
+         */
+        private final long tick;
+
+        private Eviction(UUID worldUuid, int chunkX, int chunkZ, long tick) {
+            this.worldUuid = worldUuid;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.tick = tick;
+        }
+
+    }
+
+}
@@ -0,0 +1,246 @@
+package no.hyp.domains;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from chunk coordinates to values.
+ *
+ * The chunk coordinates are packed into a single long, so that looking up a chunk
+ * neither boxes the key nor allocates. Null values are not permitted, since a null
+ * value marks an empty slot.
+ *
+ * This map is not thread safe.
+ */
+public final class ChunkMap<V> {
+
+    private static final int MINIMUM_CAPACITY = 16;
+
+    /**
+     * The packed chunk coordinates of each slot.
+     */
+    private long[] keys;
+
+    /**
+     * The value of each slot. An empty slot has a null value.
+     */
+    private Object[] values;
+
+    /**
+     * The number of entries in the map.
+     */
+    private int size;
+
+    /**
+     * The capacity minus one. The capacity is always a power of two.
+     */
+    private int mask;
+
+    /**
+     * The size at which the table is doubled. The table is kept at most half full.
+     */
+    private int threshold;
+
+    public ChunkMap() {
+        this(MINIMUM_CAPACITY);
+    }
+
+    public ChunkMap(int expectedSize) {
+        this.allocate(ChunkMap.capacityFor(expectedSize));
+    }
+
+    /**
+     * Pack chunk coordinates into a key.
+     */
+    public static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public static int chunkX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int chunkZ(long key) {
+        return (int) key;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+        this.threshold = capacity / 2;
+    }
+
+    /**
+     * Find the slot containing the key, or the empty slot where it would be inserted.
+     */
+    private int slot(long key) {
+        int slot = ChunkMap.hash(key) & this.mask;
+        while (this.values[slot] != null && this.keys[slot] != key) {
+            slot = (slot + 1) & this.mask;
+        }
+        return slot;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public @Nullable V get(int chunkX, int chunkZ) {
+        return this.get(ChunkMap.key(chunkX, chunkZ));
+    }
+
+    @SuppressWarnings("unchecked")
+    public @Nullable V get(long key) {
+        return (V) this.values[this.slot(key)];
+    }
+
+    public boolean containsKey(long key) {
+        return this.values[this.slot(key)] != null;
+    }
+
+    public @Nullable V put(int chunkX, int chunkZ, V value) {
+        return this.put(ChunkMap.key(chunkX, chunkZ), value);
+    }
+
+    /**
+     * Associate a value with a chunk.
+     *
+     * @return The previous value, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("ChunkMap does not permit null values.");
+        }
+        int slot = this.slot(key);
+        V previous = (V) this.values[slot];
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        if (previous == null && ++this.size > this.threshold) {
+            this.rehash(this.values.length * 2);
+        }
+        return previous;
+    }
+
+    public @Nullable V remove(int chunkX, int chunkZ) {
+        return this.remove(ChunkMap.key(chunkX, chunkZ));
+    }
+
+    /**
+     * Remove the value associated with a chunk.
+     *
+     * @return The removed value, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable V remove(long key) {
+        int slot = this.slot(key);
+        V previous = (V) this.values[slot];
+        if (previous != null) {
+            this.removeSlot(slot);
+        }
+        return previous;
+    }
+
+    /**
+     * Empty a slot and shift the following entries of its cluster backwards, so
+     * that no lookup is cut short by the new hole.
+     */
+    private void removeSlot(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & this.mask;
+        while (this.values[next] != null) {
+            int home = ChunkMap.hash(this.keys[next]) & this.mask;
+            // Move the entry into the hole unless its home slot lies cyclically within (hole, next].
+            boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+            if (movable) {
+                this.keys[hole] = this.keys[next];
+                this.values[hole] = this.values[next];
+                hole = next;
+            }
+            next = (next + 1) & this.mask;
+        }
+        this.values[hole] = null;
+        this.size--;
+    }
+
+    /**
+     * Remove every entry whose chunk is not a key in the other map.
+     */
+    public void retainAll(ChunkMap<?> other) {
+        int slot = 0;
+        while (slot < this.values.length) {
+            if (this.values[slot] != null && !other.containsKey(this.keys[slot])) {
+                // Removing shifts a later entry into this slot, so check it again.
+                this.removeSlot(slot);
+            } else {
+                slot++;
+            }
+        }
+    }
+
+    public void clear() {
+        if (this.size > 0) {
+            Arrays.fill(this.values, null);
+            this.size = 0;
+        }
+    }
+
+    /**
+     * The number of slots in the table. Together with {@link #keyAt(int)} and
+     * {@link #valueAt(int)}, this allows iterating over the map without allocating.
+     *
+     * The entry in the current slot may be removed while iterating, as long as the
+     * slot is visited again, since removing can shift a later entry into the slot.
+     */
+    public int capacity() {
+        return this.values.length;
+    }
+
+    public long keyAt(int slot) {
+        return this.keys[slot];
+    }
+
+    /**
+     * Get the value in a slot.
+     *
+     * @return The value, or null if the slot is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable V valueAt(int slot) {
+        return (V) this.values[slot];
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.allocate(capacity);
+        int i = 0;
+        while (i < oldValues.length) {
+            if (oldValues[i] != null) {
+                int slot = this.slot(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+            }
+            i++;
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+package no.hyp.domains;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * A resident index of all domains and claimed chunks.
+ *
+ * Claimed chunks are stored in a {@link WorldChunkMap}, so resolving the domain
+ * owning a column is two hash lookups without any database access or allocation.
+ *
+ * Every domain in the index is linked to its nearest superdomain in the index, so
+ * that privileges are inherited along the ancestor chain without loading the
+ * superdomains. A superdomain missing from the index is skipped.
+ *
+ * The index is not thread safe and must only be used from the server thread.
+ */
+public class ClaimIndex {
+
+    /**
+     * All domains, by their key.
+     */
+    private final Map<Key, Domain> domains;
+
+    /**
+     * The keys of all domains, as a tree.
+     */
+    private final KeyIndex keys;
+
+    /**
+     * All claimed chunks.
+     */
+    private final WorldChunkMap<ClaimedChunk> chunks;
+
+    public ClaimIndex() {
+        this.domains = new HashMap<>();
+        this.keys = new KeyIndex();
+        this.chunks = new WorldChunkMap<>();
+    }
+
+    /**
+     * Get the domain owning the column at the given block coordinates.
+     *
+     * @return The domain, or null if the column is unclaimed.
+     */
+    public @Nullable Domain getDomain(UUID worldUuid, int x, int z) {
+        ClaimedChunk chunk = this.chunks.get(worldUuid, x >> 4, z >> 4);
+        if (chunk == null) {
+            return null;
+        }
+        Key domainKey = chunk.getColumnKey(x & 15, z & 15);
+        if (domainKey == null) {
+            return null;
+        }
+        return this.domains.get(domainKey);
+    }
+
+    public @Nullable Domain getDomain(Key domainKey) {
+        return this.domains.get(domainKey);
+    }
+
+    /**
+     * The keys of all domains, for listing subdomains and descendants.
+     */
+    public KeyIndex getKeys() {
+        return this.keys;
+    }
+
+    /**
+     * Add a domain to the index, link it to its nearest superdomain in the index and
+     * link the nearest subdomains to it, including subdomains that were added before
+     * it. If it replaces another instance of the domain, that instance is unlinked.
+     */
+    public void putDomain(Domain domain) {
+        Key domainKey = domain.getKey();
+        Domain previous = this.domains.put(domainKey, domain);
+        this.keys.add(domainKey);
+        domain.setParent(this.getNearestSuperdomain(domainKey));
+        for (Key subKey : this.keys.getSubKeys(domainKey)) {
+            this.domains.get(subKey).setParent(domain);
+        }
+        if (previous != null && previous != domain) {
+            previous.setParent(null);
+        }
+    }
+
+    /**
+     * Add many domains to the index and link them. Superdomains are linked before
+     * their subdomains, so that the privilege masks of each subtree are only
+     * calculated once.
+     */
+    public void putDomains(Collection<Domain> domains) {
+        List<Domain> sorted = new ArrayList<>(domains);
+        sorted.sort(Comparator.comparingInt(domain -> domain.getKey().getDepth()));
+        for (Domain domain : sorted) {
+            this.putDomain(domain);
+        }
+    }
+
+    /**
+     * Remove a domain from the index. Its subdomains are linked to its nearest
+     * superdomain in the index, or become roots if there is none, until a domain with
+     * the same key is added again.
+     */
+    public void removeDomain(Key domainKey) {
+        Domain domain = this.domains.remove(domainKey);
+        if (domain != null) {
+            this.keys.remove(domainKey);
+            Domain parent = domain.getParent();
+            for (Domain child : new ArrayList<>(domain.getChildren())) {
+                child.setParent(parent);
+            }
+            domain.setParent(null);
+        }
+    }
+
+    /**
+     * Get the nearest superdomain of a key in the index.
+     *
+     * @return The superdomain, or null if no superdomain is in the index.
+     */
+    private @Nullable Domain getNearestSuperdomain(Key domainKey) {
+        Key superKey = domainKey.getParent();
+        while (superKey != null) {
+            Domain superdomain = this.domains.get(superKey);
+            if (superdomain != null) {
+                return superdomain;
+            }
+            superKey = superKey.getParent();
+        }
+        return null;
+    }
+
+    public @Nullable ClaimedChunk getChunk(UUID worldUuid, int chunkX, int chunkZ) {
+        return this.chunks.get(worldUuid, chunkX, chunkZ);
+    }
+
+    public ChunkType getChunkType(UUID worldUuid, int chunkX, int chunkZ) {
+        ClaimedChunk chunk = this.getChunk(worldUuid, chunkX, chunkZ);
+        return chunk != null ? chunk.getType() : ChunkType.UNCLAIMED;
+    }
+
+    /**
+     * Get the claimed chunks of a world within chunk bounds. The bounds are inclusive.
+     *
+     * A small rectangle is looked up chunk by chunk, while a rectangle with more
+     * chunks than are claimed in the world is answered by scanning the claimed chunks.
+     */
+    public List<ClaimedChunk> getChunks(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        List<ClaimedChunk> result = new ArrayList<>();
+        ChunkMap<ClaimedChunk> chunks = this.chunks.getWorld(worldUuid);
+        if (chunks == null || minChunkX > maxChunkX || minChunkZ > maxChunkZ) {
+            return result;
+        }
+        long area = ((long) maxChunkX - minChunkX + 1) * ((long) maxChunkZ - minChunkZ + 1);
+        if (area <= chunks.size()) {
+            int chunkX = minChunkX;
+            while (chunkX <= maxChunkX) {
+                int chunkZ = minChunkZ;
+                while (chunkZ <= maxChunkZ) {
+                    ClaimedChunk chunk = chunks.get(chunkX, chunkZ);
+                    if (chunk != null) {
+                        result.add(chunk);
+                    }
+                    chunkZ++;
+                }
+                chunkX++;
+            }
+        } else {
+            int slot = 0;
+            while (slot < chunks.capacity()) {
+                ClaimedChunk chunk = chunks.valueAt(slot);
+                if (chunk != null) {
+                    int chunkX = chunk.getChunkX();
+                    int chunkZ = chunk.getChunkZ();
+                    if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                        result.add(chunk);
+                    }
+                }
+                slot++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add a claimed chunk to the index, replacing any previous claims in that chunk.
+     */
+    public void putChunk(ClaimedChunk chunk) {
+        this.chunks.put(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ(), chunk);
+    }
+
+    public void removeChunk(UUID worldUuid, int chunkX, int chunkZ) {
+        this.chunks.remove(worldUuid, chunkX, chunkZ);
+    }
+
+    public void removeWorld(UUID worldUuid) {
+        this.chunks.removeWorld(worldUuid);
+    }
+
+    public void clear() {
+        this.domains.clear();
+        this.keys.clear();
+        this.chunks.clear();
+    }
+
+}
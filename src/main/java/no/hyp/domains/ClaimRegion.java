@@ -0,0 +1,266 @@
+package no.hyp.domains;
+
+import no.hyp.domains.persistence.ChunkBatch;
+import no.hyp.domains.persistence.Repository;
+import no.hyp.domains.persistence.RepositoryException;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * A rectangle of columns in a world, for annexing and disclaiming many chunks or
+ * columns with a single command.
+ *
+ * The claims in the region are loaded with a single range query, the changes are
+ * validated against them, and collected in a {@link ChunkBatch} so that they are
+ * saved in one transaction.
+ */
+public final class ClaimRegion {
+
+    private final UUID worldUuid;
+
+    private final int minX;
+
+    private final int minZ;
+
+    private final int maxX;
+
+    private final int maxZ;
+
+    /**
+     * Create a region between two corner columns, in block coordinates. The corners are inclusive.
+     */
+    public ClaimRegion(UUID worldUuid, int x1, int z1, int x2, int z2) {
+        this.worldUuid = worldUuid;
+        this.minX = Math.min(x1, x2);
+        this.minZ = Math.min(z1, z2);
+        this.maxX = Math.max(x1, x2);
+        this.maxZ = Math.max(z1, z2);
+    }
+
+    /**
+     * Create a region of whole chunks between two corner chunks. The corners are inclusive.
+     */
+    public static ClaimRegion ofChunks(UUID worldUuid, int chunkX1, int chunkZ1, int chunkX2, int chunkZ2) {
+        int minX = Math.min(chunkX1, chunkX2) << 4;
+        int minZ = Math.min(chunkZ1, chunkZ2) << 4;
+        int maxX = (Math.max(chunkX1, chunkX2) << 4) + 15;
+        int maxZ = (Math.max(chunkZ1, chunkZ2) << 4) + 15;
+        return new ClaimRegion(worldUuid, minX, minZ, maxX, maxZ);
+    }
+
+    public UUID getWorldUuid() {
+        return this.worldUuid;
+    }
+
+    public int getMinChunkX() {
+        return this.minX >> 4;
+    }
+
+    public int getMinChunkZ() {
+        return this.minZ >> 4;
+    }
+
+    public int getMaxChunkX() {
+        return this.maxX >> 4;
+    }
+
+    public int getMaxChunkZ() {
+        return this.maxZ >> 4;
+    }
+
+    /**
+     * The number of chunks overlapping the region.
+     */
+    public long getChunkCount() {
+        return ((long) this.getMaxChunkX() - this.getMinChunkX() + 1) * ((long) this.getMaxChunkZ() - this.getMinChunkZ() + 1);
+    }
+
+    /**
+     * Annex every unclaimed chunk in the region to a domain. Chunks with any claims
+     * are left as they are.
+     *
+     * @return The number of chunks annexed.
+     */
+    public int annexChunks(Repository repository, Key domainKey, ChunkBatch batch) throws RepositoryException {
+        ChunkMap<ClaimedChunk> claims = this.loadClaims(repository);
+        int annexed = 0;
+        int chunkX = this.getMinChunkX();
+        while (chunkX <= this.getMaxChunkX()) {
+            int chunkZ = this.getMinChunkZ();
+            while (chunkZ <= this.getMaxChunkZ()) {
+                if (claims.get(chunkX, chunkZ) == null) {
+                    batch.save(new ExclusiveChunk(this.worldUuid, chunkX, chunkZ, domainKey));
+                    annexed++;
+                }
+                chunkZ++;
+            }
+            chunkX++;
+        }
+        return annexed;
+    }
+
+    /**
+     * Annex every unclaimed column in the region to a domain. Columns in exclusive
+     * chunks and claimed columns are left as they are. A chunk where every column
+     * is then claimed by the domain becomes exclusive.
+     *
+     * @return The number of columns annexed.
+     */
+    public int annexColumns(Repository repository, Key domainKey, ChunkBatch batch) throws RepositoryException {
+        ChunkMap<ClaimedChunk> claims = this.loadClaims(repository);
+        int annexed = 0;
+        int chunkX = this.getMinChunkX();
+        while (chunkX <= this.getMaxChunkX()) {
+            int chunkZ = this.getMinChunkZ();
+            while (chunkZ <= this.getMaxChunkZ()) {
+                ClaimedChunk claimed = claims.get(chunkX, chunkZ);
+                if (!(claimed instanceof ExclusiveChunk)) {
+                    PartitionedChunk chunk;
+                    if (claimed instanceof PartitionedChunk) {
+                        chunk = (PartitionedChunk) claimed;
+                    } else {
+                        chunk = new PartitionedChunk(this.worldUuid, chunkX, chunkZ);
+                    }
+                    int changed = 0;
+                    int i = this.minI(chunkX);
+                    while (i <= this.maxI(chunkX)) {
+                        int k = this.minK(chunkZ);
+                        while (k <= this.maxK(chunkZ)) {
+                            if (chunk.getColumnKey(i, k) == null) {
+                                chunk.setDomainKey(i, k, domainKey);
+                                changed++;
+                            }
+                            k++;
+                        }
+                        i++;
+                    }
+                    if (changed > 0) {
+                        ClaimRegion.saveChunk(batch, chunk);
+                        annexed += changed;
+                    }
+                }
+                chunkZ++;
+            }
+            chunkX++;
+        }
+        return annexed;
+    }
+
+    /**
+     * Disclaim every column in the region claimed by a domain. Claims of other
+     * domains are left as they are. An exclusive chunk that is only partly in the
+     * region becomes partitioned, and a chunk without any claims left is deleted.
+     *
+     * @return The number of columns disclaimed.
+     */
+    public int disclaim(Repository repository, Key domainKey, ChunkBatch batch) throws RepositoryException {
+        ChunkMap<ClaimedChunk> claims = this.loadClaims(repository);
+        int disclaimed = 0;
+        int chunkX = this.getMinChunkX();
+        while (chunkX <= this.getMaxChunkX()) {
+            int chunkZ = this.getMinChunkZ();
+            while (chunkZ <= this.getMaxChunkZ()) {
+                PartitionedChunk chunk = ClaimRegion.toColumns(claims.get(chunkX, chunkZ));
+                if (chunk != null) {
+                    int changed = 0;
+                    int i = this.minI(chunkX);
+                    while (i <= this.maxI(chunkX)) {
+                        int k = this.minK(chunkZ);
+                        while (k <= this.maxK(chunkZ)) {
+                            if (chunk.getColumnKey(i, k) == domainKey) {
+                                chunk.setDomainKey(i, k, null);
+                                changed++;
+                            }
+                            k++;
+                        }
+                        i++;
+                    }
+                    if (changed > 0) {
+                        ClaimRegion.saveChunk(batch, chunk);
+                        disclaimed += changed;
+                    }
+                }
+                chunkZ++;
+            }
+            chunkX++;
+        }
+        return disclaimed;
+    }
+
+    /**
+     * Load the claimed chunks in the region with a single range query. The loaded
+     * partitioned chunks may be modified.
+     */
+    private ChunkMap<ClaimedChunk> loadClaims(Repository repository) throws RepositoryException {
+        ChunkMap<ClaimedChunk> claims = new ChunkMap<>();
+        for (ClaimedChunk chunk : repository.loadChunks(this.worldUuid, this.getMinChunkX(), this.getMinChunkZ(), this.getMaxChunkX(), this.getMaxChunkZ())) {
+            claims.put(chunk.getChunkX(), chunk.getChunkZ(), chunk);
+        }
+        return claims;
+    }
+
+    /**
+     * Get the claims of a chunk as a partitioned chunk that can be modified.
+     *
+     * @return The claims, or null if the chunk is unclaimed.
+     */
+    private static @Nullable PartitionedChunk toColumns(@Nullable ClaimedChunk claimed) {
+        if (claimed instanceof PartitionedChunk) {
+            return (PartitionedChunk) claimed;
+        } else if (claimed instanceof ExclusiveChunk) {
+            ExclusiveChunk exclusiveChunk = (ExclusiveChunk) claimed;
+            PartitionedChunk chunk = new PartitionedChunk(exclusiveChunk.getWorldUuid(), exclusiveChunk.getChunkX(), exclusiveChunk.getChunkZ());
+            int column = 0;
+            while (column < 16 * 16) {
+                chunk.setDomainKey(PartitionedChunk.iFromColumnNumber(column), PartitionedChunk.kFromColumnNumber(column), exclusiveChunk.getDomainKey());
+                column++;
+            }
+            return chunk;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Add a changed chunk to a batch in its simplest form: deleted if no column is
+     * claimed, exclusive if every column is claimed by the same domain, and
+     * partitioned otherwise.
+     */
+    private static void saveChunk(ChunkBatch batch, PartitionedChunk chunk) {
+        if (chunk.isEmpty()) {
+            batch.delete(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ());
+            return;
+        }
+        Key domainKey = chunk.getColumnKey(0, 0);
+        int column = 1;
+        while (column < 16 * 16) {
+            if (chunk.getColumnKey(PartitionedChunk.iFromColumnNumber(column), PartitionedChunk.kFromColumnNumber(column)) != domainKey) {
+                batch.save(chunk);
+                return;
+            }
+            column++;
+        }
+        batch.save(new ExclusiveChunk(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ(), domainKey));
+    }
+
+    /**
+     * The first column of a chunk in the region, along the x axis.
+     */
+    private int minI(int chunkX) {
+        return Math.max(this.minX - (chunkX << 4), 0);
+    }
+
+    private int maxI(int chunkX) {
+        return Math.min(this.maxX - (chunkX << 4), 15);
+    }
+
+    private int minK(int chunkZ) {
+        return Math.max(this.minZ - (chunkZ << 4), 0);
+    }
+
+    private int maxK(int chunkZ) {
+        return Math.min(this.maxZ - (chunkZ << 4), 15);
+    }
+
+}
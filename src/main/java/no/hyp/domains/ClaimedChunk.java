@@ -0,0 +1,28 @@
+package no.hyp.domains;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * A chunk containing claims, either as a whole or per column.
+ */
+public interface ClaimedChunk {
+
+    UUID getWorldUuid();
+
+    int getChunkX();
+
+    int getChunkZ();
+
+    ChunkType getType();
+
+    /**
+     * Get the key of the domain claiming a column, without bounds checking or allocation.
+     *
+     * @param i The x coordinate of the column within the chunk, 0 to 15.
+     * @param k The z coordinate of the column within the chunk, 0 to 15.
+     * @return The domain key, or null if the column is unclaimed.
+     */
+    @Nullable Key getColumnKey(int i, int k);
+
+}
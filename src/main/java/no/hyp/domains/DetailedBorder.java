@@ -1,30 +1,43 @@
 package no.hyp.domains;
 
-import org.bukkit.Particle;
-import org.bukkit.util.Vector;
+/**
+ * The calculated border of a chunk, stored as a packed array of vertex coordinates.
+ */
+public class DetailedBorder {
 
-import java.util.List;
+    /**
+     * The vertex coordinates, packed as x, y, z triples.
+     */
+    private final float[] vertices;
 
-public class DetailedBorder {
+    /**
+     * The number of vertices.
+     */
+    private final int length;
 
-    private final List<Vector> vertices;
+    public DetailedBorder(float[] vertices, int length) {
+        this.vertices = vertices;
+        this.length = length;
+    }
 
-    private final List<Particle.DustOptions> colours;
+    public DetailedBorder(VertexBuffer buffer) {
+        this(buffer.toArray(), buffer.size());
+    }
 
-    private int colourPosition;
+    public int getLength() {
+        return this.length;
+    }
 
-    public DetailedBorder(List<Vector> vertices, List<Particle.DustOptions> colours) {
-        this.vertices = vertices;
-        this.colours = colours;
-        this.colourPosition = 0;
+    public float getX(int n) {
+        return this.vertices[n * 3];
     }
 
-    public List<Vector> getVertices() {
-        return vertices;
+    public float getY(int n) {
+        return this.vertices[n * 3 + 1];
     }
 
-    public List<Particle.DustOptions> getColours() {
-        return colours;
+    public float getZ(int n) {
+        return this.vertices[n * 3 + 2];
     }
 
 }
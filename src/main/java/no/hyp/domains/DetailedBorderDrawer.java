@@ -3,12 +3,19 @@ package no.hyp.domains;
 import org.bukkit.*;
 import org.bukkit.entity.Player;
 import org.bukkit.util.BlockVector;
-import org.bukkit.util.Vector;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The BorderDrawer uses chunk and claim data to calculate, cache and draw borders.
+ *
+ * The server thread only captures a {@link BorderSnapshot} of each chunk to cache.
+ * The border geometry is calculated from the snapshot on a pool of worker threads,
+ * and the finished borders are published to the cache on the next caching pass.
  */
 public class DetailedBorderDrawer implements BorderDrawer {
 
@@ -41,6 +48,14 @@ public class DetailedBorderDrawer implements BorderDrawer {
 
     private int classCurrent;
 
+    /**
+     * Only one in this many of the vertices in the current class are drawn, to reduce
+     * the number of particles under load. The drawn subset rotates between draws.
+     */
+    private int detail;
+
+    private int detailCurrent;
+
     /**
      * The colours used to draw the border.
      */
@@ -56,21 +71,75 @@ public class DetailedBorderDrawer implements BorderDrawer {
     /**
      * A cache of calculated border vertices per chunk.
      */
-    private final Map<ExclusiveChunk, List<Vector>> cache;
+    private final WorldChunkMap<DetailedBorder> cache;
+
+    /**
+     * The snapshots of the chunks whose borders are being calculated. A calculated
+     * border is only cached if its snapshot is still the pending one for its chunk.
+     */
+    private final WorldChunkMap<BorderSnapshot> pending;
+
+    /**
+     * The borders calculated by the workers, waiting to be published to the cache.
+     */
+    private final Queue<CalculatedBorder> calculated;
+
+    private final ExecutorService workers;
+
+    /**
+     * The buffer vertices are appended to while calculating a border, one per worker.
+     * It is reused for every calculation, so only the final vertex array of a border
+     * is allocated.
+     */
+    private final ThreadLocal<VertexBuffer> buffers;
+
+    /**
+     * The chunks whose borders must be recalculated because their claims or terrain
+     * have changed.
+     */
+    private final WorldChunkMap<Boolean> dirty;
+
+    /**
+     * The maximum time in nanoseconds spent per caching pass on capturing snapshots
+     * of dirty chunks. Dirty chunks over the budget are recalculated in later passes.
+     */
+    private final long recalculationBudget;
+
+    /**
+     * The chunks within the radius of an origin in the current caching pass. It is
+     * kept between passes, so that finding the chunks to uncache does not allocate.
+     */
+    private final WorldChunkMap<Boolean> nearby;
+
+    /**
+     * The chunk snapshots taken in the current caching pass, shared by the snapshots
+     * of neighbouring chunks. It is cleared after every pass.
+     */
+    private final WorldChunkMap<ChunkSnapshot> chunkSnapshots;
 
     /**
      * The radius around a chunk to cache.
      */
     private final int radius;
 
+    /**
+     * The view used to cull the vertices drawn to each player, reused for every player.
+     */
+    private final BorderView view;
+
     /**
      * The current position.
      */
     private int colourPosition;
 
+    /**
+     * The viewer given the first share of the particles, rotated between draws.
+     */
+    private int firstViewer;
+
     private final int colourStride;
 
-    public DetailedBorderDrawer(DomainsPlugin plugin, int vertices) {
+    public DetailedBorderDrawer(DomainsPlugin plugin, int vertices, double viewDistance) {
         this.plugin = plugin;
         this.vertices = vertices;
         this.stride = 1.0f / vertices;
@@ -81,220 +150,390 @@ public class DetailedBorderDrawer implements BorderDrawer {
         this.colourClassDivisor = vertices;
         this.colourPosition = 0;
         this.colourStride = vertices * colours.size();
-        this.cache = new HashMap<>();
+        this.cache = new WorldChunkMap<>();
+        this.nearby = new WorldChunkMap<>();
+        this.chunkSnapshots = new WorldChunkMap<>();
+        this.pending = new WorldChunkMap<>();
+        this.dirty = new WorldChunkMap<>();
+        this.recalculationBudget = 1_000_000;
+        this.calculated = new ConcurrentLinkedQueue<>();
+        int workerCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "Domains Border Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.buffers = ThreadLocal.withInitial(VertexBuffer::new);
         this.radius = 1;
         this.speed = 1;
         this.classes = colourClassDivisor;
         this.classCurrent = 0;
+        this.detail = 1;
+        this.detailCurrent = 0;
+        this.firstViewer = 0;
+        this.view = new BorderView(viewDistance);
     }
 
+    /**
+     * Draw the cached borders to each viewer. Particles are only sent to the viewer,
+     * and only for the vertices within their view.
+     */
     @Override
-    public void drawBorder() {
-        for (Map.Entry<ExclusiveChunk, List<Vector>> cachedBorder : cache.entrySet()) {
-            World world = cachedBorder.getKey().getWorld();
-            List<Vector> vertices = cachedBorder.getValue();
-            // Iterate over all vertices in a class.
-            int maxN = vertices.size();
-            int n = this.classCurrent;
-            while (n < maxN) {
-                Vector vertex = vertices.get(n);
-                int colourOffset = Math.floorMod(n - colourPosition, vertices.size());
-                int colourClass = (colourOffset / colourClassDivisor) % colours.size();
-                Particle.DustOptions colour = this.colours.get(colourClass);
-                world.spawnParticle(Particle.REDSTONE, vertex.getX(), vertex.getY(), vertex.getZ(), 1, 0, 0, 0, 0, colour);
-                n += classes;
+    public int drawBorder(Collection<? extends Player> viewers, int maxParticles) {
+        if (viewers.isEmpty()) {
+            return 0;
+        }
+        // Share the particles evenly, so that no viewer is starved by those before them.
+        int viewerCount = viewers.size();
+        int particles = 0;
+        int position = 0;
+        for (Player viewer : viewers) {
+            int viewerParticles = BorderDrawer.viewerShare(maxParticles, viewerCount, Math.floorMod(position - this.firstViewer, viewerCount));
+            position++;
+            ChunkMap<DetailedBorder> chunks = this.cache.getWorld(viewer.getWorld().getUID());
+            if (viewerParticles == 0 || chunks == null || chunks.isEmpty()) {
+                continue;
             }
+            this.view.set(viewer);
+            int originX = this.view.getChunkX();
+            int originZ = this.view.getChunkZ();
+            int chunkRadius = this.view.getChunkRadius();
+            int remaining = viewerParticles;
+            int i = -chunkRadius;
+            while (i <= chunkRadius && remaining > 0) {
+                int k = -chunkRadius;
+                while (k <= chunkRadius && remaining > 0) {
+                    int x = originX + i;
+                    int z = originZ + k;
+                    if (this.view.isChunkInRange(x, z)) {
+                        DetailedBorder border = chunks.get(x, z);
+                        if (border != null) {
+                            remaining -= this.drawChunkBorder(viewer, border, remaining);
+                        }
+                    }
+                    k++;
+                }
+                i++;
+            }
+            particles += viewerParticles - remaining;
         }
+        // The viewers after those given the remainder go first on the next draw.
+        this.firstViewer = (this.firstViewer + maxParticles % viewerCount) % viewerCount;
         // Update position.
         this.colourPosition = (this.colourPosition + this.speed) % colourStride;
         this.classCurrent = (this.classCurrent + this.speed) % classes;
+        this.detailCurrent = (this.detailCurrent + 1) % this.detail;
+        return particles;
     }
 
     @Override
-    public void cacheChunks(Collection<Chunk> origins) {
+    public void setDetail(int detail) {
+        if (detail < 1) {
+            throw new IllegalArgumentException("detail must be at least 1.");
+        }
+        this.detail = detail;
+        this.detailCurrent = 0;
+    }
 
+    /**
+     * Draw the visible vertices of the current class of a border.
+     *
+     * @return The number of particles sent.
+     */
+    private int drawChunkBorder(Player viewer, DetailedBorder border, int maxParticles) {
+        // Iterate over all vertices in a class, skipping all but one in every detail.
+        int maxN = border.getLength();
+        int n = this.classCurrent + this.detailCurrent * this.classes;
+        int step = this.classes * this.detail;
+        int particles = 0;
+        while (n < maxN && particles < maxParticles) {
+            float x = border.getX(n);
+            float y = border.getY(n);
+            float z = border.getZ(n);
+            if (this.view.canSee(x, y, z)) {
+                int colourOffset = Math.floorMod(n - colourPosition, maxN);
+                int colourClass = (colourOffset / colourClassDivisor) % colours.size();
+                Particle.DustOptions colour = this.colours.get(colourClass);
+                viewer.spawnParticle(Particle.REDSTONE, x, y, z, 1, 0, 0, 0, 0, colour);
+                particles++;
+            }
+            n += step;
+        }
+        return particles;
     }
 
+    /**
+     * Cache the borders of the chunks within the radius of the origins, and uncache
+     * the borders of all other chunks.
+     */
     @Override
-    public void cacheNearby(Collection<Player> onlinePlayers) {
-
+    public void cacheChunks(Collection<Chunk> origins) {
+        this.publishCalculated();
+        this.nearby.clear();
+        for (Chunk chunk : origins) {
+            this.cacheAround(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        }
+        this.cache.retainAll(this.nearby);
+        this.pending.retainAll(this.nearby);
+        this.recalculateDirty();
+        this.chunkSnapshots.clear();
     }
 
-    public void cacheChunks(Player[] players) {
-        List<ExclusiveChunk> chunks = new ArrayList<>();
+    /**
+     * Cache the borders of the chunks within the radius of the players, and uncache
+     * the borders of all other chunks.
+     */
+    @Override
+    public void cacheNearby(Collection<? extends Player> players) {
+        this.publishCalculated();
+        this.nearby.clear();
         for (Player player : players) {
-            chunks.add(player.getLocation().getChunk());
+            Location location = player.getLocation();
+            this.cacheAround(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
         }
-        cacheChunks(chunks);
+        this.cache.retainAll(this.nearby);
+        this.pending.retainAll(this.nearby);
+        this.recalculateDirty();
+        this.chunkSnapshots.clear();
     }
 
     /**
-     *
-     *
-     * @param origins
+     * Mark the chunks within the radius of an origin as nearby, and start calculating
+     * the borders of those that are loaded but neither cached nor being calculated.
      */
-    @Override
-    public void cacheChunks(Collection<Chunk> origins) {
-        // Find all the chunks that are within the given radius of the origins.
-        Set<ExclusiveChunk> nearbyChunks = new HashSet<ExclusiveChunk>();
-        for (Chunk chunk : origins) {
-            int i = -radius;
-            while (i <= radius) {
-                int k = -radius;
-                while (k <= radius) {
-                    int x = chunk.getX() + i;
-                    int z = chunk.getZ() + k;
-                    Chunk c = chunk.getWorld().getChunkAt(x, z);
-                    nearbyChunks.add(c);
-                    k++;
+    private void cacheAround(World world, int originX, int originZ) {
+        UUID worldUuid = world.getUID();
+        int i = -radius;
+        while (i <= radius) {
+            int k = -radius;
+            while (k <= radius) {
+                int x = originX + i;
+                int z = originZ + k;
+                if (this.nearby.put(worldUuid, x, z, Boolean.TRUE) == null
+                        && !this.cache.containsKey(worldUuid, x, z)
+                        && !this.pending.containsKey(worldUuid, x, z)
+                        && world.isChunkLoaded(x, z)) {
+                    this.calculate(BorderSnapshot.capture(this.plugin, world, x, z, this.chunkSnapshots));
                 }
-                i++;
+                k++;
             }
+            i++;
         }
-        // For the chunks that are not cached, calculate their borders and add them
-        // to the cache.
-        for (ExclusiveChunk nearbyChunk : nearbyChunks) {
-            if (!this.cache.containsKey(nearbyChunk)) {
-                this.cache.put(nearbyChunk, calculateChunkBorder(nearbyChunk.getWorld(), nearbyChunk.getX(), nearbyChunk.getZ()));
-                this.plugin.getServer().broadcastMessage(String.format("Caching; Count: %d", this.cache.size()));
+    }
+
+    /**
+     * Mark the borders of the chunks and their neighbours as dirty, since a change in a
+     * chunk can move the border along the edges of its neighbours.
+     */
+    @Override
+    public void invalidate(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        int x = minChunkX - 1;
+        while (x <= maxChunkX + 1) {
+            int z = minChunkZ - 1;
+            while (z <= maxChunkZ + 1) {
+                this.dirty.put(worldUuid, x, z, Boolean.TRUE);
+                z++;
+            }
+            x++;
+        }
+    }
+
+    /**
+     * Start recalculating the borders of the dirty chunks that are cached or being
+     * calculated, until the time budget is spent. Dirty chunks that are not nearby
+     * are dropped, since their borders are calculated anew when they come nearby.
+     */
+    private void recalculateDirty() {
+        long deadline = System.nanoTime() + this.recalculationBudget;
+        for (UUID worldUuid : this.dirty.getWorldUuids()) {
+            ChunkMap<Boolean> chunks = this.dirty.getWorld(worldUuid);
+            World world = this.plugin.getServer().getWorld(worldUuid);
+            if (chunks == null || chunks.isEmpty()) {
+                continue;
+            }
+            int slot = 0;
+            while (slot < chunks.capacity()) {
+                if (chunks.valueAt(slot) == null) {
+                    slot++;
+                    continue;
+                }
+                if (System.nanoTime() > deadline) {
+                    return;
+                }
+                long key = chunks.keyAt(slot);
+                int chunkX = ChunkMap.chunkX(key);
+                int chunkZ = ChunkMap.chunkZ(key);
+                boolean known = this.cache.containsKey(worldUuid, chunkX, chunkZ) || this.pending.containsKey(worldUuid, chunkX, chunkZ);
+                if (world != null && known && world.isChunkLoaded(chunkX, chunkZ)) {
+                    this.calculate(BorderSnapshot.capture(this.plugin, world, chunkX, chunkZ, this.chunkSnapshots));
+                }
+                // Removing shifts a later entry into this slot, so the slot is visited again.
+                chunks.remove(key);
             }
         }
-        // Remove the cached chunks that are not in the updated cache list.
-        Set<ExclusiveChunk> farChunks = new HashSet<>();
-        for (ExclusiveChunk cachedChunk : this.cache.keySet()) {
-            if (!nearbyChunks.contains(cachedChunk)) {
+    }
+
+    /**
+     * Calculate the border of a snapshot on a worker, and queue the result for publishing.
+     */
+    private void calculate(BorderSnapshot snapshot) {
+        this.pending.put(snapshot.getWorldUuid(), snapshot.getChunkX(), snapshot.getChunkZ(), snapshot);
+        this.workers.execute(() -> {
+            DetailedBorder border = this.calculateChunkBorder(snapshot, this.buffers.get());
+            this.calculated.add(new CalculatedBorder(snapshot, border));
+        });
+    }
 
-                farChunks.add(cachedChunk);
+    /**
+     * Move the borders calculated since the last pass into the cache. Borders whose
+     * chunk has since been uncached or recalculated are discarded.
+     */
+    private void publishCalculated() {
+        CalculatedBorder calculatedBorder;
+        while ((calculatedBorder = this.calculated.poll()) != null) {
+            BorderSnapshot snapshot = calculatedBorder.snapshot;
+            UUID worldUuid = snapshot.getWorldUuid();
+            int chunkX = snapshot.getChunkX();
+            int chunkZ = snapshot.getChunkZ();
+            if (this.pending.get(worldUuid, chunkX, chunkZ) == snapshot) {
+                this.pending.remove(worldUuid, chunkX, chunkZ);
+                this.cache.put(worldUuid, chunkX, chunkZ, calculatedBorder.border);
             }
         }
-        for (ExclusiveChunk chunk : farChunks) {
-            this.cache.remove(chunk);
-            this.plugin.getServer().broadcastMessage(String.format("Uncaching; Count: %d", this.cache.size()));
+    }
+
+    /**
+     * Stop the workers. Borders being calculated are discarded.
+     */
+    @Override
+    public void close() {
+        this.workers.shutdownNow();
+        try {
+            this.workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    public List<Vector> calculateChunkBorder(World world, int chunkX, int chunkZ) {
-        List<Vector> border = new ArrayList<>();
+    /**
+     * Calculate the border of a chunk from a snapshot. This does not access the world
+     * or the claims, so it can be called on any thread.
+     *
+     * @param snapshot The snapshot of the chunk.
+     * @param border The buffer to calculate the vertices in. It is cleared first.
+     */
+    public DetailedBorder calculateChunkBorder(BorderSnapshot snapshot, VertexBuffer border) {
+        border.clear();
         {
             int i = 0;
             while (i < 16) {
                 int k = 0;
                 while (k < 16) {
-                    int x = chunkX * 16 + i;
-                    int z = chunkZ * 16 + k;
-                    int y = world.getHighestBlockYAt(x, z, HeightMap.WORLD_SURFACE) + 1;
-                    Domain holding = plugin.getDomain(x, y);
-                    boolean north = !holding.equals(plugin.getDomain(x, z - 1));
+                    int x = snapshot.getChunkX() * 16 + i;
+                    int z = snapshot.getChunkZ() * 16 + k;
+                    int y = snapshot.getHeight(i, k);
+                    Domain holding = snapshot.getOwner(i, k);
+                    boolean north = holding != snapshot.getOwner(i, k - 1);
                     if (north) {
-                        border.addAll(calculateColumnBorder(x, z, y, Cardinality.EAST, world.getHighestBlockYAt(x - 1, z, HeightMap.WORLD_SURFACE) + 1, world.getHighestBlockYAt(x + 1, z, HeightMap.WORLD_SURFACE) + 1, false));
+                        calculateColumnBorder(border, x, z, y, Cardinality.EAST, snapshot.getHeight(i - 1, k), snapshot.getHeight(i + 1, k), false);
                     }
-                    boolean northEast = !holding.equals(plugin.getDomain(x + 1, z - 1));
-                    boolean east = !holding.equals(plugin.getDomain(x + 1, z));
+                    boolean east = holding != snapshot.getOwner(i + 1, k);
                     if (east) {
-                        border.addAll(calculateColumnBorder(x, z, y, Cardinality.SOUTH, world.getHighestBlockYAt(x, z - 1, HeightMap.WORLD_SURFACE) + 1, world.getHighestBlockYAt(x, z + 1, HeightMap.WORLD_SURFACE) + 1, false));
+                        calculateColumnBorder(border, x, z, y, Cardinality.SOUTH, snapshot.getHeight(i, k - 1), snapshot.getHeight(i, k + 1), false);
                     }
-                    boolean southEast = !holding.equals(plugin.getDomain(x + 1, z + 1));
-                    boolean south = !holding.equals(plugin.getDomain(x, z + 1));
+                    boolean south = holding != snapshot.getOwner(i, k + 1);
                     if (south) {
-                        border.addAll(calculateColumnBorder(x, z, y, Cardinality.WEST, world.getHighestBlockYAt(x + 1, z, HeightMap.WORLD_SURFACE) + 1, world.getHighestBlockYAt(x - 1, z, HeightMap.WORLD_SURFACE) + 1, false));
+                        calculateColumnBorder(border, x, z, y, Cardinality.WEST, snapshot.getHeight(i + 1, k), snapshot.getHeight(i - 1, k), false);
                     }
-                    boolean southWest = !holding.equals(plugin.getDomain(x - 1, z + 1));
-                    boolean west = !holding.equals(plugin.getDomain(x - 1, z));
+                    boolean west = holding != snapshot.getOwner(i - 1, k);
                     if (west) {
-                        border.addAll(calculateColumnBorder(x, z, y, Cardinality.NORTH, world.getHighestBlockYAt(x, z + 1, HeightMap.WORLD_SURFACE) + 1, world.getHighestBlockYAt(x, z - 1, HeightMap.WORLD_SURFACE) + 1, false));
+                        calculateColumnBorder(border, x, z, y, Cardinality.NORTH, snapshot.getHeight(i, k + 1), snapshot.getHeight(i, k - 1), false);
                     }
-                    boolean northWest = !holding.equals(plugin.getDomain(x - 1, z - 1));
                     k++;
                 }
                 i++;
             }
         }
-        return border;
+        return new DetailedBorder(border);
     }
 
     /**
-     * Calculate the border within a column.
+     * Calculate the border within a column and append its vertices to the buffer.
      *
+     * @param border
      * @param x
      * @param z
      * @param height
      * @param direction
      * @param previousHeight
      * @param nextHeight
-     * @return
      */
-    public List<Vector> calculateColumnBorder(int x, int z, int height, Cardinality direction, int previousHeight, int nextHeight, boolean corner) {
-        List<Vector> border = new ArrayList<>();
+    public void calculateColumnBorder(VertexBuffer border, int x, int z, int height, Cardinality direction, int previousHeight, int nextHeight, boolean corner) {
         float into = offset;
         if (direction == Cardinality.NORTH) {
             float i = into;
             float k = 1 - into;
-            border.addAll(calculateDescendingBorder(x + i, z + k, height, previousHeight));
+            calculateDescendingBorder(border, x + i, z + k, height, previousHeight);
             int kIndex = this.vertices;
             while (kIndex >= 0) {
                 k = offset + stride * kIndex;
-                border.add(new Vector(x + i, height, z + k));
+                border.append(x + i, height, z + k);
                 kIndex--;
             }
-            border.addAll(calculateAscendingBorder(x + i, z + k, height, nextHeight));
+            calculateAscendingBorder(border, x + i, z + k, height, nextHeight);
         } else if (direction == Cardinality.SOUTH) {
             float i = 1 - into;
             float k = into;
-            border.addAll(calculateDescendingBorder(x + i, z + k, height, previousHeight));
+            calculateDescendingBorder(border, x + i, z + k, height, previousHeight);
             int kIndex = 0;
             while (kIndex < this.vertices) {
                 k = offset + stride * kIndex;
-                border.add(new Vector(x + i, height, z + k));
+                border.append(x + i, height, z + k);
                 kIndex++;
             }
-            border.addAll(calculateAscendingBorder(x + i, z + k, height, nextHeight));
+            calculateAscendingBorder(border, x + i, z + k, height, nextHeight);
         } else if (direction == Cardinality.EAST) {
             float i = into;
             float k = into;
-            border.addAll(calculateDescendingBorder(x + i, z + k, height, previousHeight));
+            calculateDescendingBorder(border, x + i, z + k, height, previousHeight);
             int iIndex = 0;
             while (iIndex < this.vertices) {
                 k = offset + stride * iIndex;
-                border.add(new Vector(x + i, height, z + k));
+                border.append(x + i, height, z + k);
                 iIndex++;
             }
-            border.addAll(calculateAscendingBorder(x + i, z + k, height, nextHeight));
+            calculateAscendingBorder(border, x + i, z + k, height, nextHeight);
         } else if (direction == Cardinality.WEST) {
             float i = 1 - into;
             float k = 1 - into;
-            border.addAll(calculateDescendingBorder(x + i, z + k, height, previousHeight));
+            calculateDescendingBorder(border, x + i, z + k, height, previousHeight);
             int iIndex = this.vertices;
             while (iIndex >= 0) {
                 k = offset + stride * iIndex;
-                border.add(new Vector(x + i, height, z + k));
+                border.append(x + i, height, z + k);
                 iIndex--;
             }
-            border.addAll(calculateAscendingBorder(x + i, z + k, height, nextHeight));
+            calculateAscendingBorder(border, x + i, z + k, height, nextHeight);
         }
-        return border;
     }
 
-    public List<Vector> calculateAscendingBorder(float x, float z, int y, int higherY) {
-        List<Vector> verticalBorder = new ArrayList<>();
+    public void calculateAscendingBorder(VertexBuffer border, float x, float z, int y, int higherY) {
         int jMaxIndex = (higherY - y) * this.vertices;
         int jIndex = 0;
         while (jIndex < jMaxIndex) {
             float j = y + offset + jIndex * stride;
-            verticalBorder.add(new Vector(x, j, z));
+            border.append(x, j, z);
             jIndex++;
         }
-        return verticalBorder;
     }
 
-    public List<Vector> calculateDescendingBorder(float x, float z, int y, int lowerY) {
-        List<Vector> verticalBorder = new ArrayList<>();
+    public void calculateDescendingBorder(VertexBuffer border, float x, float z, int y, int lowerY) {
         int jIndex = (lowerY - y) * this.vertices;
         while (jIndex > 0) {
             float j = y + offset + jIndex * stride;
-            verticalBorder.add(new Vector(x, j, z));
+            border.append(x, j, z);
             jIndex--;
         }
-        return verticalBorder;
     }
 
     public List<BlockVector> calculateBlockSequence(World world, int x, int z, Cardinality direction, int length) {
@@ -331,4 +570,20 @@ public class DetailedBorderDrawer implements BorderDrawer {
         return columns;
     }
 
+    /**
+     * A border calculated by a worker, with the snapshot it was calculated from.
+     */
+    private static final class CalculatedBorder {
+
+        private final BorderSnapshot snapshot;
+
+        private final DetailedBorder border;
+
+        private CalculatedBorder(BorderSnapshot snapshot, DetailedBorder border) {
+            this.snapshot = snapshot;
+            this.border = border;
+        }
+
+    }
+
 }
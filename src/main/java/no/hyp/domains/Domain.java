@@ -1,5 +1,7 @@
 package no.hyp.domains;
 
+import no.hyp.domains.persistence.RepositoryException;
+import no.hyp.domains.persistence.TitleLoader;
 import org.bukkit.entity.Player;
 
 import javax.annotation.Nullable;
@@ -21,15 +23,75 @@ public class Domain {
     private final String displayName;
 
     /**
-     * The players who have a title in this domain.
+     * The players who have a title in this domain. If the titles are loaded on demand,
+     * only the titles that have been loaded or set are resident.
      */
     private final Map<UUID, Title> titles;
 
+    /**
+     * Loads the titles that are not resident, or null if every title is resident.
+     */
+    private @Nullable TitleLoader titleLoader;
+
+    /**
+     * The mask of the privileges of the default role.
+     */
+    private final int defaultMask;
+
+    /**
+     * The superdomain, or null if this is a root domain or the superdomain is not
+     * linked. Together with the parents of the superdomains, this is the ancestor chain.
+     */
+    private @Nullable Domain parent;
+
+    /**
+     * The linked subdomains.
+     */
+    private final List<Domain> children;
+
+    /**
+     * The default privileges in this domain and all superdomains.
+     */
+    private int effectiveDefaultMask;
+
+    /**
+     * The effective privilege mask of each player with a title in this domain or any
+     * superdomain, combining the titles and default privileges along the ancestor
+     * chain. It is updated whenever a title or the chain changes, so that checking a
+     * privilege is a single lookup and AND however deep the domain is.
+     */
+    private final Map<UUID, Integer> playerMasks;
+
+    /**
+     * The players whose title has been set or removed since the titles were last saved,
+     * or null if the titles have never been saved.
+     */
+    private @Nullable Set<UUID> changedTitles;
+
     public Domain(Key key, Role defaultTitleLevel, @Nullable String displayName, Map<UUID, Title> titles) {
         this.key = key;
         this.displayName = displayName;
         this.defaultRole = defaultTitleLevel;
-        this.titles = titles;
+        this.titles = new HashMap<>(titles);
+        this.defaultMask = defaultTitleLevel.getMask();
+        this.parent = null;
+        this.children = new ArrayList<>();
+        this.playerMasks = new HashMap<>();
+        this.changedTitles = null;
+        this.titleLoader = null;
+        this.recalculateMasks();
+    }
+
+    /**
+     * Create a domain whose titles are loaded on demand, so that the privileges of a
+     * player are checked without loading every title of the domain. The titles of a
+     * player are put with {@link #putLoadedTitle(Title)} while they are resident, such
+     * as while the player is online. The titles are considered saved.
+     */
+    public Domain(Key key, Role defaultTitleLevel, @Nullable String displayName, TitleLoader titleLoader) {
+        this(key, defaultTitleLevel, displayName, Collections.emptyMap());
+        this.titleLoader = titleLoader;
+        this.changedTitles = new HashSet<>();
     }
 
     public Key getKey() {
@@ -44,16 +106,244 @@ public class Domain {
         return Optional.ofNullable(this.displayName);
     }
 
+    /**
+     * Get the resident titles in this domain, which are all the titles unless they are
+     * loaded on demand. Titles are changed with {@link #setTitle(Title)} and
+     * {@link #removeTitle(UUID)}, so that the privilege masks stay up to date.
+     */
     public Map<UUID, Title> getTitles() {
-        return this.titles;
+        return Collections.unmodifiableMap(this.titles);
     }
 
-    public Optional<Title> getTitle(Player player) {
+    /**
+     * Whether every title of this domain is resident.
+     */
+    public boolean hasAllTitles() {
+        return this.titleLoader == null;
+    }
+
+    /**
+     * Get the title of a player. If the titles are loaded on demand and the title is
+     * not resident, it is loaded without being kept, so that looking up the titles of
+     * many players does not make them resident.
+     */
+    public Optional<Title> fetchTitle(UUID player) throws RepositoryException {
+        Title title = this.titles.get(player);
+        if (title == null && this.titleLoader != null) {
+            return this.titleLoader.loadTitle(this.key, player);
+        }
+        return Optional.ofNullable(title);
+    }
+
+    /**
+     * Get every title of this domain, loading the titles that are not resident. Every
+     * title is resident afterwards, such as for listing or copying all the titles.
+     */
+    public Map<UUID, Title> fetchTitles() throws RepositoryException {
+        if (this.titleLoader != null) {
+            for (Title title : this.titleLoader.loadDomainTitles(this.key)) {
+                if (!this.isNewerThanLoaded(title.getPlayerUuid())) {
+                    this.titles.put(title.getPlayerUuid(), title);
+                }
+            }
+            this.titleLoader = null;
+            this.recalculateMasks();
+        }
+        return this.getTitles();
+    }
+
+    /**
+     * Whether the title of a player is resident or has changed since it was saved, so
+     * that it is at least as recent as a title loaded from a repository.
+     */
+    private boolean isNewerThanLoaded(UUID player) {
+        return this.titles.containsKey(player) || (this.changedTitles != null && this.changedTitles.contains(player));
+    }
+
+    /**
+     * Make a title loaded from a repository resident, if the titles are loaded on
+     * demand and the resident title is not more recent.
+     */
+    public void putLoadedTitle(Title title) {
+        UUID playerUuid = title.getPlayerUuid();
+        if (this.titleLoader == null || this.isNewerThanLoaded(playerUuid)) {
+            return;
+        }
+        this.titles.put(playerUuid, title);
+        this.recalculateMask(playerUuid);
+    }
+
+    /**
+     * Drop the title of a player that is no longer resident, if the titles are loaded
+     * on demand. A title that has changed since it was saved is kept.
+     */
+    public void evictTitle(UUID player) {
+        if (this.titleLoader == null || (this.changedTitles != null && this.changedTitles.contains(player))) {
+            return;
+        }
+        if (this.titles.remove(player) != null) {
+            this.recalculateMask(player);
+        }
+    }
+
+    /**
+     * Grant a title to a player, replacing any title they had in this domain.
+     */
+    public void setTitle(Title title) {
+        UUID playerUuid = title.getPlayerUuid();
+        this.titles.put(playerUuid, title);
+        this.recalculateMask(playerUuid);
+        if (this.changedTitles != null) {
+            this.changedTitles.add(playerUuid);
+        }
+    }
+
+    public void removeTitle(UUID playerUuid) {
+        this.titles.remove(playerUuid);
+        this.recalculateMask(playerUuid);
+        if (this.changedTitles != null) {
+            this.changedTitles.add(playerUuid);
+        }
+    }
+
+    /**
+     * Take the changes to the titles since the last call, so that a repository only
+     * writes what has changed. After this call, changes are tracked from the current
+     * titles.
+     *
+     * @return The new title of each changed player, or null for a removed title. The
+     * result is null if the titles have never been saved and must all be written.
+     */
+    public @Nullable Map<UUID, Title> takeTitleChanges() {
+        Set<UUID> changed = this.changedTitles;
+        this.changedTitles = new HashSet<>();
+        if (changed == null) {
+            return null;
+        }
+        Map<UUID, Title> changes = new HashMap<>();
+        for (UUID playerUuid : changed) {
+            changes.put(playerUuid, this.titles.get(playerUuid));
+        }
+        return changes;
+    }
+
+    /**
+     * Mark the titles as saved, such as when the domain has been loaded from a
+     * repository, so that only later changes are taken.
+     */
+    public void markTitlesSaved() {
+        this.changedTitles = new HashSet<>();
+    }
+
+    public @Nullable Domain getParent() {
+        return this.parent;
+    }
+
+    public List<Domain> getChildren() {
+        return Collections.unmodifiableList(this.children);
+    }
+
+    /**
+     * Link this domain to its superdomain, or unlink it if parent is null, and update
+     * the privilege masks of this domain and all its subdomains.
+     */
+    public void setParent(@Nullable Domain parent) {
+        if (this.parent == parent) {
+            return;
+        }
+        if (this.parent != null) {
+            this.parent.children.remove(this);
+        }
+        this.parent = parent;
+        if (parent != null) {
+            parent.children.add(this);
+        }
+        this.recalculateMasks();
+    }
+
+    /**
+     * Whether this domain is the given domain or one of its subdomains.
+     */
+    public boolean isWithin(Domain domain) {
+        Domain ancestor = this;
+        while (ancestor != null) {
+            if (ancestor == domain) {
+                return true;
+            }
+            ancestor = ancestor.parent;
+        }
+        return false;
+    }
+
+    /**
+     * The privilege mask given by this domain alone to a player.
+     */
+    private int getLocalMask(UUID player) {
+        Title title = this.titles.get(player);
+        return title != null ? this.defaultMask | title.getRole().getMask() : this.defaultMask;
+    }
+
+    /**
+     * Recalculate all privilege masks of this domain and its subdomains.
+     */
+    private void recalculateMasks() {
+        this.playerMasks.clear();
+        if (this.parent != null) {
+            this.effectiveDefaultMask = this.defaultMask | this.parent.effectiveDefaultMask;
+            for (Map.Entry<UUID, Integer> entry : this.parent.playerMasks.entrySet()) {
+                this.playerMasks.put(entry.getKey(), entry.getValue() | this.getLocalMask(entry.getKey()));
+            }
+        } else {
+            this.effectiveDefaultMask = this.defaultMask;
+        }
+        for (UUID player : this.titles.keySet()) {
+            this.playerMasks.put(player, this.getLocalMask(player) | this.getInheritedMask(player));
+        }
+        for (Domain child : this.children) {
+            child.recalculateMasks();
+        }
+    }
+
+    /**
+     * Recalculate the privilege mask of a player in this domain and its subdomains.
+     */
+    private void recalculateMask(UUID player) {
+        boolean inherited = this.parent != null && this.parent.playerMasks.containsKey(player);
+        if (inherited || this.titles.containsKey(player)) {
+            this.playerMasks.put(player, this.getLocalMask(player) | this.getInheritedMask(player));
+        } else {
+            this.playerMasks.remove(player);
+        }
+        for (Domain child : this.children) {
+            child.recalculateMask(player);
+        }
+    }
+
+    private int getInheritedMask(UUID player) {
+        return this.parent != null ? this.parent.getPrivilegeMask(player) : 0;
+    }
+
+    /**
+     * Get the effective privilege mask of a player in this domain, including the
+     * privileges given by titles and default roles in all superdomains. Titles that
+     * are loaded on demand are only included while they are resident, so the caller
+     * must make the titles of the player resident first, and deny the privileges
+     * until they are rather than grant privileges that may have been revoked.
+     */
+    public int getPrivilegeMask(UUID player) {
+        Integer mask = this.playerMasks.get(player);
+        return mask != null ? mask : this.effectiveDefaultMask;
+    }
+
+    public Optional<Title> getTitle(Player player) throws RepositoryException {
         return getTitle(player.getUniqueId());
     }
 
-    public Optional<Title> getTitle(UUID player) {
-        return Optional.ofNullable(this.titles.get(player));
+    /**
+     * Get the title of a player, loading it if the titles are loaded on demand.
+     */
+    public Optional<Title> getTitle(UUID player) throws RepositoryException {
+        return this.fetchTitle(player);
     }
 
     public boolean playerHasPrivilege(Player player, Privilegium privilege) {
@@ -70,13 +360,8 @@ public class Domain {
      * @return
      */
     public boolean playerHasPrivilege(UUID player, Privilegium privilege) {
-        // Anyone has the privilege if it is default in the domain or a superdomain.
-        if (Arrays.stream(getDefaultRole().getPrivileges()).anyMatch(x -> x == privilege)) {
-            return true;
-        }
-        // Check if the player's title has this privilege.
-        Optional<Title> title = this.getTitle(player);
-        return title.map(value -> value.hasPrivilege(privilege)).orElse(false);
+        // The mask includes the default privileges and titles of the whole ancestor chain.
+        return (this.getPrivilegeMask(player) & privilege.getMask()) != 0;
     }
 
 }
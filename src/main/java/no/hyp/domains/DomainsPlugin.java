@@ -1,10 +1,17 @@
 package no.hyp.domains;
 
+import no.hyp.domains.persistence.ChunkBatch;
+import no.hyp.domains.persistence.DomainIdCache;
+import no.hyp.domains.persistence.IndexedRepository;
+import no.hyp.domains.persistence.RegionFileRepository;
 import no.hyp.domains.persistence.Repository;
 import no.hyp.domains.persistence.RepositoryException;
 import no.hyp.domains.persistence.SqlRepository;
 import no.hyp.domains.persistence.SqliteDatabase;
+import no.hyp.domains.persistence.WriteBehindRepository;
 import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
@@ -12,24 +19,118 @@ import org.bukkit.event.Listener;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.*;
 
 public final class DomainsPlugin extends JavaPlugin implements Listener {
 
-    private Repository database;
+    /**
+     * The number of titles listed on a page by the title list command.
+     */
+    private static final int TITLES_PER_PAGE = 10;
+
+    private IndexedRepository database;
+
+    private SqliteDatabase sqliteDatabase;
+
+    /**
+     * The cache of the claims of loaded chunks, or null if every claim is resident.
+     */
+    private @Nullable ChunkClaimCache chunkClaimCache;
+
+    /**
+     * The cache of the titles of online players.
+     */
+    private PlayerTitleCache playerTitleCache;
 
     private BorderDrawer borderDrawer;
 
+    private BorderViewers borderViewers;
+
+    private BorderScheduler borderScheduler;
+
+    /**
+     * The maximum number of chunks changed by a single region command.
+     */
+    private int maxRegionChunks;
+
     @Override
     public void onEnable() {
-        // Set up database.
+        this.saveDefaultConfig();
+        // Set up database and load all claims into memory. Writes are persisted in the background.
         try {
+            this.getDataFolder().mkdirs();
             String databasePath = this.getDataFolder().toPath().resolve("domains.db").toString();
-            this.database = new SqlRepository(new SqliteDatabase(databasePath));
-        } catch (SQLException e) {
+            int cacheSizeKib = this.getConfig().getInt("database.sqlite.cache-size-kib", 8192);
+            long mmapSize = this.getConfig().getLong("database.sqlite.mmap-size-mib", 64) * 1024 * 1024;
+            int busyTimeout = this.getConfig().getInt("database.sqlite.busy-timeout-milliseconds", 5000);
+            int readerCount = this.getConfig().getInt("database.sqlite.readers", 2);
+            SqliteDatabase sqliteDatabase = new SqliteDatabase(databasePath, false, cacheSizeKib, mmapSize, busyTimeout);
+            sqliteDatabase.upgradeDatabase();
+            this.sqliteDatabase = sqliteDatabase;
+            String databaseType = this.getConfig().getString("database.type", "SQLITE");
+            Repository repository;
+            if (databaseType.equalsIgnoreCase("REGION")) {
+                // Claims are stored in region files, while domains and titles stay in the database.
+                Path regionPath = this.getDataFolder().toPath().resolve("regions");
+                // The marker is only written once every claim has been copied, so that an interrupted copy is repeated.
+                Path importedPath = regionPath.resolve("imported");
+                boolean imported = Files.exists(importedPath);
+                SqlRepository sqlRepository = new SqlRepository(sqliteDatabase);
+                RegionFileRepository regionRepository = new RegionFileRepository(sqlRepository, regionPath);
+                if (!imported) {
+                    // Copy the claims from the database the first time region files are used.
+                    ChunkBatch batch = new ChunkBatch();
+                    for (ClaimedChunk chunk : sqlRepository.loadChunks()) {
+                        batch.save(chunk);
+                    }
+                    Files.createDirectories(regionPath);
+                    regionRepository.saveChunks(batch);
+                    regionRepository.flush();
+                    Files.write(importedPath, new byte[0]);
+                    this.getLogger().info(String.format("Copied %d claimed chunks from the database to region files.", batch.size()));
+                }
+                repository = new WriteBehindRepository(regionRepository, Collections.emptyList(), this.getLogger());
+            } else {
+                if (!databaseType.equalsIgnoreCase("SQLITE")) {
+                    this.getLogger().warning(String.format("Unknown database type: %s. Using SQLITE.", databaseType));
+                }
+                // Reads that do not have to wait for queued writes use their own connections.
+                DomainIdCache domainIdCache = new DomainIdCache();
+                List<Repository> readers = new ArrayList<>();
+                while (readers.size() < readerCount) {
+                    readers.add(new SqlRepository(sqliteDatabase.openReader(), domainIdCache));
+                }
+                repository = new WriteBehindRepository(new SqlRepository(sqliteDatabase, domainIdCache), readers, this.getLogger());
+            }
+            // Either every claim is resident, or only the claims of the loaded chunks.
+            String resident = this.getConfig().getString("claims.resident", "ALL");
+            if (!resident.equalsIgnoreCase("ALL") && !resident.equalsIgnoreCase("LOADED")) {
+                this.getLogger().warning(String.format("Unknown resident claims: %s. Using ALL.", resident));
+            }
+            IndexedRepository indexedRepository = new IndexedRepository(repository, !resident.equalsIgnoreCase("LOADED"));
+            if (resident.equalsIgnoreCase("LOADED")) {
+                this.chunkClaimCache = new ChunkClaimCache(this, indexedRepository, this.getConfig().getLong("claims.unload-grace-ticks", 200));
+            }
+            this.playerTitleCache = new PlayerTitleCache(this, indexedRepository);
+            // Redraw the borders around chunks whose claims change.
+            indexedRepository.addClaimListener((worldUuid, minChunkX, minChunkZ, maxChunkX, maxChunkZ) -> {
+                if (this.borderDrawer != null) {
+                    this.borderDrawer.invalidate(worldUuid, minChunkX, minChunkZ, maxChunkX, maxChunkZ);
+                }
+            });
+            this.database = indexedRepository;
+        } catch (SQLException | IOException | RepositoryException e) {
+            this.getLogger().severe("Could not load the database. Disabling.");
             e.printStackTrace();
+            this.getServer().getPluginManager().disablePlugin(this);
+            return;
         }
+        this.maxRegionChunks = this.getConfig().getInt("claims.max-region-chunks", 1024);
         // Register commands.
         this.getCommand("holding").setExecutor(this);
         this.getCommand("holding").setTabCompleter(this);
@@ -38,16 +139,54 @@ public final class DomainsPlugin extends JavaPlugin implements Listener {
         pluginManager.registerEvents(new BuildListener(this), this);
         pluginManager.registerEvents(new InventoryListener(this), this);
         pluginManager.registerEvents(new InteractListener(this), this);
-        // Set up a border drawer and a repeating task drawing domain borders.
-        this.borderDrawer = new DetailedBorderDrawer(this, 24);
-        this.getServer().getScheduler().runTaskTimer(this, () -> {
-            this.borderDrawer.cacheChunks(this.getServer().getOnlinePlayers());
-            this.borderDrawer.drawBorder();
-        }, 2, 2);
+        pluginManager.registerEvents(this.playerTitleCache, this);
+        this.playerTitleCache.fetchOnlinePlayers();
+        if (this.chunkClaimCache != null) {
+            pluginManager.registerEvents(this.chunkClaimCache, this);
+            this.chunkClaimCache.fetchLoadedChunks();
+            this.getServer().getScheduler().runTaskTimer(this, this.chunkClaimCache, 1, 1);
+        }
+        // Set up a border drawer and a task drawing domain borders to the players
+        // viewing them within a budget.
+        String claimToolName = this.getConfig().getString("border.claim-tool", "GOLDEN_SHOVEL");
+        Material claimTool = Material.matchMaterial(claimToolName);
+        if (claimTool == null) {
+            this.getLogger().warning(String.format("Unknown claim tool: %s.", claimToolName));
+        }
+        double viewDistance = this.getConfig().getDouble("border.view-distance", 48.0);
+        this.borderViewers = new BorderViewers(claimTool, viewDistance);
+        pluginManager.registerEvents(this.borderViewers, this);
+        String drawerType = this.getConfig().getString("border.drawer", "DETAILED");
+        if (drawerType.equalsIgnoreCase("INSTANCED")) {
+            this.borderDrawer = new InstancedBorderDrawer(this, viewDistance);
+        } else {
+            if (!drawerType.equalsIgnoreCase("DETAILED")) {
+                this.getLogger().warning(String.format("Unknown border drawer: %s. Using DETAILED.", drawerType));
+            }
+            this.borderDrawer = new DetailedBorderDrawer(this, 24, viewDistance);
+        }
+        int particleBudget = this.getConfig().getInt("border.particles-per-tick", 2000);
+        long nanoBudget = (long) (this.getConfig().getDouble("border.milliseconds-per-tick", 2.0) * 1_000_000);
+        double lagMillis = this.getConfig().getDouble("border.lag-milliseconds", 55.0);
+        this.borderScheduler = new BorderScheduler(this, this.borderDrawer, this.borderViewers, 2, particleBudget, nanoBudget, lagMillis);
+        this.getServer().getScheduler().runTaskTimer(this, this.borderScheduler, 1, 1);
     }
 
     @Override
     public void onDisable() {
+        if (this.borderDrawer != null) {
+            this.borderDrawer.close();
+        }
+        if (this.database != null) {
+            // Wait for the background writes to be persisted before closing.
+            try {
+                this.database.flush();
+                this.database.close();
+            } catch (Exception e) {
+                this.getLogger().severe(e.getMessage());
+                e.printStackTrace();
+            }
+        }
         super.onDisable();
     }
 
@@ -59,9 +198,91 @@ public final class DomainsPlugin extends JavaPlugin implements Listener {
         return this.borderDrawer;
     }
 
+    public BorderViewers getBorderViewers() {
+        return this.borderViewers;
+    }
+
+    public BorderScheduler getBorderScheduler() {
+        return this.borderScheduler;
+    }
+
+    /**
+     * Get the domain owning the column at the given block coordinates, from the claim
+     * index without database access. If the claims of the chunk are not resident,
+     * they are fetched in the background.
+     *
+     * @return The domain, or null if the column is unclaimed or its claims are not resident.
+     */
+    public @Nullable Domain getDomain(World world, int x, int z) {
+        this.fetchIfNotResident(world, x >> 4, z >> 4);
+        return this.database.getDomain(world.getUID(), x, z);
+    }
+
+    /**
+     * Check if a player has a privilege in the column at the given block coordinates.
+     * A player has every privilege in an unclaimed column.
+     *
+     * This is called by the listeners on every protected event, and is answered from
+     * the claim index without database access. If the claims of the chunk are not
+     * resident, they are fetched in the background and the privilege is denied until
+     * they are, rather than treating a claimed column as unclaimed.
+     */
+    public boolean playerHasPrivilege(Player player, World world, int x, int z, Privilegium privilege) {
+        if (this.fetchIfNotResident(world, x >> 4, z >> 4)) {
+            return false;
+        }
+        Domain domain = this.database.getDomain(world.getUID(), x, z);
+        return domain == null || this.playerHasPrivilege(domain, player, privilege);
+    }
+
+    /**
+     * Fetch the claims of a chunk at the end of the tick if they are not resident.
+     *
+     * @return Whether the claims are not resident.
+     */
+    private boolean fetchIfNotResident(World world, int chunkX, int chunkZ) {
+        if (this.database.isResident(world.getUID(), chunkX, chunkZ)) {
+            return false;
+        }
+        if (this.chunkClaimCache != null) {
+            this.chunkClaimCache.fetchChunk(world.getUID(), chunkX, chunkZ);
+        }
+        return true;
+    }
+
+    /**
+     * Check if a player has a privilege in a domain from the resident titles, without
+     * database access. If the titles of the player are not resident, they are fetched
+     * in the background and the privilege is denied until they are, rather than
+     * granting privileges that may have been revoked.
+     */
+    public boolean playerHasPrivilege(Domain domain, Player player, Privilegium privilege) {
+        if (!this.database.isPlayerResident(player.getUniqueId())) {
+            this.playerTitleCache.fetchPlayer(player.getUniqueId());
+            return false;
+        }
+        return domain.playerHasPrivilege(player, privilege);
+    }
+
+    /**
+     * Get the claims of a chunk from the claim index, without database access.
+     *
+     * @return The claims, or null if the chunk is unclaimed or its claims are not resident.
+     */
+    public @Nullable ClaimedChunk getResidentClaims(World world, int chunkX, int chunkZ) {
+        return this.database.getResidentChunk(world.getUID(), chunkX, chunkZ);
+    }
+
+    /**
+     * Get a domain from the claim index, without database access.
+     */
+    public @Nullable Domain getResidentDomain(Key domainKey) {
+        return this.database.getIndex().getDomain(domainKey);
+    }
+
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] arguments) {
-        if (!command.getName().equalsIgnoreCase("domain")) {
+        if (!command.getName().equalsIgnoreCase("holding")) {
             return false;
         }
         if (arguments.length < 1) {
@@ -99,9 +320,21 @@ public final class DomainsPlugin extends JavaPlugin implements Listener {
             this.onCommandAnnex(sender, command, label, arguments);
             return true;
         }
+        // d disclaim chunk|column from <domain>
         // Abandon territory.
         else if (subCommand.equalsIgnoreCase("disclaim" )) {
-
+            this.onCommandDisclaim(sender, arguments);
+            return true;
+        }
+        // Show statistics about border drawing.
+        else if (subCommand.equalsIgnoreCase("stats")) {
+            this.onCommandStats(sender);
+            return true;
+        }
+        // Toggle seeing the borders of domains.
+        else if (subCommand.equalsIgnoreCase("border")) {
+            this.onCommandBorder(sender);
+            return true;
         }
         // Transfer territory from a domain to another domain.
         // Requires administration privileges in their common domain.
@@ -120,9 +353,11 @@ public final class DomainsPlugin extends JavaPlugin implements Listener {
             else if (titleCommand.equalsIgnoreCase("revoke")) {
 
             }
+            // d title list <domain> [page]
             // List all titles granted to players in a domain.
             else if (titleCommand.equalsIgnoreCase("list")) {
-
+                this.onCommandTitleList(sender, arguments);
+                return true;
             }
             // Renounce your domain title.
             else if (titleCommand.equalsIgnoreCase("renounce")) {
@@ -135,12 +370,39 @@ public final class DomainsPlugin extends JavaPlugin implements Listener {
         else {
 
         }
+        return true;
+    }
+
+    public void onCommandStats(CommandSender sender) {
+        if (!sender.hasPermission("holding.stats")) {
+            this.sendNoPermission(sender);
+            return;
+        }
+        BorderScheduler scheduler = this.borderScheduler;
+        sender.sendMessage(String.format("Border particles per second: %.0f.", scheduler.getParticleRate()));
+        sender.sendMessage(String.format("Border degradation level: %d.", scheduler.getDegradationLevel()));
+        sender.sendMessage(String.format("Border time per tick: %.3f ms.", scheduler.getAverageDrawNanos() / 1_000_000.0));
+        sender.sendMessage(String.format("Average tick interval: %.1f ms.", scheduler.getAverageTickMillis()));
+        SqliteDatabase sqliteDatabase = this.sqliteDatabase;
+        sender.sendMessage(String.format("Database statements reused: %d, prepared: %d.", sqliteDatabase.getStatementHits(), sqliteDatabase.getStatementMisses()));
+    }
+
+    public void onCommandBorder(CommandSender sender) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(String.format("You must be a player to execute this command."));
+            return;
+        }
+        if (this.borderViewers.toggle((Player) sender)) {
+            sender.sendMessage(String.format("Borders are now shown."));
+        } else {
+            sender.sendMessage(String.format("Borders are now hidden."));
+        }
     }
 
     public void onCommandAnnex(CommandSender sender, Command command, String label, String[] arguments) {
         try {
-            if (arguments.length != 4) {
-                sender.sendMessage(String.format("/d annex chunk|column to <domain>"));
+            if (arguments.length != 4 && arguments.length != 5 && arguments.length != 8) {
+                sender.sendMessage(String.format("/d annex chunk|column into <domain> [radius | x1 z1 x2 z2]"));
                 return;
             }
             if (!(sender instanceof Player)) {
@@ -159,26 +421,33 @@ public final class DomainsPlugin extends JavaPlugin implements Listener {
             Domain domain = this.parseDomain(player, sDomainKey).orElse(null);
             if (domain == null) return;
             // The player must be an administrator in this domain to annex to it.
-            if (!domain.playerHasPrivilege(player, Privilegium.ADMINISTRATE)) {
+            if (!this.playerHasPrivilege(domain, player, Privilegium.ADMINISTRATE)) {
                 sender.sendMessage(String.format("You must have administrative privileges to annex land to a domain."));
                 return;
             }
 
             // The second argument is either "chunk" or "column".
             String annexType = arguments[1];
+            // Annex a region if a radius or corners are given.
+            if (arguments.length > 4) {
+                this.onCommandAnnexRegion(player, domain, annexType, arguments);
+                return;
+            }
             UUID worldUuid = player.getWorld().getUID();
             Location location = player.getLocation();
             int chunkX = location.getChunk().getX();
             int chunkZ = location.getChunk().getZ();
             int i = Math.floorMod(location.getBlockX(), 16);
             int k = Math.floorMod(location.getBlockZ(), 16);
-            ChunkType chunkType;
+            // Load the type and claims of the chunk at once.
+            ClaimedChunk claimed;
             try {
-                chunkType = this.database.loadChunkType(worldUuid, chunkX, chunkZ);
+                claimed = this.database.loadChunk(worldUuid, chunkX, chunkZ).orElse(null);
             } catch (RepositoryException e) {
                 e.printStackTrace();
                 return;
             }
+            ChunkType chunkType = claimed != null ? claimed.getType() : ChunkType.UNCLAIMED;
             // Annex a chunk. The chunk must be unclaimed.
             if (annexType.equalsIgnoreCase("chunk")) {
 
@@ -187,7 +456,7 @@ public final class DomainsPlugin extends JavaPlugin implements Listener {
                     this.database.saveExclusiveChunk(chunk);
                     sender.sendMessage(String.format("Chunk was annexed."));
                 } else if (chunkType == ChunkType.EXCLUSIVE) {
-                    ExclusiveChunk chunk = this.database.loadExclusiveChunk(worldUuid, chunkX, chunkZ).get();
+                    ExclusiveChunk chunk = (ExclusiveChunk) claimed;
                     if (chunk.getDomainKey().equals(domain.getKey())) {
                         sender.sendMessage(String.format("This chunk is already incorporated."));
                     } else {
@@ -213,7 +482,7 @@ public final class DomainsPlugin extends JavaPlugin implements Listener {
                 // If the chunk is partitioned, check if the column is unclaimed. If it is,
                 // annex it, otherwise, it cannot be annexed.
                 else if (chunkType == ChunkType.PARTITIONED) {
-                    PartitionedChunk chunk = this.database.loadPartitionedChunk(worldUuid, chunkX, chunkZ).get();
+                    PartitionedChunk chunk = (PartitionedChunk) claimed;
                     Key existingDomainKey = chunk.getDomainKey(i, k).orElse(null);
                     if (existingDomainKey == null) {
                         chunk.setDomainKey(i, k, domain.getKey());
@@ -233,6 +502,179 @@ public final class DomainsPlugin extends JavaPlugin implements Listener {
         }
     }
 
+    /**
+     * Annex the unclaimed chunks or columns in a region, saved in one transaction.
+     */
+    private void onCommandAnnexRegion(Player player, Domain domain, String annexType, String[] arguments) throws RepositoryException {
+        boolean chunks;
+        if (annexType.equalsIgnoreCase("chunk")) {
+            chunks = true;
+        } else if (annexType.equalsIgnoreCase("column")) {
+            chunks = false;
+        } else {
+            player.sendMessage(String.format("You must annex either a chunk or a column."));
+            return;
+        }
+        ClaimRegion region = this.parseRegion(player, chunks, arguments, 4).orElse(null);
+        if (region == null) return;
+        ChunkBatch batch = new ChunkBatch();
+        if (chunks) {
+            int annexed = region.annexChunks(this.database, domain.getKey(), batch);
+            this.database.saveChunks(batch);
+            player.sendMessage(String.format("%d of %d chunks were annexed.", annexed, region.getChunkCount()));
+        } else {
+            int annexed = region.annexColumns(this.database, domain.getKey(), batch);
+            this.database.saveChunks(batch);
+            player.sendMessage(String.format("%d columns were annexed.", annexed));
+        }
+    }
+
+    /**
+     * List a page of the titles in a domain. Only the titles on the page are loaded,
+     * so listing a domain with many titles does not load all of them.
+     */
+    public void onCommandTitleList(CommandSender sender, String[] arguments) {
+        if (arguments.length != 3 && arguments.length != 4) {
+            sender.sendMessage(String.format("/d title list <domain> [page]"));
+            return;
+        }
+        Domain domain = this.parseDomain(sender, arguments[2]).orElse(null);
+        if (domain == null) return;
+        int page = 1;
+        if (arguments.length == 4) {
+            try {
+                page = Integer.parseInt(arguments[3]);
+            } catch (NumberFormatException e) {
+                sender.sendMessage(String.format("Invalid number: %s.", arguments[3]));
+                return;
+            }
+            if (page < 1) {
+                sender.sendMessage(String.format("The page must be at least 1: %d.", page));
+                return;
+            }
+        }
+        List<Title> titles;
+        try {
+            int offset = (int) Math.min((long) (page - 1) * TITLES_PER_PAGE, Integer.MAX_VALUE);
+            titles = this.database.loadDomainTitles(domain.getKey(), offset, TITLES_PER_PAGE);
+        } catch (RepositoryException e) {
+            this.getLogger().severe(e.getMessage());
+            e.printStackTrace();
+            sender.sendMessage(String.format("Database error occurred."));
+            return;
+        }
+        if (titles.isEmpty()) {
+            sender.sendMessage(String.format("No titles on page %d of %s.", page, domain.getKey()));
+            return;
+        }
+        sender.sendMessage(String.format("Titles in %s, page %d:", domain.getKey(), page));
+        for (Title title : titles) {
+            String playerName = this.getServer().getOfflinePlayer(title.getPlayerUuid()).getName();
+            if (playerName == null) {
+                playerName = title.getPlayerUuid().toString();
+            }
+            sender.sendMessage(String.format("%s: %s (%s)", playerName, title.getName(), title.getRole().name()));
+        }
+        if (titles.size() == TITLES_PER_PAGE) {
+            sender.sendMessage(String.format("See \"/d title list %s %d\" for more.", domain.getKey(), page + 1));
+        }
+    }
+
+    public void onCommandDisclaim(CommandSender sender, String[] arguments) {
+        if (arguments.length != 4 && arguments.length != 5 && arguments.length != 8) {
+            sender.sendMessage(String.format("/d disclaim chunk|column from <domain> [radius | x1 z1 x2 z2]"));
+            return;
+        }
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(String.format("You must be a player to execute this command."));
+            return;
+        }
+        Player player = (Player) sender;
+        String from = arguments[2];
+        if (!from.equalsIgnoreCase("from")) {
+            sender.sendMessage(String.format("Third argument must be \"from\": %s.", from));
+            return;
+        }
+        Domain domain = this.parseDomain(player, arguments[3]).orElse(null);
+        if (domain == null) return;
+        if (!this.playerHasPrivilege(domain, player, Privilegium.ADMINISTRATE)) {
+            sender.sendMessage(String.format("You must have administrative privileges to disclaim land from a domain."));
+            return;
+        }
+        String disclaimType = arguments[1];
+        boolean chunks;
+        if (disclaimType.equalsIgnoreCase("chunk")) {
+            chunks = true;
+        } else if (disclaimType.equalsIgnoreCase("column")) {
+            chunks = false;
+        } else {
+            sender.sendMessage(String.format("You must disclaim either a chunk or a column."));
+            return;
+        }
+        // Without a radius or corners, disclaim the chunk or column the player is standing in.
+        ClaimRegion region = this.parseRegion(player, chunks, arguments, 4).orElse(null);
+        if (region == null) return;
+        try {
+            ChunkBatch batch = new ChunkBatch();
+            int disclaimed = region.disclaim(this.database, domain.getKey(), batch);
+            this.database.saveChunks(batch);
+            sender.sendMessage(String.format("%d columns were disclaimed.", disclaimed));
+        } catch (RepositoryException e) {
+            this.getLogger().severe(e.getMessage());
+            e.printStackTrace();
+            sender.sendMessage(String.format("Database error occurred."));
+        }
+    }
+
+    /**
+     * Parse the region of a region command from the arguments after the domain. The
+     * region is either a radius around the player or two corners, in chunks for chunk
+     * commands and in blocks for column commands. Without arguments, the region is
+     * the chunk or column the player is standing in.
+     */
+    private Optional<ClaimRegion> parseRegion(Player player, boolean chunks, String[] arguments, int start) {
+        UUID worldUuid = player.getWorld().getUID();
+        Location location = player.getLocation();
+        int x = chunks ? location.getBlockX() >> 4 : location.getBlockX();
+        int z = chunks ? location.getBlockZ() >> 4 : location.getBlockZ();
+        int[] values = new int[arguments.length - start];
+        int n = 0;
+        while (n < values.length) {
+            try {
+                values[n] = Integer.parseInt(arguments[start + n]);
+            } catch (NumberFormatException e) {
+                player.sendMessage(String.format("Invalid number: %s.", arguments[start + n]));
+                return Optional.empty();
+            }
+            n++;
+        }
+        ClaimRegion region;
+        if (values.length == 0) {
+            region = chunks ? ClaimRegion.ofChunks(worldUuid, x, z, x, z) : new ClaimRegion(worldUuid, x, z, x, z);
+        } else if (values.length == 1) {
+            int radius = values[0];
+            if (radius < 0) {
+                player.sendMessage(String.format("The radius must not be negative: %d.", radius));
+                return Optional.empty();
+            }
+            region = chunks
+                    ? ClaimRegion.ofChunks(worldUuid, x - radius, z - radius, x + radius, z + radius)
+                    : new ClaimRegion(worldUuid, x - radius, z - radius, x + radius, z + radius);
+        } else if (values.length == 4) {
+            region = chunks
+                    ? ClaimRegion.ofChunks(worldUuid, values[0], values[1], values[2], values[3])
+                    : new ClaimRegion(worldUuid, values[0], values[1], values[2], values[3]);
+        } else {
+            player.sendMessage(String.format("Give either a radius or two corners."));
+            return Optional.empty();
+        }
+        if (region.getChunkCount() > this.maxRegionChunks) {
+            player.sendMessage(String.format("The region covers %d chunks, but at most %d chunks can be changed at once.", region.getChunkCount(), this.maxRegionChunks));
+            return Optional.empty();
+        }
+        return Optional.of(region);
+    }
+
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] arguments) {
         return null;
@@ -241,11 +683,16 @@ public final class DomainsPlugin extends JavaPlugin implements Listener {
     public Optional<Domain> parseDomain(CommandSender sender, String sDomainKey) {
         Key domainKey;
         try {
-            domainKey = new Key(sDomainKey);
+            // Look the key up rather than interning it, since any player can type a key.
+            domainKey = Key.find(sDomainKey).orElse(null);
         } catch (IllegalArgumentException e) {
             sender.sendMessage(String.format("Illegal domain key: %s.", sDomainKey));
             return Optional.empty();
         }
+        if (domainKey == null) {
+            sender.sendMessage(String.format("No such domain."));
+            return Optional.empty();
+        }
         Optional<Domain> mDomain;
         try {
             mDomain = this.database.loadDomain(domainKey);
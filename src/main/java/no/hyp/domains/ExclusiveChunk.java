@@ -1,12 +1,13 @@
 package no.hyp.domains;
 
+import javax.annotation.Nullable;
 import java.util.Optional;
 import java.util.UUID;
 
 /**
  * A chunk that is exclusively claimed as a whole for a domain.
  */
-public final class ExclusiveChunk {
+public final class ExclusiveChunk implements ClaimedChunk {
 
     private final UUID worldUuid;
 
@@ -26,22 +27,35 @@ public final class ExclusiveChunk {
         this.domainKey = domainKey;
     }
 
+    @Override
     public UUID getWorldUuid() {
         return this.worldUuid;
     }
 
+    @Override
     public int getChunkX() {
         return this.chunkX;
     }
 
+    @Override
     public int getChunkZ() {
         return this.chunkZ;
     }
 
+    @Override
+    public ChunkType getType() {
+        return ChunkType.EXCLUSIVE;
+    }
+
     public Optional<Key> getDomainKey(int i, int k) {
         return Optional.of(this.domainKey);
     }
 
+    @Override
+    public @Nullable Key getColumnKey(int i, int k) {
+        return this.domainKey;
+    }
+
     public Key getDomainKey() {
         return this.domainKey;
     }
@@ -3,6 +3,12 @@ package no.hyp.domains;
 import org.bukkit.World;
 import org.bukkit.util.Vector;
 
+/**
+ * A straight segment of a border, drawn with a single particle packet.
+ *
+ * The origin is the middle of the segment, and the segment extends half its length
+ * to each side of the origin along its orientation.
+ */
 public class InstancedBorder {
 
     private final World world;
@@ -1,89 +1,326 @@
 package no.hyp.domains;
 
-import org.bukkit.Chunk;
-import org.bukkit.HeightMap;
-import org.bukkit.Particle;
-import org.bukkit.World;
+import org.bukkit.*;
+import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
 
 import java.util.*;
 
+/**
+ * A border drawer that draws each straight segment of a border with a single particle
+ * packet, instead of one packet per vertex. The particles of a segment are spread
+ * along it by the client, so the border is rougher than a detailed border, but large
+ * claims only cost one packet per segment.
+ */
 public class InstancedBorderDrawer implements BorderDrawer {
 
+    /**
+     * The distance segments are drawn inside the edge of their column.
+     */
+    private static final float INSET = 0.05f;
+
+    /**
+     * The particles per block of segment at full detail.
+     */
+    private static final float PARTICLE_DENSITY = 4.0f;
+
     private final DomainsPlugin plugin;
 
-    private final Map<Chunk, List<InstancedBorder>> cache;
+    /**
+     * A cache of calculated borders per chunk.
+     */
+    private final WorldChunkMap<List<InstancedBorder>> cache;
+
+    /**
+     * The chunks within the radius of an origin in the current caching pass.
+     */
+    private final WorldChunkMap<Boolean> nearby;
+
+    /**
+     * The chunk snapshots taken in the current caching pass, shared by the snapshots
+     * of neighbouring chunks. It is cleared after every pass.
+     */
+    private final WorldChunkMap<ChunkSnapshot> chunkSnapshots;
+
+    /**
+     * The radius around a chunk to cache.
+     */
+    private final int radius;
+
+    /**
+     * The view used to cull the borders drawn to each player, reused for every player.
+     */
+    private final BorderView view;
+
+    /**
+     * The particles per block of segment, divided by the detail.
+     */
+    private float particleDensity;
 
-    public InstancedBorderDrawer(DomainsPlugin plugin) {
+    private final Particle.DustOptions colour;
+
+    /**
+     * The viewer given the first share of the particles, rotated between draws.
+     */
+    private int firstViewer;
+
+    public InstancedBorderDrawer(DomainsPlugin plugin, double viewDistance) {
         this.plugin = plugin;
-        this.cache = new HashMap<>();
+        this.cache = new WorldChunkMap<>();
+        this.nearby = new WorldChunkMap<>();
+        this.chunkSnapshots = new WorldChunkMap<>();
+        this.radius = 1;
+        this.view = new BorderView(viewDistance);
+        this.particleDensity = PARTICLE_DENSITY;
+        this.colour = new Particle.DustOptions(Color.RED, 0.75f);
+        this.firstViewer = 0;
+    }
+
+    /**
+     * Draw the cached borders to each viewer. Particles are only sent to the viewer,
+     * and only for the borders whose origin is within their view.
+     */
+    @Override
+    public int drawBorder(Collection<? extends Player> viewers, int maxParticles) {
+        if (viewers.isEmpty()) {
+            return 0;
+        }
+        // Share the particles evenly, so that no viewer is starved by those before them.
+        int viewerCount = viewers.size();
+        int particles = 0;
+        int position = 0;
+        for (Player viewer : viewers) {
+            int viewerParticles = BorderDrawer.viewerShare(maxParticles, viewerCount, Math.floorMod(position - this.firstViewer, viewerCount));
+            position++;
+            ChunkMap<List<InstancedBorder>> chunks = this.cache.getWorld(viewer.getWorld().getUID());
+            if (viewerParticles == 0 || chunks == null || chunks.isEmpty()) {
+                continue;
+            }
+            this.view.set(viewer);
+            int originX = this.view.getChunkX();
+            int originZ = this.view.getChunkZ();
+            int chunkRadius = this.view.getChunkRadius();
+            int remaining = viewerParticles;
+            int i = -chunkRadius;
+            while (i <= chunkRadius && remaining > 0) {
+                int k = -chunkRadius;
+                while (k <= chunkRadius && remaining > 0) {
+                    List<InstancedBorder> borders = chunks.get(originX + i, originZ + k);
+                    if (borders != null && this.view.isChunkInRange(originX + i, originZ + k)) {
+                        remaining -= this.drawChunkBorder(viewer, borders, remaining);
+                    }
+                    k++;
+                }
+                i++;
+            }
+            particles += viewerParticles - remaining;
+        }
+        // The viewers after those given the remainder go first on the next draw.
+        this.firstViewer = (this.firstViewer + maxParticles % viewerCount) % viewerCount;
+        return particles;
     }
 
     @Override
-    public void drawBorder() {
-        for (List<InstancedBorder> borders : cache.values()) {
-            for (InstancedBorder border : borders) {
-                Vector origin = border.getOrigin();
-                Direction orientation = border.getOrientation();
-                float length = border.getLength();
-                float xOffset = orientation == Direction.LONGITUDINAL ? length : 0.0f;
-                float zOffset = orientation == Direction.LATITUDINAL ? length : 0.0f;
-                float yOffset = orientation == Direction.ALTITUDINAL ? length : 0.0f;
-                border.getWorld().spawnParticle(Particle.CLOUD, origin.getX(), origin.getY(), origin.getZ(), 100, xOffset, yOffset, zOffset, 0.0);
+    public void setDetail(int detail) {
+        if (detail < 1) {
+            throw new IllegalArgumentException("detail must be at least 1.");
+        }
+        this.particleDensity = PARTICLE_DENSITY / detail;
+    }
+
+    /**
+     * Draw the visible borders of a chunk. The last segment drawn gets fewer particles
+     * if its particles do not fit, so that a small share still draws something.
+     *
+     * @return The number of particles sent.
+     */
+    private int drawChunkBorder(Player viewer, List<InstancedBorder> borders, int maxParticles) {
+        int particles = 0;
+        for (InstancedBorder border : borders) {
+            Vector origin = border.getOrigin();
+            if (!this.view.canSee(origin.getX(), origin.getY(), origin.getZ())) {
+                continue;
             }
+            float length = border.getLength();
+            int count = Math.min(Math.max(1, Math.round(length * this.particleDensity)), maxParticles - particles);
+            if (count <= 0) {
+                break;
+            }
+            // The client spreads the particles normally around the origin, so a quarter
+            // of the length puts most of them on the segment.
+            Direction orientation = border.getOrientation();
+            float spread = length / 4.0f;
+            float xOffset = orientation == Direction.LONGITUDINAL ? spread : 0.0f;
+            float zOffset = orientation == Direction.LATITUDINAL ? spread : 0.0f;
+            float yOffset = orientation == Direction.ALTITUDINAL ? spread : 0.0f;
+            viewer.spawnParticle(Particle.REDSTONE, origin.getX(), origin.getY(), origin.getZ(), count, xOffset, yOffset, zOffset, 0.0, this.colour);
+            particles += count;
         }
+        return particles;
     }
 
     @Override
     public void cacheChunks(Collection<Chunk> origins) {
+        this.nearby.clear();
+        for (Chunk chunk : origins) {
+            this.cacheAround(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        }
+        this.cache.retainAll(this.nearby);
+        this.chunkSnapshots.clear();
+    }
 
+    @Override
+    public void cacheNearby(Collection<? extends Player> players) {
+        this.nearby.clear();
+        for (Player player : players) {
+            Location location = player.getLocation();
+            this.cacheAround(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        }
+        this.cache.retainAll(this.nearby);
+        this.chunkSnapshots.clear();
     }
 
-    public List<Vector> calculateChunkBorder(World world, int chunkX, int chunkZ) {
-        List<Vector> border = new ArrayList<>();
-        {
-            int i = 0;
-            while (i < 16) {
-                int k = 0;
-                while (k < 16) {
-                    int x = chunkX * 16 + i;
-                    int z = chunkZ * 16 + k;
-                    Domain holding = plugin.getDomain(x, z);
-                    int y = world.getHighestBlockYAt(x, z, HeightMap.WORLD_SURFACE) + 1;
-                    int yNorth = world.getHighestBlockYAt(x - 1, z, HeightMap.WORLD_SURFACE) + 1;
-                    int yNorthEast = world.getHighestBlockYAt(x - 1, z + 1, HeightMap.WORLD_SURFACE) + 1;
-                    int yEast = world.getHighestBlockYAt(x, z + 1, HeightMap.WORLD_SURFACE) + 1;
-                    int ySouthEast = world.getHighestBlockYAt(x + 1, z + 1, HeightMap.WORLD_SURFACE) + 1;
-                    int ySouth = world.getHighestBlockYAt(x, z + 1, HeightMap.WORLD_SURFACE) + 1;
-                    int ySouthWest = world.getHighestBlockYAt(x - 1, z + 1, HeightMap.WORLD_SURFACE) + 1;
-                    int yWest = world.getHighestBlockYAt(x - 1, z, HeightMap.WORLD_SURFACE) + 1;
-                    int yNorthWest = world.getHighestBlockYAt(x - 1, z - 1, HeightMap.WORLD_SURFACE) + 1;
-                    boolean northBorder = !holding.equals(plugin.getDomain(x, z - 1));
-                    if (northBorder) {
-                        border.addAll(calculateColumnBorder(x, z, Math.max(y, yNorth), Cardinality.EAST, Math.max(yNorthWest, yWest), Math.max(yEast, yNorthEast)));
-                    }
-                    boolean eastBorder = !holding.equals(plugin.getDomain(x + 1, z));
-                    if (eastBorder) {
-                        border.addAll(calculateColumnBorder(x, z, Math.max(y, yEast), Cardinality.SOUTH, Math.max(yNorthEast, yNorth), Math.max(ySouth, ySouthEast)));
-                    }
-                    k++;
+    /**
+     * Borders are calculated synchronously, so an outdated border is dropped and
+     * calculated again on the next caching pass if it is still nearby.
+     */
+    @Override
+    public void invalidate(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        int x = minChunkX - 1;
+        while (x <= maxChunkX + 1) {
+            int z = minChunkZ - 1;
+            while (z <= maxChunkZ + 1) {
+                this.cache.remove(worldUuid, x, z);
+                z++;
+            }
+            x++;
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void cacheAround(World world, int originX, int originZ) {
+        UUID worldUuid = world.getUID();
+        int i = -radius;
+        while (i <= radius) {
+            int k = -radius;
+            while (k <= radius) {
+                int x = originX + i;
+                int z = originZ + k;
+                if (this.nearby.put(worldUuid, x, z, Boolean.TRUE) == null
+                        && !this.cache.containsKey(worldUuid, x, z)
+                        && world.isChunkLoaded(x, z)) {
+                    BorderSnapshot snapshot = BorderSnapshot.capture(this.plugin, world, x, z, this.chunkSnapshots);
+                    this.cache.put(worldUuid, x, z, this.calculateChunkBorder(world, snapshot));
                 }
-                i++;
+                k++;
             }
+            i++;
+        }
+    }
+
+    /**
+     * Calculate the border of a chunk as maximal straight segments. Collinear edges of
+     * adjacent columns at the same height are merged into one segment, and a vertical
+     * segment joins two adjacent edges at different heights.
+     */
+    public List<InstancedBorder> calculateChunkBorder(World world, BorderSnapshot snapshot) {
+        List<InstancedBorder> border = new ArrayList<>();
+        int line = 0;
+        while (line < 16) {
+            this.calculateLineBorder(world, snapshot, border, line, Cardinality.NORTH);
+            this.calculateLineBorder(world, snapshot, border, line, Cardinality.SOUTH);
+            this.calculateLineBorder(world, snapshot, border, line, Cardinality.WEST);
+            this.calculateLineBorder(world, snapshot, border, line, Cardinality.EAST);
+            line++;
         }
         return border;
     }
 
-    private int max(int a, int b, int c) {
-        return Math.max(a, Math.max(b, c));
+    /**
+     * Calculate the segments along one side of a line of 16 columns. The north and
+     * south sides run along the x axis of the line at z = line, and the west and east
+     * sides run along the z axis of the line at x = line.
+     */
+    private void calculateLineBorder(World world, BorderSnapshot snapshot, List<InstancedBorder> border, int line, Cardinality side) {
+        boolean alongX = side == Cardinality.NORTH || side == Cardinality.SOUTH;
+        int di = side == Cardinality.WEST ? -1 : side == Cardinality.EAST ? 1 : 0;
+        int dk = side == Cardinality.NORTH ? -1 : side == Cardinality.SOUTH ? 1 : 0;
+        int start = -1;
+        int runHeight = 0;
+        // Position 16 is past the end of the line and closes the last run.
+        int position = 0;
+        while (position <= 16) {
+            boolean edge = false;
+            int height = 0;
+            if (position < 16) {
+                int i = alongX ? position : line;
+                int k = alongX ? line : position;
+                edge = snapshot.getOwner(i, k) != snapshot.getOwner(i + di, k + dk);
+                height = snapshot.getHeight(i, k);
+            }
+            if (start >= 0 && (!edge || height != runHeight)) {
+                border.add(this.createSegment(world, snapshot, side, line, start, position, runHeight));
+                if (edge) {
+                    border.add(this.createStep(world, snapshot, side, line, position, runHeight, height));
+                }
+                start = -1;
+            }
+            if (edge && start < 0) {
+                start = position;
+                runHeight = height;
+            }
+            position++;
+        }
     }
 
-    public List<InstancedBorder> calculateColumnBorder(World world, int x, int z, int y, Cardinality direction, int yPrevious, int yNext) {
-        List<InstancedBorder> border = new ArrayList<>();
-        if (direction == Cardinality.NORTH) {
+    /**
+     * Create a horizontal segment along a side of the line, from the start position
+     * up to but excluding the end position.
+     */
+    private InstancedBorder createSegment(World world, BorderSnapshot snapshot, Cardinality side, int line, int start, int end, int y) {
+        float length = end - start;
+        float middle = start + length / 2.0f;
+        float across = this.sideOffset(side, line);
+        int minX = snapshot.getChunkX() * 16;
+        int minZ = snapshot.getChunkZ() * 16;
+        if (side == Cardinality.NORTH || side == Cardinality.SOUTH) {
+            return new InstancedBorder(world, new Vector(minX + middle, y, minZ + across), Direction.LONGITUDINAL, length);
+        } else {
+            return new InstancedBorder(world, new Vector(minX + across, y, minZ + middle), Direction.LATITUDINAL, length);
+        }
+    }
+
+    /**
+     * Create a vertical segment joining two runs on a side of the line at the boundary
+     * before the given position.
+     */
+    private InstancedBorder createStep(World world, BorderSnapshot snapshot, Cardinality side, int line, int position, int y, int nextY) {
+        float bottom = Math.min(y, nextY);
+        float length = Math.abs(nextY - y);
+        float across = this.sideOffset(side, line);
+        int minX = snapshot.getChunkX() * 16;
+        int minZ = snapshot.getChunkZ() * 16;
+        float middle = bottom + length / 2.0f;
+        if (side == Cardinality.NORTH || side == Cardinality.SOUTH) {
+            return new InstancedBorder(world, new Vector(minX + position, middle, minZ + across), Direction.ALTITUDINAL, length);
+        } else {
+            return new InstancedBorder(world, new Vector(minX + across, middle, minZ + position), Direction.ALTITUDINAL, length);
+        }
+    }
 
-        } else if (direction == Cardinality.EAST) {
-            border.add(new InstancedBorder(world, ))
+    /**
+     * The coordinate of a side of the line across the line, relative to the chunk.
+     * Segments are drawn slightly inside the column, so that the borders of two
+     * neighbouring domains do not overlap.
+     */
+    private float sideOffset(Cardinality side, int line) {
+        if (side == Cardinality.NORTH || side == Cardinality.WEST) {
+            return line + INSET;
+        } else {
+            return line + 1 - INSET;
         }
     }
 
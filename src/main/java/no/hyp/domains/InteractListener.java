@@ -3,6 +3,7 @@ package no.hyp.domains;
 import org.bukkit.Location;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -24,8 +25,11 @@ public class InteractListener implements Listener {
     public void onBlockInteract(PlayerInteractEvent event) {
         Player player = event.getPlayer();
         Block block = event.getClickedBlock();
-        Domain domain = plugin.getDomain(block.getX(), block.getZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.INTERACT)) {
+        // Clicks in the air have no block.
+        if (block == null) {
+            return;
+        }
+        if (!plugin.playerHasPrivilege(player, block.getWorld(), block.getX(), block.getZ(), Privilegium.INTERACT)) {
             event.setCancelled(true);
         }
     }
@@ -34,8 +38,7 @@ public class InteractListener implements Listener {
     public void onEntityInteract(PlayerInteractEntityEvent event) {
         Player player = event.getPlayer();
         Location location = event.getRightClicked().getLocation();
-        Domain domain = plugin.getDomain(location.getBlockX(), location.getBlockZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.INTERACT)) {
+        if (!plugin.playerHasPrivilege(player, location.getWorld(), location.getBlockX(), location.getBlockZ(), Privilegium.INTERACT)) {
             event.setCancelled(true);
         }
     }
@@ -44,8 +47,7 @@ public class InteractListener implements Listener {
     public void onBedEnter(PlayerBedEnterEvent event) {
         Player player = event.getPlayer();
         Block block = event.getBed();
-        Domain domain = plugin.getDomain(block.getX(), block.getZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.INTERACT)) {
+        if (!plugin.playerHasPrivilege(player, block.getWorld(), block.getX(), block.getZ(), Privilegium.INTERACT)) {
             event.setCancelled(true);
         }
     }
@@ -57,10 +59,10 @@ public class InteractListener implements Listener {
      */
     public void onEntityDamage(EntityDamageByEntityEvent event) {
         Entity damaged = event.getEntity();
-        if (event.getEntityType() == EntityType.) {
+        if (event.getEntityType() == EntityType.PLAYER) {
 
         }
-        if (damaged instanceof ) {
+        if (damaged instanceof Player) {
 
         }
         Entity damager = event.getDamager();
@@ -28,8 +28,7 @@ public class InventoryListener implements Listener {
     public void onTakeBook(PlayerTakeLecternBookEvent event) {
         Player player = event.getPlayer();
         Lectern block = event.getLectern();
-        Domain domain = plugin.getDomain(block.getX(), block.getZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.INVENTORY)) {
+        if (!plugin.playerHasPrivilege(player, block.getWorld(), block.getX(), block.getZ(), Privilegium.INVENTORY)) {
             event.setCancelled(true);
         }
     }
@@ -50,8 +49,7 @@ public class InventoryListener implements Listener {
         if (location == null) {
             return;
         }
-        Domain domain = plugin.getDomain(location.getBlockX(), location.getBlockZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.INVENTORY)) {
+        if (!plugin.playerHasPrivilege(player, location.getWorld(), location.getBlockX(), location.getBlockZ(), Privilegium.INVENTORY)) {
             event.setCancelled(true);
         }
     }
@@ -65,8 +63,7 @@ public class InventoryListener implements Listener {
     public void onArmorStandManipulate(PlayerArmorStandManipulateEvent event) {
         Player player = event.getPlayer();
         Location location = event.getRightClicked().getLocation();
-        Domain domain = plugin.getDomain(location.getBlockX(), location.getBlockZ());
-        if (!domain.playerHasPrivilege(player, Privilegium.INVENTORY)) {
+        if (!plugin.playerHasPrivilege(player, location.getWorld(), location.getBlockX(), location.getBlockZ(), Privilegium.INVENTORY)) {
             event.setCancelled(true);
         }
     }
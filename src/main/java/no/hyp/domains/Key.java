@@ -1,13 +1,112 @@
 package no.hyp.domains;
 
+import javax.annotation.Nullable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-public class Key {
+/**
+ * The key of a domain, a path of nodes separated by colons, such as "no:ak:os".
+ *
+ * Keys are interned, so equal keys are always the same instance and can be compared
+ * by identity. Each key holds a reference to the key of its supernode, so walking
+ * the hierarchy never splits strings. The intern table only holds keys weakly, so a
+ * key that is no longer used anywhere is collected, and keys parsed from arbitrary
+ * input cannot grow it without bound.
+ */
+public final class Key {
+
+    /**
+     * The keys in use, by their string.
+     */
+    private static final ConcurrentMap<String, KeyReference> REGISTRY = new ConcurrentHashMap<>();
+
+    /**
+     * The references of collected keys, whose entries are removed from the registry.
+     */
+    private static final ReferenceQueue<Key> COLLECTED = new ReferenceQueue<>();
 
     private final String string;
 
-    public Key(String string) throws IllegalArgumentException {
+    private final int hash;
+
+    /**
+     * The supernode of this node, or null if this is a root node.
+     */
+    private final @Nullable Key parent;
+
+    /**
+     * The number of supernodes above this node. A root node has depth 0.
+     */
+    private final int depth;
+
+    private Key(String string, @Nullable Key parent) {
         this.string = string;
+        this.hash = string.hashCode();
+        this.parent = parent;
+        this.depth = parent != null ? parent.depth + 1 : 0;
+    }
+
+    /**
+     * Get the interned key of a string.
+     *
+     * @throws IllegalArgumentException If the string is empty or has an empty node.
+     */
+    public static Key of(String string) throws IllegalArgumentException {
+        Key key = Key.lookup(string);
+        if (key != null) {
+            return key;
+        }
+        Key.validate(string);
+        int separator = string.lastIndexOf(':');
+        Key parent = separator >= 0 ? Key.of(string.substring(0, separator)) : null;
+        Key created = new Key(string, parent);
+        while (true) {
+            KeyReference reference = REGISTRY.putIfAbsent(string, new KeyReference(created, COLLECTED));
+            if (reference == null) {
+                return created;
+            }
+            Key existing = reference.get();
+            if (existing != null) {
+                return existing;
+            }
+            // The registered key has been collected, so replace its entry.
+            REGISTRY.remove(string, reference);
+        }
+    }
+
+    /**
+     * Get the key of a string if it is in use, without interning a new key. Use this
+     * for keys parsed from user input, such as command arguments: the key of an
+     * existing domain is always in use.
+     *
+     * @return The key, or empty if no key of the string is in use.
+     * @throws IllegalArgumentException If the string is empty or has an empty node.
+     */
+    public static Optional<Key> find(String string) throws IllegalArgumentException {
+        Key key = Key.lookup(string);
+        if (key == null) {
+            Key.validate(string);
+        }
+        return Optional.ofNullable(key);
+    }
+
+    private static @Nullable Key lookup(String string) {
+        Reference<? extends Key> collected;
+        while ((collected = COLLECTED.poll()) != null) {
+            REGISTRY.remove(((KeyReference) collected).string, collected);
+        }
+        KeyReference reference = REGISTRY.get(string);
+        return reference != null ? reference.get() : null;
+    }
+
+    private static void validate(String string) throws IllegalArgumentException {
+        if (string.isEmpty() || string.startsWith(":") || string.endsWith(":") || string.contains("::")) {
+            throw new IllegalArgumentException(String.format("Illegal key: %s.", string));
+        }
     }
 
     /**
@@ -16,11 +115,54 @@ public class Key {
      * @return
      */
     public Optional<Key> superKey() {
-        return this.string.s
+        return Optional.ofNullable(this.parent);
+    }
+
+    /**
+     * Get the supernode of this node without allocating.
+     *
+     * @return The supernode, or null if this is a root node.
+     */
+    public @Nullable Key getParent() {
+        return this.parent;
     }
 
     public Key subKey(String string) {
-        return this.string + ":" + string;
+        return Key.of(this.string + ":" + string);
+    }
+
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * The last node of this key, such as "os" for "no:ak:os".
+     */
+    public String getName() {
+        return this.parent != null ? this.string.substring(this.parent.string.length() + 1) : this.string;
+    }
+
+    /**
+     * Get the supernode of this node at a depth.
+     *
+     * @throws IllegalArgumentException If the depth is negative or deeper than this node.
+     */
+    public Key getAncestor(int depth) throws IllegalArgumentException {
+        if (depth < 0 || depth > this.depth) {
+            throw new IllegalArgumentException(String.format("depth must be between 0 and %d.", this.depth));
+        }
+        Key key = this;
+        while (key.depth > depth) {
+            key = key.parent;
+        }
+        return key;
+    }
+
+    /**
+     * Whether this is the given node or below it.
+     */
+    public boolean isWithin(Key key) {
+        return this.depth >= key.depth && this.getAncestor(key.depth) == key;
     }
 
     /**
@@ -34,7 +176,27 @@ public class Key {
      * @return The common node of a and b, or nothing if a and b are in different trees.
      */
     public static Optional<Key> common(Key a, Key b) {
+        int depth = Math.min(a.depth, b.depth);
+        Key x = a.getAncestor(depth);
+        Key y = b.getAncestor(depth);
+        while (x != y) {
+            x = x.parent;
+            y = y.parent;
+        }
+        return Optional.ofNullable(x);
+    }
+
+    /**
+     * Keys are interned, so equal keys are the same instance.
+     */
+    @Override
+    public boolean equals(Object object) {
+        return this == object;
+    }
 
+    @Override
+    public int hashCode() {
+        return this.hash;
     }
 
     @Override
@@ -42,4 +204,19 @@ public class Key {
         return this.string;
     }
 
+    /**
+     * A weak reference to an interned key, remembering its string so that its entry
+     * can be removed from the registry once the key is collected.
+     */
+    private static final class KeyReference extends WeakReference<Key> {
+
+        private final String string;
+
+        private KeyReference(Key key, ReferenceQueue<Key> queue) {
+            super(key, queue);
+            this.string = key.string;
+        }
+
+    }
+
 }
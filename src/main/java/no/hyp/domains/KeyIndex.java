@@ -0,0 +1,131 @@
+package no.hyp.domains;
+
+import java.util.*;
+
+/**
+ * An index of a set of keys, such as the keys of all domains, as a tree.
+ *
+ * The supernode and common node of keys are answered by the keys themselves. The
+ * index adds the other direction: listing the subkeys of a key and all keys below it.
+ * A key can be listed below a supernode that is not in the index itself. Such a
+ * supernode is kept in the tree as long as any key below it is in the index, so that
+ * keys below it are still found, whatever the order the keys are added in.
+ *
+ * The index is not thread safe.
+ */
+public class KeyIndex {
+
+    /**
+     * The nodes in the tree directly below each node. A node is either a key in the
+     * index, or a supernode of a key in the index.
+     */
+    private final Map<Key, Set<Key>> children;
+
+    private final Set<Key> keys;
+
+    public KeyIndex() {
+        this.children = new HashMap<>();
+        this.keys = new HashSet<>();
+    }
+
+    public boolean contains(Key key) {
+        return this.keys.contains(key);
+    }
+
+    /**
+     * Add a key, linking it to the tree through any supernodes that are not in the tree yet.
+     */
+    public void add(Key key) {
+        if (!this.keys.add(key) || this.children.containsKey(key)) {
+            // The key is already in the tree as the supernode of other keys.
+            return;
+        }
+        Key node = key;
+        Key parent = node.getParent();
+        while (parent != null) {
+            boolean linked = this.keys.contains(parent) || this.children.containsKey(parent);
+            this.children.computeIfAbsent(parent, x -> new HashSet<>()).add(node);
+            if (linked) {
+                return;
+            }
+            node = parent;
+            parent = node.getParent();
+        }
+    }
+
+    /**
+     * Remove a key. The key stays in the tree as a supernode if there are keys below
+     * it, and supernodes without keys below them are removed from the tree.
+     */
+    public void remove(Key key) {
+        if (!this.keys.remove(key) || this.children.containsKey(key)) {
+            return;
+        }
+        Key node = key;
+        Key parent = node.getParent();
+        while (parent != null) {
+            Set<Key> siblings = this.children.get(parent);
+            siblings.remove(node);
+            if (!siblings.isEmpty()) {
+                return;
+            }
+            this.children.remove(parent);
+            if (this.keys.contains(parent)) {
+                return;
+            }
+            node = parent;
+            parent = node.getParent();
+        }
+    }
+
+    /**
+     * Get the keys in the index directly below a key: the nearest keys below it, with
+     * no key in the index between them and the key.
+     */
+    public Set<Key> getSubKeys(Key key) {
+        Set<Key> subKeys = new HashSet<>();
+        Deque<Key> stack = new ArrayDeque<>();
+        stack.push(key);
+        while (!stack.isEmpty()) {
+            Set<Key> nodes = this.children.get(stack.pop());
+            if (nodes != null) {
+                for (Key node : nodes) {
+                    if (this.keys.contains(node)) {
+                        subKeys.add(node);
+                    } else {
+                        stack.push(node);
+                    }
+                }
+            }
+        }
+        return subKeys;
+    }
+
+    /**
+     * Get all keys in the index below a key, at any depth, including the keys below
+     * supernodes that are not in the index.
+     */
+    public List<Key> getDescendants(Key key) {
+        List<Key> descendants = new ArrayList<>();
+        Deque<Key> stack = new ArrayDeque<>();
+        stack.push(key);
+        while (!stack.isEmpty()) {
+            Set<Key> nodes = this.children.get(stack.pop());
+            if (nodes != null) {
+                for (Key node : nodes) {
+                    if (this.keys.contains(node)) {
+                        descendants.add(node);
+                    }
+                    stack.push(node);
+                }
+            }
+        }
+        return descendants;
+    }
+
+    public void clear() {
+        this.children.clear();
+        this.keys.clear();
+    }
+
+}
@@ -1,12 +1,22 @@
 package no.hyp.domains;
 
+import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.UUID;
 
 /**
  * A chunk partitioned into columns, where each column is separately claimed by a domain.
+ *
+ * The claims are stored with a palette, like the block states of a Minecraft chunk
+ * section. The palette holds the distinct domain keys in the chunk, and each column
+ * holds an index into the palette packed into 1, 2, 4 or 8 bits. A chunk partitioned
+ * between a few domains only takes a few longs instead of an array of 256 references.
+ * Only a chunk with a different domain in every column needs 16 bits per column.
  */
-public final class PartitionedChunk {
+public final class PartitionedChunk implements ClaimedChunk {
+
+    private static final int COLUMNS = 16 * 16;
 
     private final UUID worldUuid;
 
@@ -15,50 +25,252 @@ public final class PartitionedChunk {
     private final int chunkZ;
 
     /**
-     * An array representing the 16 * 16 grid of columns in a chunk.
-     * Each column can belong to a different domain.
+     * The distinct domain keys in the chunk. A null entry stands for unclaimed columns.
+     * Entries after paletteSize are unused.
+     */
+    private Key[] palette;
+
+    private int paletteSize;
+
+    /**
+     * The number of bits of each palette index, a divisor of 64 so that no index
+     * spans two longs.
      */
-    private final Key[] claims;
+    private int bits;
+
+    /**
+     * The palette index of each column, packed into longs.
+     */
+    private long[] indices;
 
     public PartitionedChunk(UUID worldUuid, int chunkX, int chunkZ, Key[] claims) throws IllegalArgumentException {
-        this.worldUuid = worldUuid;
-        this.chunkX = chunkX;
-        this.chunkZ = chunkZ;
-        if (claims.length != 16 * 16) {
+        this(worldUuid, chunkX, chunkZ);
+        if (claims.length != COLUMNS) {
             throw new IllegalArgumentException("claims array must have a length of 16 * 16.");
         }
-        this.claims = claims;
+        int column = 0;
+        while (column < COLUMNS) {
+            if (claims[column] != null) {
+                this.setColumnKey(column, claims[column]);
+            }
+            column++;
+        }
     }
 
     public PartitionedChunk(UUID worldUuid, int chunkX, int chunkZ) {
-        this(worldUuid, chunkX, chunkZ, new Key[16 * 16]);
+        this.worldUuid = worldUuid;
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.palette = new Key[2];
+        this.paletteSize = 1;
+        this.bits = 1;
+        this.indices = new long[COLUMNS / 64];
     }
 
+    /**
+     * Create a chunk from its packed representation, as returned by {@link #getPalette()},
+     * {@link #getBitsPerColumn()} and {@link #getPackedIndices()}.
+     */
+    public PartitionedChunk(UUID worldUuid, int chunkX, int chunkZ, Key[] palette, int bits, long[] indices) throws IllegalArgumentException {
+        if (bits != 1 && bits != 2 && bits != 4 && bits != 8 && bits != 16) {
+            throw new IllegalArgumentException("bits must be 1, 2, 4, 8 or 16.");
+        }
+        if (palette.length == 0 || palette.length > 1 << bits) {
+            throw new IllegalArgumentException("palette must have between 1 and 2^bits entries.");
+        }
+        if (indices.length != COLUMNS * bits / 64) {
+            throw new IllegalArgumentException("indices must have a length of 256 * bits / 64.");
+        }
+        this.worldUuid = worldUuid;
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.palette = Arrays.copyOf(palette, 1 << bits);
+        this.paletteSize = palette.length;
+        this.bits = bits;
+        this.indices = indices;
+        int column = 0;
+        while (column < COLUMNS) {
+            if (this.getIndex(column) >= this.paletteSize) {
+                throw new IllegalArgumentException("indices must refer to entries in the palette.");
+            }
+            column++;
+        }
+    }
+
+    @Override
     public UUID getWorldUuid() {
         return this.worldUuid;
     }
 
+    @Override
     public int getChunkX() {
         return this.chunkX;
     }
 
+    @Override
     public int getChunkZ() {
         return this.chunkZ;
     }
 
+    @Override
+    public ChunkType getType() {
+        return ChunkType.PARTITIONED;
+    }
+
+    /**
+     * Get the claim of every column, by column number. The array is a copy, so
+     * changing it does not change the chunk.
+     */
     public Key[] getClaims() {
-        return this.claims;
+        Key[] claims = new Key[COLUMNS];
+        int column = 0;
+        while (column < COLUMNS) {
+            claims[column] = this.palette[this.getIndex(column)];
+            column++;
+        }
+        return claims;
     }
 
     public Optional<Key> getDomainKey(int i, int k) throws IllegalArgumentException {
         if (i < 0 || i >= 16 || k < 0 || k >= 16) {
             throw new IllegalArgumentException("i and k must have values between 0 and 15.");
         }
-        return Optional.ofNullable(this.claims[PartitionedChunk.columnNumber(i, k)]);
+        return Optional.ofNullable(this.getColumnKey(i, k));
+    }
+
+    @Override
+    public @Nullable Key getColumnKey(int i, int k) {
+        return this.palette[this.getIndex(PartitionedChunk.columnNumber(i, k))];
     }
 
-    public void setDomainKey(int i, int k, Key domainKey) {
-        this.claims[PartitionedChunk.columnNumber(i, k)] = domainKey;
+    /**
+     * Claim a column for a domain, or unclaim it if the domain key is null.
+     */
+    public void setDomainKey(int i, int k, @Nullable Key domainKey) {
+        this.setColumnKey(PartitionedChunk.columnNumber(i, k), domainKey);
+    }
+
+    /**
+     * Whether no column in this chunk is claimed.
+     */
+    public boolean isEmpty() {
+        int column = 0;
+        while (column < COLUMNS) {
+            if (this.palette[this.getIndex(column)] != null) {
+                return false;
+            }
+            column++;
+        }
+        return true;
+    }
+
+    /**
+     * Whether every column of this chunk is claimed by the same domain as in another chunk.
+     */
+    public boolean hasSameClaims(PartitionedChunk other) {
+        int column = 0;
+        while (column < COLUMNS) {
+            if (this.palette[this.getIndex(column)] != other.palette[other.getIndex(column)]) {
+                return false;
+            }
+            column++;
+        }
+        return true;
+    }
+
+    /**
+     * Get the palette, which may contain entries that are no longer used.
+     */
+    public Key[] getPalette() {
+        return Arrays.copyOf(this.palette, this.paletteSize);
+    }
+
+    public int getBitsPerColumn() {
+        return this.bits;
+    }
+
+    /**
+     * Get the palette index of every column, packed into longs with the lowest
+     * column number in the lowest bits.
+     */
+    public long[] getPackedIndices() {
+        return this.indices.clone();
+    }
+
+    /**
+     * Create a copy of this chunk that can be modified independently.
+     */
+    public PartitionedChunk copy() {
+        return new PartitionedChunk(this.worldUuid, this.chunkX, this.chunkZ, this.getPalette(), this.bits, this.indices.clone());
+    }
+
+    private int getIndex(int column) {
+        int bit = column * this.bits;
+        return (int) (this.indices[bit >>> 6] >>> (bit & 63)) & ((1 << this.bits) - 1);
+    }
+
+    private void setIndex(int column, int index) {
+        int bit = column * this.bits;
+        long mask = ((1L << this.bits) - 1) << (bit & 63);
+        this.indices[bit >>> 6] = (this.indices[bit >>> 6] & ~mask) | ((long) index << (bit & 63));
+    }
+
+    private void setColumnKey(int column, @Nullable Key domainKey) {
+        this.setIndex(column, this.paletteIndex(domainKey));
+    }
+
+    /**
+     * Find the palette index of a key, adding it to the palette if it is missing.
+     */
+    private int paletteIndex(@Nullable Key domainKey) {
+        int index = 0;
+        while (index < this.paletteSize) {
+            if (this.palette[index] == domainKey) {
+                return index;
+            }
+            index++;
+        }
+        if (this.paletteSize == this.palette.length) {
+            // Drop unused entries before growing, since there are at most 256 used entries.
+            this.repack(this.bits);
+            if (this.paletteSize == this.palette.length) {
+                this.repack(this.bits * 2);
+            }
+        }
+        this.palette[this.paletteSize] = domainKey;
+        return this.paletteSize++;
+    }
+
+    /**
+     * Rebuild the palette with only the used entries, and pack the indices with a
+     * new number of bits.
+     */
+    private void repack(int bits) {
+        Key[] palette = new Key[1 << bits];
+        int paletteSize = 0;
+        long[] indices = new long[COLUMNS * bits / 64];
+        int[] remap = new int[this.paletteSize];
+        Arrays.fill(remap, -1);
+        int[] columns = new int[COLUMNS];
+        int column = 0;
+        while (column < COLUMNS) {
+            int index = this.getIndex(column);
+            if (remap[index] < 0) {
+                palette[paletteSize] = this.palette[index];
+                remap[index] = paletteSize++;
+            }
+            columns[column] = remap[index];
+            column++;
+        }
+        this.palette = palette;
+        this.paletteSize = paletteSize;
+        this.bits = bits;
+        this.indices = indices;
+        column = 0;
+        while (column < COLUMNS) {
+            this.setIndex(column, columns[column]);
+            column++;
+        }
     }
 
     public static int columnNumber(int i, int k) {
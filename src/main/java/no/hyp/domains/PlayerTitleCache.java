@@ -0,0 +1,68 @@
+package no.hyp.domains;
+
+import no.hyp.domains.persistence.IndexedRepository;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+
+/**
+ * Keeps the titles of the online players resident in an {@link IndexedRepository},
+ * so that their privileges are checked on the server thread without loading titles.
+ *
+ * The titles of a player are fetched in the background when they join, and evicted
+ * when they quit, so that the resident titles scale with the online players rather
+ * than with every player that has been checked.
+ */
+public class PlayerTitleCache implements Listener {
+
+    private final DomainsPlugin plugin;
+
+    private final IndexedRepository repository;
+
+    public PlayerTitleCache(DomainsPlugin plugin, IndexedRepository repository) {
+        this.plugin = plugin;
+        this.repository = repository;
+    }
+
+    /**
+     * Fetch the titles of every player that is already online, such as after a reload.
+     */
+    public void fetchOnlinePlayers() {
+        for (Player player : this.plugin.getServer().getOnlinePlayers()) {
+            this.fetchPlayer(player.getUniqueId());
+        }
+    }
+
+    /**
+     * Fetch the titles of a player in the background, unless they are resident or
+     * being fetched, such as an online player whose fetch failed or was discarded.
+     */
+    public void fetchPlayer(UUID playerUuid) {
+        BukkitScheduler scheduler = this.plugin.getServer().getScheduler();
+        Executor executor = runnable -> scheduler.runTaskAsynchronously(this.plugin, runnable);
+        Executor serverExecutor = runnable -> scheduler.runTask(this.plugin, runnable);
+        this.repository.fetchPlayer(playerUuid, executor, serverExecutor).exceptionally(e -> {
+            this.plugin.getLogger().log(Level.SEVERE, "Could not fetch the titles of a player.", e);
+            return null;
+        });
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        this.fetchPlayer(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        this.repository.evictPlayer(event.getPlayer().getUniqueId());
+    }
+
+}
@@ -36,6 +36,30 @@ public enum Privilegium {
     /**
      * Can grant and revoke titles in a domain, except for the administrator title.
      */
-    WEAK_ADMINISTRATE,
+    WEAK_ADMINISTRATE;
+
+    /**
+     * The bit of this privilege in a privilege mask.
+     */
+    private final int mask;
+
+    Privilegium() {
+        this.mask = 1 << this.ordinal();
+    }
+
+    public int getMask() {
+        return this.mask;
+    }
+
+    /**
+     * Combine privileges into a mask.
+     */
+    public static int mask(Privilegium... privileges) {
+        int mask = 0;
+        for (Privilegium privilege : privileges) {
+            mask |= privilege.mask;
+        }
+        return mask;
+    }
 
 }
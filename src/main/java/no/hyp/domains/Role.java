@@ -60,14 +60,28 @@ public enum Role {
 
     private final Privilegium[] privileges;
 
+    /**
+     * The privileges of this role as a mask of {@link Privilegium#getMask()} bits.
+     */
+    private final int mask;
+
     Role(Privilegium... privileges) {
         this.privileges = privileges;
+        this.mask = Privilegium.mask(privileges);
     }
 
     public Privilegium[] getPrivileges() {
         return privileges;
     }
 
+    public int getMask() {
+        return this.mask;
+    }
+
+    public boolean hasPrivilege(Privilegium privilege) {
+        return (this.mask & privilege.getMask()) != 0;
+    }
+
 
 
 }
@@ -1,6 +1,5 @@
 package no.hyp.domains;
 
-import java.util.Arrays;
 import java.util.UUID;
 
 public final class Title {
@@ -47,7 +46,7 @@ public final class Title {
     }
 
     public boolean hasPrivilege(Privilegium privilege) {
-        return Arrays.stream(this.getPrivileges()).anyMatch(x -> x == privilege);
+        return this.role.hasPrivilege(privilege);
     }
 
 }
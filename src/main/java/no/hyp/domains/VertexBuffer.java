@@ -0,0 +1,57 @@
+package no.hyp.domains;
+
+import java.util.Arrays;
+
+/**
+ * A growable buffer of vertex coordinates, packed as x, y, z triples in a float array.
+ *
+ * A buffer is reused between border calculations, so appending vertices does not
+ * allocate once the buffer has grown to fit the largest border.
+ */
+public final class VertexBuffer {
+
+    private float[] coordinates;
+
+    /**
+     * The number of coordinates in use, three per vertex.
+     */
+    private int position;
+
+    public VertexBuffer() {
+        this(1024);
+    }
+
+    public VertexBuffer(int initialVertices) {
+        this.coordinates = new float[initialVertices * 3];
+        this.position = 0;
+    }
+
+    public void append(float x, float y, float z) {
+        if (this.position + 3 > this.coordinates.length) {
+            this.coordinates = Arrays.copyOf(this.coordinates, Math.max(this.coordinates.length * 2, 3));
+        }
+        this.coordinates[this.position] = x;
+        this.coordinates[this.position + 1] = y;
+        this.coordinates[this.position + 2] = z;
+        this.position += 3;
+    }
+
+    /**
+     * The number of vertices in the buffer.
+     */
+    public int size() {
+        return this.position / 3;
+    }
+
+    public void clear() {
+        this.position = 0;
+    }
+
+    /**
+     * Copy the vertices into an array of exactly the used length.
+     */
+    public float[] toArray() {
+        return Arrays.copyOf(this.coordinates, this.position);
+    }
+
+}
@@ -0,0 +1,104 @@
+package no.hyp.domains;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A map from chunks in any world to values, made of a {@link ChunkMap} per world.
+ *
+ * Clearing the map keeps the tables of each world, so a map that is refilled every
+ * tick with roughly the same chunks does not allocate.
+ *
+ * This map is not thread safe.
+ */
+public final class WorldChunkMap<V> {
+
+    private final Map<UUID, ChunkMap<V>> worlds;
+
+    public WorldChunkMap() {
+        this.worlds = new HashMap<>();
+    }
+
+    public @Nullable V get(UUID worldUuid, int chunkX, int chunkZ) {
+        ChunkMap<V> chunks = this.worlds.get(worldUuid);
+        if (chunks == null) {
+            return null;
+        }
+        return chunks.get(chunkX, chunkZ);
+    }
+
+    public boolean containsKey(UUID worldUuid, int chunkX, int chunkZ) {
+        ChunkMap<V> chunks = this.worlds.get(worldUuid);
+        return chunks != null && chunks.containsKey(ChunkMap.key(chunkX, chunkZ));
+    }
+
+    public @Nullable V put(UUID worldUuid, int chunkX, int chunkZ, V value) {
+        return this.worlds.computeIfAbsent(worldUuid, x -> new ChunkMap<>()).put(chunkX, chunkZ, value);
+    }
+
+    public @Nullable V remove(UUID worldUuid, int chunkX, int chunkZ) {
+        ChunkMap<V> chunks = this.worlds.get(worldUuid);
+        if (chunks == null) {
+            return null;
+        }
+        return chunks.remove(chunkX, chunkZ);
+    }
+
+    /**
+     * Remove every entry whose chunk is not a key in the other map.
+     */
+    public void retainAll(WorldChunkMap<?> other) {
+        for (Map.Entry<UUID, ChunkMap<V>> world : this.worlds.entrySet()) {
+            ChunkMap<?> otherChunks = other.worlds.get(world.getKey());
+            if (otherChunks == null) {
+                world.getValue().clear();
+            } else {
+                world.getValue().retainAll(otherChunks);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (ChunkMap<V> chunks : this.worlds.values()) {
+            size += chunks.size();
+        }
+        return size;
+    }
+
+    /**
+     * Remove all entries, keeping the table of each world.
+     */
+    public void clear() {
+        for (ChunkMap<V> chunks : this.worlds.values()) {
+            chunks.clear();
+        }
+    }
+
+    /**
+     * The worlds that have a table in this map. A world may have an empty table.
+     */
+    public Set<UUID> getWorldUuids() {
+        return this.worlds.keySet();
+    }
+
+    /**
+     * Get the chunks of a world.
+     *
+     * @return The chunks, or null if the world has no table in this map.
+     */
+    public @Nullable ChunkMap<V> getWorld(UUID worldUuid) {
+        return this.worlds.get(worldUuid);
+    }
+
+    /**
+     * Drop the table of a world, for example when the world is unloaded.
+     */
+    public void removeWorld(UUID worldUuid) {
+        this.worlds.remove(worldUuid);
+    }
+
+}
@@ -0,0 +1,93 @@
+package no.hyp.domains.persistence;
+
+import no.hyp.domains.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Changes to the claims of many chunks, such as a region annexed by a single command,
+ * that are saved together in one transaction.
+ *
+ * Each chunk is either saved with its new claims, replacing its previous claims, or
+ * deleted. A chunk must only be changed once in a batch.
+ */
+public final class ChunkBatch {
+
+    private final List<ClaimedChunk> saved;
+
+    private final List<Position> deleted;
+
+    public ChunkBatch() {
+        this.saved = new ArrayList<>();
+        this.deleted = new ArrayList<>();
+    }
+
+    /**
+     * A chunk deleted by the batch.
+     */
+    public static final class Position {
+
+        private final UUID worldUuid;
+
+        private final int chunkX;
+
+        private final int chunkZ;
+
+        private Position(UUID worldUuid, int chunkX, int chunkZ) {
+            this.worldUuid = worldUuid;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+
+        public UUID getWorldUuid() {
+            return this.worldUuid;
+        }
+
+        public int getChunkX() {
+            return this.chunkX;
+        }
+
+        public int getChunkZ() {
+            return this.chunkZ;
+        }
+
+    }
+
+    /**
+     * Save a chunk. Partitioned chunks are mutable, so a copy of their current state is saved.
+     */
+    public void save(ClaimedChunk chunk) {
+        if (chunk instanceof PartitionedChunk) {
+            this.saved.add(((PartitionedChunk) chunk).copy());
+        } else {
+            this.saved.add(chunk);
+        }
+    }
+
+    public void delete(UUID worldUuid, int chunkX, int chunkZ) {
+        this.deleted.add(new Position(worldUuid, chunkX, chunkZ));
+    }
+
+    public List<ClaimedChunk> getSaved() {
+        return Collections.unmodifiableList(this.saved);
+    }
+
+    public List<Position> getDeleted() {
+        return Collections.unmodifiableList(this.deleted);
+    }
+
+    /**
+     * The number of chunks changed by the batch.
+     */
+    public int size() {
+        return this.saved.size() + this.deleted.size();
+    }
+
+    public boolean isEmpty() {
+        return this.saved.isEmpty() && this.deleted.isEmpty();
+    }
+
+}
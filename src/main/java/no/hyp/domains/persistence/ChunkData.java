@@ -0,0 +1,17 @@
+package no.hyp.domains.persistence;
+
+public class ChunkData {
+
+    final String worldUuid;
+
+    final int chunkX;
+
+    final int chunkZ;
+
+    public ChunkData(String worldUuid, int chunkX, int chunkZ) {
+        this.worldUuid = worldUuid;
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+    }
+
+}
@@ -0,0 +1,14 @@
+package no.hyp.domains.persistence;
+
+import java.util.UUID;
+
+/**
+ * Notified when the claims in a rectangle of chunks have been saved or deleted. A
+ * single changed chunk is a rectangle where the minimum and maximum are equal.
+ */
+@FunctionalInterface
+public interface ClaimListener {
+
+    void onClaimChanged(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ);
+
+}
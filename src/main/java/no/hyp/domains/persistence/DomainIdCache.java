@@ -0,0 +1,109 @@
+package no.hyp.domains.persistence;
+
+import no.hyp.domains.Key;
+
+import javax.annotation.Nullable;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The ids of the rows of domains in the Domain table, shared by the repositories on the
+ * connections to one database, so that the palettes of partitioned chunks are resolved
+ * without a query per entry.
+ *
+ * Ids are never reused and saving a domain keeps its id, so a cached id stays valid
+ * until its domain is deleted, and an id without a domain never gets one. Deleting a
+ * domain must invalidate it after the delete is committed. A lookup made while a
+ * domain was deleted is not cached, since it may have read the domain before the delete.
+ */
+public final class DomainIdCache {
+
+    private final Map<Key, Integer> ids;
+
+    /**
+     * The keys of the ids, or empty if the domain of an id has been deleted.
+     */
+    private final Map<Integer, Optional<Key>> keys;
+
+    /**
+     * The number of domains invalidated so far. Guarded by this.
+     */
+    private long invalidations;
+
+    public DomainIdCache() {
+        this.ids = new HashMap<>();
+        this.keys = new HashMap<>();
+        this.invalidations = 0;
+    }
+
+    /**
+     * Get a view that resolves the domains through the cache, and through the Domain
+     * table of a database if they are not cached. Domains without a row are not cached.
+     */
+    public PartitionedChunkBlob.DomainIds through(SqlDatabase database) {
+        return new PartitionedChunkBlob.DomainIds() {
+            @Override
+            public int getDomainId(Key domainKey) throws SQLException {
+                long invalidations;
+                synchronized (DomainIdCache.this) {
+                    Integer domainId = DomainIdCache.this.ids.get(domainKey);
+                    if (domainId != null) {
+                        return domainId;
+                    }
+                    invalidations = DomainIdCache.this.invalidations;
+                }
+                int domainId = database.selectDomainId(domainKey.toString());
+                if (domainId >= 0) {
+                    DomainIdCache.this.put(domainKey, domainId, invalidations);
+                }
+                return domainId;
+            }
+
+            @Override
+            public @Nullable Key getDomainKey(int domainId) throws SQLException {
+                long invalidations;
+                synchronized (DomainIdCache.this) {
+                    Optional<Key> domainKey = DomainIdCache.this.keys.get(domainId);
+                    if (domainKey != null) {
+                        return domainKey.orElse(null);
+                    }
+                    invalidations = DomainIdCache.this.invalidations;
+                }
+                String domainKeyString = database.selectDomainKey(domainId);
+                if (domainKeyString == null) {
+                    synchronized (DomainIdCache.this) {
+                        DomainIdCache.this.keys.put(domainId, Optional.empty());
+                    }
+                    return null;
+                }
+                Key domainKey = Key.of(domainKeyString);
+                DomainIdCache.this.put(domainKey, domainId, invalidations);
+                return domainKey;
+            }
+        };
+    }
+
+    /**
+     * Cache the id of a domain, unless a domain has been invalidated since it was read.
+     */
+    private synchronized void put(Key domainKey, int domainId, long invalidations) {
+        if (this.invalidations == invalidations) {
+            this.ids.put(domainKey, domainId);
+            this.keys.put(domainId, Optional.of(domainKey));
+        }
+    }
+
+    /**
+     * Forget the id of a deleted domain.
+     */
+    public synchronized void invalidate(Key domainKey) {
+        Integer domainId = this.ids.remove(domainKey);
+        if (domainId != null) {
+            this.keys.put(domainId, Optional.empty());
+        }
+        this.invalidations++;
+    }
+
+}
@@ -0,0 +1,12 @@
+package no.hyp.domains.persistence;
+
+public class ExclusiveChunkData extends ChunkData {
+
+    final String domainKey;
+
+    public ExclusiveChunkData(String worldUuid, int chunkX, int chunkZ, String domainKey) {
+        super(worldUuid, chunkX, chunkZ);
+        this.domainKey = domainKey;
+    }
+
+}
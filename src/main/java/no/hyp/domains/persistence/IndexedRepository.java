@@ -0,0 +1,555 @@
+package no.hyp.domains.persistence;
+
+import no.hyp.domains.*;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A repository keeping every domain and claimed chunk resident in a {@link ClaimIndex}.
+ * The titles of the domains are loaded on demand through the underlying repository,
+ * so that startup and memory do not scale with the number of titles. The titles of a
+ * player are made resident with {@link #fetchPlayer}, such as when the player joins,
+ * and evicted with {@link #evictPlayer}, so that privilege checks never load titles.
+ *
+ * The index is loaded when the repository is created and is updated whenever a domain
+ * or chunk is saved or deleted through this repository. Domain and claim lookups are
+ * answered from the index without accessing the underlying repository.
+ *
+ * Alternatively only the claims of chunks fetched with {@link #fetchChunks} are kept
+ * resident until they are evicted, so that memory scales with the loaded chunks
+ * rather than with every claim. Loading other chunks then reads the underlying
+ * repository, but {@link #getDomain} only answers from the index.
+ *
+ * The repository must only be used from the server thread.
+ */
+public class IndexedRepository implements Repository {
+
+    private final Repository repository;
+
+    private final ClaimIndex index;
+
+    private final List<ClaimListener> claimListeners;
+
+    /**
+     * Whether every claimed chunk is resident, or only the fetched chunks.
+     */
+    private final boolean allChunks;
+
+    /**
+     * The fetched chunks whose claims are resident, including unclaimed chunks.
+     */
+    private final WorldChunkMap<Boolean> residentChunks;
+
+    /**
+     * The chunks being fetched, with the fetch that will make them resident.
+     */
+    private final WorldChunkMap<Object> fetchingChunks;
+
+    /**
+     * The players whose titles are resident, with the domains of their loaded titles.
+     */
+    private final Map<UUID, List<Key>> residentPlayers;
+
+    /**
+     * The players whose titles are being fetched, with the fetch that will make them resident.
+     */
+    private final Map<UUID, Object> fetchingPlayers;
+
+    public IndexedRepository(Repository repository) throws RepositoryException {
+        this(repository, true);
+    }
+
+    /**
+     * @param allChunks Whether to keep every claimed chunk resident, or only the
+     *                  chunks fetched with {@link #fetchChunks}.
+     */
+    public IndexedRepository(Repository repository, boolean allChunks) throws RepositoryException {
+        this.repository = repository;
+        this.index = new ClaimIndex();
+        this.claimListeners = new ArrayList<>();
+        this.allChunks = allChunks;
+        this.residentChunks = new WorldChunkMap<>();
+        this.fetchingChunks = new WorldChunkMap<>();
+        this.residentPlayers = new HashMap<>();
+        this.fetchingPlayers = new HashMap<>();
+        this.reload();
+    }
+
+    /**
+     * Register a listener notified whenever the claims in a chunk are saved or deleted.
+     */
+    public void addClaimListener(ClaimListener listener) {
+        this.claimListeners.add(listener);
+    }
+
+    private void fireClaimChanged(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        for (ClaimListener listener : this.claimListeners) {
+            listener.onClaimChanged(worldUuid, minChunkX, minChunkZ, maxChunkX, maxChunkZ);
+        }
+    }
+
+    /**
+     * Discard the index and load it again from the underlying repository.
+     */
+    public void reload() throws RepositoryException {
+        Collection<Domain> domains = this.repository.loadDomains(this.repository);
+        Collection<ClaimedChunk> chunks = this.allChunks ? this.repository.loadChunks() : Collections.emptyList();
+        this.index.clear();
+        this.residentChunks.clear();
+        this.fetchingChunks.clear();
+        this.residentPlayers.clear();
+        this.fetchingPlayers.clear();
+        this.index.putDomains(domains);
+        for (ClaimedChunk chunk : chunks) {
+            this.index.putChunk(chunk);
+        }
+    }
+
+    /**
+     * Whether the claims of a chunk are resident in the index.
+     */
+    public boolean isResident(UUID worldUuid, int chunkX, int chunkZ) {
+        return this.allChunks || this.residentChunks.containsKey(worldUuid, chunkX, chunkZ);
+    }
+
+    /**
+     * Load the claims of chunks into the index in the background, unless they are
+     * resident or being fetched. A chunk saved or deleted while it is fetched becomes
+     * resident with the saved claims, and the fetched claims are discarded. The claim
+     * listeners are notified of the fetched claims, since borders drawn before they
+     * were resident are missing them.
+     *
+     * @param executor The executor loading the claims from the underlying repository.
+     * @param serverExecutor The executor running tasks on the server thread, where the
+     *                       claims are put into the index.
+     * @return A future completed on the server thread once the claims are resident.
+     */
+    public CompletableFuture<Void> fetchChunks(UUID worldUuid, Collection<Long> chunkKeys, Executor executor, Executor serverExecutor) {
+        if (this.allChunks) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Object fetch = new Object();
+        List<Long> fetched = new ArrayList<>();
+        for (long chunkKey : chunkKeys) {
+            int chunkX = ChunkMap.chunkX(chunkKey);
+            int chunkZ = ChunkMap.chunkZ(chunkKey);
+            if (!this.residentChunks.containsKey(worldUuid, chunkX, chunkZ) && !this.fetchingChunks.containsKey(worldUuid, chunkX, chunkZ)) {
+                this.fetchingChunks.put(worldUuid, chunkX, chunkZ, fetch);
+                fetched.add(chunkKey);
+            }
+        }
+        if (fetched.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            List<ClaimedChunk> chunks = new ArrayList<>();
+            try {
+                for (long chunkKey : fetched) {
+                    this.repository.loadChunk(worldUuid, ChunkMap.chunkX(chunkKey), ChunkMap.chunkZ(chunkKey)).ifPresent(chunks::add);
+                }
+            } catch (RepositoryException e) {
+                throw new CompletionException(e);
+            }
+            return chunks;
+        }, executor).handleAsync((chunks, error) -> {
+            Map<UUID, int[]> bounds = new HashMap<>();
+            ChunkMap<ClaimedChunk> claims = new ChunkMap<>();
+            if (chunks != null) {
+                for (ClaimedChunk chunk : chunks) {
+                    claims.put(chunk.getChunkX(), chunk.getChunkZ(), chunk);
+                }
+            }
+            for (long chunkKey : fetched) {
+                int chunkX = ChunkMap.chunkX(chunkKey);
+                int chunkZ = ChunkMap.chunkZ(chunkKey);
+                // Skip chunks that have been saved, deleted or evicted during the fetch.
+                if (this.fetchingChunks.get(worldUuid, chunkX, chunkZ) == fetch) {
+                    this.fetchingChunks.remove(worldUuid, chunkX, chunkZ);
+                    if (error == null) {
+                        ClaimedChunk chunk = claims.get(chunkKey);
+                        if (chunk != null) {
+                            this.index.putChunk(chunk);
+                            IndexedRepository.extendBounds(bounds, worldUuid, chunkX, chunkZ);
+                        }
+                        this.residentChunks.put(worldUuid, chunkX, chunkZ, true);
+                    }
+                }
+            }
+            int[] b = bounds.get(worldUuid);
+            if (b != null) {
+                this.fireClaimChanged(worldUuid, b[0], b[1], b[2], b[3]);
+            }
+            if (error != null) {
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+            return null;
+        }, serverExecutor);
+    }
+
+    /**
+     * Drop the claims of a fetched chunk from the index.
+     */
+    public void evictChunk(UUID worldUuid, int chunkX, int chunkZ) {
+        if (this.allChunks) {
+            return;
+        }
+        this.residentChunks.remove(worldUuid, chunkX, chunkZ);
+        this.fetchingChunks.remove(worldUuid, chunkX, chunkZ);
+        this.index.removeChunk(worldUuid, chunkX, chunkZ);
+    }
+
+    /**
+     * Drop the claims of every fetched chunk in a world from the index.
+     */
+    public void evictWorld(UUID worldUuid) {
+        if (this.allChunks) {
+            return;
+        }
+        this.residentChunks.removeWorld(worldUuid);
+        this.fetchingChunks.removeWorld(worldUuid);
+        this.index.removeWorld(worldUuid);
+    }
+
+    /**
+     * Whether the titles of a player are resident in every domain, so that their
+     * privileges are checked without loading titles.
+     */
+    public boolean isPlayerResident(UUID playerUuid) {
+        return this.residentPlayers.containsKey(playerUuid);
+    }
+
+    /**
+     * Load every title of a player into the domains in the background with a single
+     * read, unless they are resident or being fetched. A fetch during which a title
+     * in a domain with titles loaded on demand is saved is discarded, since the
+     * loaded titles may be older than the saved title, and must be repeated.
+     *
+     * @param executor The executor loading the titles from the underlying repository.
+     * @param serverExecutor The executor running tasks on the server thread, where the
+     *                       titles are put into the domains.
+     * @return A future completed on the server thread once the fetch has finished.
+     */
+    public CompletableFuture<Void> fetchPlayer(UUID playerUuid, Executor executor, Executor serverExecutor) {
+        if (this.residentPlayers.containsKey(playerUuid) || this.fetchingPlayers.containsKey(playerUuid)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Object fetch = new Object();
+        this.fetchingPlayers.put(playerUuid, fetch);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.repository.loadPlayerTitles(playerUuid);
+            } catch (RepositoryException e) {
+                throw new CompletionException(e);
+            }
+        }, executor).handleAsync((titles, error) -> {
+            // Skip a fetch that has been discarded or evicted.
+            if (this.fetchingPlayers.get(playerUuid) == fetch) {
+                this.fetchingPlayers.remove(playerUuid);
+                if (error == null) {
+                    List<Key> domainKeys = new ArrayList<>();
+                    for (Title title : titles) {
+                        Domain domain = this.index.getDomain(title.getDomainKey());
+                        if (domain != null) {
+                            domain.putLoadedTitle(title);
+                            domainKeys.add(title.getDomainKey());
+                        }
+                    }
+                    this.residentPlayers.put(playerUuid, domainKeys);
+                }
+            }
+            if (error != null) {
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+            return null;
+        }, serverExecutor);
+    }
+
+    /**
+     * Drop the loaded titles of a player from the domains, such as when the player quits.
+     */
+    public void evictPlayer(UUID playerUuid) {
+        this.fetchingPlayers.remove(playerUuid);
+        List<Key> domainKeys = this.residentPlayers.remove(playerUuid);
+        if (domainKeys != null) {
+            for (Key domainKey : domainKeys) {
+                Domain domain = this.index.getDomain(domainKey);
+                if (domain != null) {
+                    domain.evictTitle(playerUuid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Put a saved chunk into the index if its claims are resident. A chunk that is
+     * being fetched becomes resident with the saved claims.
+     */
+    private void putChunk(ClaimedChunk chunk) {
+        UUID worldUuid = chunk.getWorldUuid();
+        int chunkX = chunk.getChunkX();
+        int chunkZ = chunk.getChunkZ();
+        if (!this.allChunks && !this.residentChunks.containsKey(worldUuid, chunkX, chunkZ)) {
+            if (this.fetchingChunks.remove(worldUuid, chunkX, chunkZ) == null) {
+                return;
+            }
+            this.residentChunks.put(worldUuid, chunkX, chunkZ, true);
+        }
+        this.index.putChunk(chunk);
+    }
+
+    /**
+     * Get the resident claims of a chunk, without accessing the underlying repository.
+     *
+     * @return The claims, or null if the chunk is unclaimed or not resident.
+     */
+    public @Nullable ClaimedChunk getResidentChunk(UUID worldUuid, int chunkX, int chunkZ) {
+        return this.isResident(worldUuid, chunkX, chunkZ) ? this.index.getChunk(worldUuid, chunkX, chunkZ) : null;
+    }
+
+    private void removeChunk(UUID worldUuid, int chunkX, int chunkZ) {
+        if (!this.allChunks && this.fetchingChunks.remove(worldUuid, chunkX, chunkZ) != null) {
+            this.residentChunks.put(worldUuid, chunkX, chunkZ, true);
+        }
+        this.index.removeChunk(worldUuid, chunkX, chunkZ);
+    }
+
+    public ClaimIndex getIndex() {
+        return this.index;
+    }
+
+    @Override
+    public Optional<Domain> loadDomain(Key domainKey) throws RepositoryException {
+        return Optional.ofNullable(this.index.getDomain(domainKey));
+    }
+
+    @Override
+    public Collection<Domain> loadDomains() throws RepositoryException {
+        return this.repository.loadDomains();
+    }
+
+    @Override
+    public Collection<Domain> loadDomains(TitleLoader titleLoader) throws RepositoryException {
+        return this.repository.loadDomains(titleLoader);
+    }
+
+    @Override
+    public void saveDomain(Domain domain, @Nullable Map<UUID, Title> titleChanges) throws RepositoryException {
+        this.repository.saveDomain(domain, titleChanges);
+        this.index.putDomain(domain);
+        // Discard the fetches that may have loaded the titles from before the save.
+        if (!domain.hasAllTitles()) {
+            if (titleChanges == null) {
+                this.fetchingPlayers.clear();
+            } else {
+                this.fetchingPlayers.keySet().removeAll(titleChanges.keySet());
+            }
+        }
+    }
+
+    @Override
+    public void deleteDomain(Key domainKey) throws RepositoryException {
+        this.repository.deleteDomain(domainKey);
+        this.index.removeDomain(domainKey);
+    }
+
+    @Override
+    public ChunkType loadChunkType(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        if (!this.isResident(worldUuid, chunkX, chunkZ)) {
+            return this.repository.loadChunkType(worldUuid, chunkX, chunkZ);
+        }
+        return this.index.getChunkType(worldUuid, chunkX, chunkZ);
+    }
+
+    @Override
+    public Optional<ExclusiveChunk> loadExclusiveChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        if (!this.isResident(worldUuid, chunkX, chunkZ)) {
+            return this.repository.loadExclusiveChunk(worldUuid, chunkX, chunkZ);
+        }
+        ClaimedChunk chunk = this.index.getChunk(worldUuid, chunkX, chunkZ);
+        if (chunk instanceof ExclusiveChunk) {
+            return Optional.of((ExclusiveChunk) chunk);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * A chunk whose resident claims are unchanged is not written.
+     */
+    @Override
+    public void saveExclusiveChunk(ExclusiveChunk chunk) throws RepositoryException {
+        ClaimedChunk previous = this.getResidentChunk(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ());
+        if (previous instanceof ExclusiveChunk && ((ExclusiveChunk) previous).getDomainKey() == chunk.getDomainKey()) {
+            return;
+        }
+        this.repository.saveExclusiveChunk(chunk);
+        this.putChunk(chunk);
+        this.fireClaimChanged(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ(), chunk.getChunkX(), chunk.getChunkZ());
+    }
+
+    /**
+     * Partitioned chunks are mutable, so a copy of the indexed chunk is returned.
+     */
+    @Override
+    public Optional<PartitionedChunk> loadPartitionedChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        if (!this.isResident(worldUuid, chunkX, chunkZ)) {
+            return this.repository.loadPartitionedChunk(worldUuid, chunkX, chunkZ);
+        }
+        ClaimedChunk chunk = this.index.getChunk(worldUuid, chunkX, chunkZ);
+        if (chunk instanceof PartitionedChunk) {
+            return Optional.of(((PartitionedChunk) chunk).copy());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * A chunk whose resident claims are unchanged is not written.
+     */
+    @Override
+    public void savePartitionedChunk(PartitionedChunk chunk) throws RepositoryException {
+        ClaimedChunk previous = this.getResidentChunk(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ());
+        if (previous instanceof PartitionedChunk && ((PartitionedChunk) previous).hasSameClaims(chunk)) {
+            return;
+        }
+        this.repository.savePartitionedChunk(chunk);
+        this.putChunk(chunk.copy());
+        this.fireClaimChanged(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ(), chunk.getChunkX(), chunk.getChunkZ());
+    }
+
+    /**
+     * Partitioned chunks are mutable, so a copy of the indexed chunk is returned.
+     */
+    @Override
+    public Optional<ClaimedChunk> loadChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        if (!this.isResident(worldUuid, chunkX, chunkZ)) {
+            return this.repository.loadChunk(worldUuid, chunkX, chunkZ);
+        }
+        ClaimedChunk chunk = this.index.getChunk(worldUuid, chunkX, chunkZ);
+        if (chunk instanceof PartitionedChunk) {
+            return Optional.of(((PartitionedChunk) chunk).copy());
+        }
+        return Optional.ofNullable(chunk);
+    }
+
+    @Override
+    public void deleteChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        this.repository.deleteChunk(worldUuid, chunkX, chunkZ);
+        this.removeChunk(worldUuid, chunkX, chunkZ);
+        this.fireClaimChanged(worldUuid, chunkX, chunkZ, chunkX, chunkZ);
+    }
+
+    /**
+     * Save the batch, update the index and notify the listeners once per world with
+     * the rectangle bounding the changed chunks.
+     */
+    @Override
+    public void saveChunks(ChunkBatch batch) throws RepositoryException {
+        this.repository.saveChunks(batch);
+        // The bounds of the changed chunks in each world, as min x, min z, max x and max z.
+        Map<UUID, int[]> bounds = new HashMap<>();
+        for (ClaimedChunk chunk : batch.getSaved()) {
+            if (chunk instanceof PartitionedChunk) {
+                this.putChunk(((PartitionedChunk) chunk).copy());
+            } else {
+                this.putChunk(chunk);
+            }
+            IndexedRepository.extendBounds(bounds, chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ());
+        }
+        for (ChunkBatch.Position position : batch.getDeleted()) {
+            this.removeChunk(position.getWorldUuid(), position.getChunkX(), position.getChunkZ());
+            IndexedRepository.extendBounds(bounds, position.getWorldUuid(), position.getChunkX(), position.getChunkZ());
+        }
+        for (Map.Entry<UUID, int[]> entry : bounds.entrySet()) {
+            int[] b = entry.getValue();
+            this.fireClaimChanged(entry.getKey(), b[0], b[1], b[2], b[3]);
+        }
+    }
+
+    private static void extendBounds(Map<UUID, int[]> bounds, UUID worldUuid, int chunkX, int chunkZ) {
+        int[] b = bounds.get(worldUuid);
+        if (b == null) {
+            bounds.put(worldUuid, new int[] { chunkX, chunkZ, chunkX, chunkZ });
+        } else {
+            b[0] = Math.min(b[0], chunkX);
+            b[1] = Math.min(b[1], chunkZ);
+            b[2] = Math.max(b[2], chunkX);
+            b[3] = Math.max(b[3], chunkZ);
+        }
+    }
+
+    @Override
+    public Collection<ClaimedChunk> loadChunks() throws RepositoryException {
+        return this.repository.loadChunks();
+    }
+
+    /**
+     * Partitioned chunks are mutable, so copies of the indexed chunks are returned.
+     */
+    @Override
+    public Collection<ClaimedChunk> loadChunks(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) throws RepositoryException {
+        if (!this.allChunks) {
+            return this.repository.loadChunks(worldUuid, minChunkX, minChunkZ, maxChunkX, maxChunkZ);
+        }
+        Collection<ClaimedChunk> chunks = new ArrayList<>();
+        for (ClaimedChunk chunk : this.index.getChunks(worldUuid, minChunkX, minChunkZ, maxChunkX, maxChunkZ)) {
+            if (chunk instanceof PartitionedChunk) {
+                chunks.add(((PartitionedChunk) chunk).copy());
+            } else {
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    @Override
+    public Collection<Title> loadPlayerTitles(UUID playerUuid) throws RepositoryException {
+        return this.repository.loadPlayerTitles(playerUuid);
+    }
+
+    @Override
+    public Collection<Title> loadDomainTitles(Key domainKey) throws RepositoryException {
+        return this.repository.loadDomainTitles(domainKey);
+    }
+
+    /**
+     * Answer from the index if every title of the domain or of the player is resident.
+     */
+    @Override
+    public Optional<Title> loadTitle(Key domainKey, UUID playerUuid) throws RepositoryException {
+        Domain domain = this.index.getDomain(domainKey);
+        if (domain != null && (domain.hasAllTitles() || this.residentPlayers.containsKey(playerUuid))) {
+            return Optional.ofNullable(domain.getTitles().get(playerUuid));
+        }
+        return this.repository.loadTitle(domainKey, playerUuid);
+    }
+
+    @Override
+    public List<Title> loadDomainTitles(Key domainKey, int offset, int limit) throws RepositoryException {
+        return this.repository.loadDomainTitles(domainKey, offset, limit);
+    }
+
+    /**
+     * Resolve the domain owning a column from the index, without database access or
+     * allocation. The claims of a chunk that is not resident are not read, since that
+     * would block the server thread, so its columns resolve to no domain. Callers must
+     * check {@link #isResident} and fetch the chunk with {@link #fetchChunks}.
+     */
+    @Override
+    public @Nullable Domain getDomain(UUID worldUuid, int x, int z) {
+        return this.index.getDomain(worldUuid, x, z);
+    }
+
+    @Override
+    public void flush() throws RepositoryException {
+        this.repository.flush();
+    }
+
+    @Override
+    public void close() throws RepositoryException {
+        this.repository.close();
+    }
+
+}
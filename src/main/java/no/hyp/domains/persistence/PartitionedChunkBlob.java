@@ -0,0 +1,222 @@
+package no.hyp.domains.persistence;
+
+import no.hyp.domains.Key;
+import no.hyp.domains.PartitionedChunk;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Encodes the claims of a partitioned chunk as a single BLOB.
+ *
+ * The BLOB is the palette representation of {@link PartitionedChunk}: a format byte,
+ * the bits per column, the palette and the packed palette indices. Region files hold
+ * the palette as domain key strings where an empty string is unclaimed. The database
+ * holds it as the ids of the rows in the Domain table where 0 is unclaimed, so that a
+ * palette entry is 4 bytes and a deleted domain leaves its columns unclaimed.
+ */
+public final class PartitionedChunkBlob {
+
+    private static final int FORMAT_KEYS = 1;
+
+    private static final int FORMAT_IDS = 2;
+
+    /**
+     * The id of an unclaimed palette entry. The ids of domains start at 1.
+     */
+    public static final int UNCLAIMED = 0;
+
+    /**
+     * Resolves the domains of a palette to and from the ids of their rows.
+     */
+    public interface DomainIds {
+
+        /**
+         * @return The id, or -1 if the domain has no row.
+         */
+        int getDomainId(Key domainKey) throws SQLException;
+
+        /**
+         * @return The key, or null if there is no domain with the id.
+         */
+        @Nullable Key getDomainKey(int domainId) throws SQLException;
+
+        /**
+         * Get a view that remembers the domains it has resolved, for decoding many
+         * chunks in one read. Domains deleted after they are resolved are not seen.
+         */
+        default DomainIds cached() {
+            DomainIds domainIds = this;
+            Map<Key, Integer> ids = new HashMap<>();
+            Map<Integer, Optional<Key>> keys = new HashMap<>();
+            return new DomainIds() {
+                @Override
+                public int getDomainId(Key domainKey) throws SQLException {
+                    Integer domainId = ids.get(domainKey);
+                    if (domainId == null) {
+                        domainId = domainIds.getDomainId(domainKey);
+                        ids.put(domainKey, domainId);
+                    }
+                    return domainId;
+                }
+
+                @Override
+                public @Nullable Key getDomainKey(int domainId) throws SQLException {
+                    Optional<Key> domainKey = keys.get(domainId);
+                    if (domainKey == null) {
+                        domainKey = Optional.ofNullable(domainIds.getDomainKey(domainId));
+                        keys.put(domainId, domainKey);
+                    }
+                    return domainKey.orElse(null);
+                }
+            };
+        }
+
+        /**
+         * Resolve the domains through the Domain table of a database.
+         */
+        static DomainIds of(SqlDatabase database) {
+            return new DomainIds() {
+                @Override
+                public int getDomainId(Key domainKey) throws SQLException {
+                    return database.selectDomainId(domainKey.toString());
+                }
+
+                @Override
+                public @Nullable Key getDomainKey(int domainId) throws SQLException {
+                    String domainKey = database.selectDomainKey(domainId);
+                    return domainKey != null ? Key.of(domainKey) : null;
+                }
+            };
+        }
+
+    }
+
+    private PartitionedChunkBlob() {
+    }
+
+    /**
+     * Encode the chunk with the palette as domain keys.
+     */
+    public static byte[] encode(PartitionedChunk chunk) {
+        Key[] palette = chunk.getPalette();
+        long[] indices = chunk.getPackedIndices();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + palette.length * 16 + indices.length * 8);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(FORMAT_KEYS);
+            output.writeByte(chunk.getBitsPerColumn());
+            output.writeShort(palette.length);
+            for (Key domainKey : palette) {
+                output.writeUTF(domainKey != null ? domainKey.toString() : "");
+            }
+            for (long packed : indices) {
+                output.writeLong(packed);
+            }
+        } catch (IOException e) {
+            // Writing to a byte array does not fail.
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode the chunk with the palette as domain ids.
+     *
+     * @throws SQLException If a domain in the palette has no row, so that its claims
+     *                      are not silently dropped.
+     */
+    public static byte[] encode(PartitionedChunk chunk, DomainIds domainIds) throws SQLException {
+        Key[] palette = chunk.getPalette();
+        long[] indices = chunk.getPackedIndices();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + palette.length * 4 + indices.length * 8);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(FORMAT_IDS);
+            output.writeByte(chunk.getBitsPerColumn());
+            output.writeShort(palette.length);
+            for (Key domainKey : palette) {
+                int domainId = domainKey != null ? domainIds.getDomainId(domainKey) : UNCLAIMED;
+                if (domainId < 0) {
+                    throw new SQLException(String.format("Domain %s claimed in chunk %d, %d has not been saved.", domainKey, chunk.getChunkX(), chunk.getChunkZ()));
+                }
+                output.writeInt(domainId);
+            }
+            for (long packed : indices) {
+                output.writeLong(packed);
+            }
+        } catch (IOException e) {
+            // Writing to a byte array does not fail.
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a chunk with the palette as domain keys.
+     *
+     * @throws IllegalArgumentException If the BLOB is malformed.
+     */
+    public static PartitionedChunk decode(UUID worldUuid, int chunkX, int chunkZ, byte[] blob) throws IllegalArgumentException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(blob))) {
+            int bits = PartitionedChunkBlob.readHeader(input, FORMAT_KEYS);
+            Key[] palette = new Key[input.readUnsignedShort()];
+            int n = 0;
+            while (n < palette.length) {
+                String domainKey = input.readUTF();
+                palette[n] = domainKey.isEmpty() ? null : Key.of(domainKey);
+                n++;
+            }
+            return new PartitionedChunk(worldUuid, chunkX, chunkZ, palette, bits, PartitionedChunkBlob.readIndices(input, bits));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated partitioned chunk.", e);
+        }
+    }
+
+    /**
+     * Decode a chunk with the palette as domain ids. An id without a domain is
+     * decoded as unclaimed.
+     *
+     * @throws IllegalArgumentException If the BLOB is malformed.
+     */
+    public static PartitionedChunk decode(UUID worldUuid, int chunkX, int chunkZ, byte[] blob, DomainIds domainIds) throws IllegalArgumentException, SQLException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(blob))) {
+            int bits = PartitionedChunkBlob.readHeader(input, FORMAT_IDS);
+            Key[] palette = new Key[input.readUnsignedShort()];
+            int n = 0;
+            while (n < palette.length) {
+                int domainId = input.readInt();
+                palette[n] = domainId != UNCLAIMED ? domainIds.getDomainKey(domainId) : null;
+                n++;
+            }
+            return new PartitionedChunk(worldUuid, chunkX, chunkZ, palette, bits, PartitionedChunkBlob.readIndices(input, bits));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated partitioned chunk.", e);
+        }
+    }
+
+    /**
+     * Read the format and the bits per column.
+     */
+    private static int readHeader(DataInputStream input, int expectedFormat) throws IOException {
+        int format = input.readUnsignedByte();
+        if (format != expectedFormat) {
+            throw new IllegalArgumentException(String.format("Unknown partitioned chunk format: %d.", format));
+        }
+        return input.readUnsignedByte();
+    }
+
+    private static long[] readIndices(DataInputStream input, int bits) throws IOException {
+        long[] indices = new long[16 * 16 * bits / 64];
+        int n = 0;
+        while (n < indices.length) {
+            indices[n] = input.readLong();
+            n++;
+        }
+        return indices;
+    }
+
+}
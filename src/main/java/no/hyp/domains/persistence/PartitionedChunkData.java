@@ -0,0 +1,15 @@
+package no.hyp.domains.persistence;
+
+public class PartitionedChunkData extends ChunkData {
+
+    /**
+     * The claims encoded by {@link PartitionedChunkBlob}.
+     */
+    final byte[] claims;
+
+    public PartitionedChunkData(String worldUuid, int chunkX, int chunkZ, byte[] claims) {
+        super(worldUuid, chunkX, chunkZ);
+        this.claims = claims;
+    }
+
+}
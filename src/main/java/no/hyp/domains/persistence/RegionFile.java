@@ -0,0 +1,318 @@
+package no.hyp.domains.persistence;
+
+import no.hyp.domains.*;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A file holding the claims of a region of 32 by 32 chunks, laid out like the
+ * Anvil region files of Minecraft.
+ *
+ * The file is divided into sectors of 4 KiB. The first sector is a header with an
+ * int per chunk, holding the first sector of the chunk in the upper 24 bits and
+ * its number of sectors in the lower 8 bits, or 0 if the chunk is unclaimed. A
+ * chunk starts with the length of its payload, followed by a type byte and the
+ * domain key of an exclusive chunk or the {@link PartitionedChunkBlob} of a
+ * partitioned chunk.
+ *
+ * Reads go through a memory mapping of the file. A changed chunk is written to
+ * free sectors before its header entry is pointed at them, so an interrupted
+ * write leaves the previous claims in place. Writes go through the channel and are
+ * seen through the shared mapping. The file is extended by many sectors at a time,
+ * so it is only mapped again when a chunk is written past its end.
+ */
+public final class RegionFile implements AutoCloseable {
+
+    public static final int CHUNKS = 32;
+
+    private static final int SECTOR_BYTES = 4096;
+
+    private static final int MAX_SECTORS = 255;
+
+    /**
+     * The number of free sectors the file is extended by when a chunk is written past
+     * its end. The sectors are not written, so they take no space on file systems
+     * with sparse files.
+     */
+    private static final int GROW_SECTORS = 256;
+
+    private static final byte EXCLUSIVE = 1;
+
+    private static final byte PARTITIONED = 2;
+
+    private final UUID worldUuid;
+
+    private final int regionX;
+
+    private final int regionZ;
+
+    private final FileChannel channel;
+
+    /**
+     * The header entry of every chunk.
+     */
+    private final int[] header;
+
+    /**
+     * The sectors that are in use, including the header.
+     */
+    private final BitSet sectors;
+
+    /**
+     * The number of sectors in the file. The file is always a whole number of sectors.
+     */
+    private int fileSectors;
+
+    /**
+     * A read-only mapping of the file, or null if the file has grown since it was mapped.
+     */
+    private @Nullable MappedByteBuffer mapping;
+
+    private RegionFile(UUID worldUuid, int regionX, int regionZ, FileChannel channel) {
+        this.worldUuid = worldUuid;
+        this.regionX = regionX;
+        this.regionZ = regionZ;
+        this.channel = channel;
+        this.header = new int[CHUNKS * CHUNKS];
+        this.sectors = new BitSet();
+    }
+
+    /**
+     * Open a region file, creating it if it does not exist.
+     *
+     * @throws IOException If the file cannot be opened or its header is corrupt.
+     */
+    public static RegionFile open(Path path, UUID worldUuid, int regionX, int regionZ) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RegionFile region = new RegionFile(worldUuid, regionX, regionZ, channel);
+        try {
+            region.readHeader(path);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return region;
+    }
+
+    private void readHeader(Path path) throws IOException {
+        if (this.channel.size() < SECTOR_BYTES) {
+            this.channel.write(ByteBuffer.allocate(SECTOR_BYTES), 0);
+        }
+        this.sectors.set(0);
+        long fileSectors = (this.channel.size() + SECTOR_BYTES - 1) / SECTOR_BYTES;
+        // Pad a partial last sector, so that the mapping covers every sector.
+        this.extend(fileSectors);
+        ByteBuffer mapping = this.map();
+        int index = 0;
+        while (index < this.header.length) {
+            int entry = mapping.getInt(index * 4);
+            if (entry != 0) {
+                int offset = entry >>> 8;
+                int count = entry & 0xFF;
+                if (offset == 0 || offset + count > fileSectors) {
+                    throw new IOException(String.format("Corrupt header entry %d in region file %s.", index, path));
+                }
+                this.sectors.set(offset, offset + count);
+            }
+            this.header[index] = entry;
+            index++;
+        }
+    }
+
+    /**
+     * Extend the file to a number of sectors by writing its last byte, and discard the
+     * mapping so that the file is mapped again with the new sectors.
+     */
+    private void extend(long sectors) throws IOException {
+        if (sectors > Integer.MAX_VALUE / SECTOR_BYTES) {
+            throw new IOException(String.format("Region file %d, %d is too large.", this.regionX, this.regionZ));
+        }
+        long size = sectors * SECTOR_BYTES;
+        if (this.channel.size() < size) {
+            this.channel.write(ByteBuffer.allocate(1), size - 1);
+            this.mapping = null;
+        }
+        this.fileSectors = (int) sectors;
+    }
+
+    private ByteBuffer map() throws IOException {
+        if (this.mapping == null) {
+            this.mapping = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+        }
+        return this.mapping;
+    }
+
+    private static int index(int chunkX, int chunkZ) {
+        return (chunkX & (CHUNKS - 1)) + (chunkZ & (CHUNKS - 1)) * CHUNKS;
+    }
+
+    /**
+     * Read the payload of a chunk, starting with its type byte.
+     *
+     * @return The payload, or null if the chunk is unclaimed.
+     */
+    private @Nullable byte[] readPayload(int index) throws IOException {
+        int entry = this.header[index];
+        if (entry == 0) {
+            return null;
+        }
+        ByteBuffer mapping = this.map();
+        int position = (entry >>> 8) * SECTOR_BYTES;
+        int length = position + 4 <= mapping.capacity() ? mapping.getInt(position) : -1;
+        if (length <= 0 || length > (entry & 0xFF) * SECTOR_BYTES - 4 || position + 4 + length > mapping.capacity()) {
+            throw new IOException(String.format("Corrupt chunk %d in region %d, %d.", index, this.regionX, this.regionZ));
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer view = mapping.duplicate();
+        view.position(position + 4);
+        view.get(payload);
+        return payload;
+    }
+
+    public synchronized ChunkType readType(int chunkX, int chunkZ) throws IOException {
+        byte[] payload = this.readPayload(RegionFile.index(chunkX, chunkZ));
+        if (payload == null) {
+            return ChunkType.UNCLAIMED;
+        }
+        return payload[0] == EXCLUSIVE ? ChunkType.EXCLUSIVE : ChunkType.PARTITIONED;
+    }
+
+    /**
+     * @return The claims of a chunk, or null if the chunk is unclaimed.
+     * @throws IOException If the chunk cannot be read.
+     * @throws IllegalArgumentException If the chunk is malformed.
+     */
+    public synchronized @Nullable ClaimedChunk read(int chunkX, int chunkZ) throws IOException, IllegalArgumentException {
+        byte[] payload = this.readPayload(RegionFile.index(chunkX, chunkZ));
+        if (payload == null) {
+            return null;
+        }
+        return this.decode(chunkX, chunkZ, payload);
+    }
+
+    /**
+     * Read every claimed chunk in the region.
+     */
+    public synchronized List<ClaimedChunk> readAll() throws IOException, IllegalArgumentException {
+        List<ClaimedChunk> chunks = new ArrayList<>();
+        int index = 0;
+        while (index < this.header.length) {
+            byte[] payload = this.readPayload(index);
+            if (payload != null) {
+                int chunkX = this.regionX * CHUNKS + index % CHUNKS;
+                int chunkZ = this.regionZ * CHUNKS + index / CHUNKS;
+                chunks.add(this.decode(chunkX, chunkZ, payload));
+            }
+            index++;
+        }
+        return chunks;
+    }
+
+    private ClaimedChunk decode(int chunkX, int chunkZ, byte[] payload) throws IOException, IllegalArgumentException {
+        if (payload[0] == EXCLUSIVE) {
+            try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1))) {
+                return new ExclusiveChunk(this.worldUuid, chunkX, chunkZ, Key.of(input.readUTF()));
+            }
+        } else if (payload[0] == PARTITIONED) {
+            byte[] blob = new byte[payload.length - 1];
+            System.arraycopy(payload, 1, blob, 0, blob.length);
+            return PartitionedChunkBlob.decode(this.worldUuid, chunkX, chunkZ, blob);
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown chunk type: %d.", payload[0]));
+        }
+    }
+
+    public synchronized void write(ClaimedChunk chunk) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            // Reserve the length, which is filled in below.
+            output.writeInt(0);
+            if (chunk instanceof ExclusiveChunk) {
+                output.writeByte(EXCLUSIVE);
+                output.writeUTF(((ExclusiveChunk) chunk).getDomainKey().toString());
+            } else if (chunk instanceof PartitionedChunk) {
+                output.writeByte(PARTITIONED);
+                output.write(PartitionedChunkBlob.encode((PartitionedChunk) chunk));
+            } else {
+                throw new IllegalArgumentException("Unknown chunk class.");
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        buffer.putInt(0, buffer.remaining() - 4);
+        int count = (buffer.remaining() + SECTOR_BYTES - 1) / SECTOR_BYTES;
+        if (count > MAX_SECTORS) {
+            throw new IOException(String.format("Chunk %d, %d is too large for a region file.", chunk.getChunkX(), chunk.getChunkZ()));
+        }
+        // Write into free sectors while the previous sectors are still in use.
+        int offset = this.allocate(count);
+        if (offset + count > this.fileSectors) {
+            this.extend((long) offset + count + GROW_SECTORS);
+        }
+        long end = (long) offset * SECTOR_BYTES + buffer.remaining();
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer, end - buffer.remaining());
+        }
+        this.sectors.set(offset, offset + count);
+        this.setEntry(RegionFile.index(chunk.getChunkX(), chunk.getChunkZ()), offset << 8 | count);
+    }
+
+    public synchronized void delete(int chunkX, int chunkZ) throws IOException {
+        int index = RegionFile.index(chunkX, chunkZ);
+        if (this.header[index] != 0) {
+            this.setEntry(index, 0);
+        }
+    }
+
+    /**
+     * Point the header entry of a chunk at new sectors and free the previous sectors.
+     */
+    private void setEntry(int index, int entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(0, entry);
+        this.channel.write(buffer, index * 4L);
+        int previous = this.header[index];
+        if (previous != 0) {
+            this.sectors.clear(previous >>> 8, (previous >>> 8) + (previous & 0xFF));
+        }
+        this.header[index] = entry;
+    }
+
+    /**
+     * Find the first run of free sectors of a length, which is at the end of the file
+     * if there is no such gap.
+     */
+    private int allocate(int count) {
+        int start = this.sectors.nextClearBit(1);
+        while (true) {
+            int used = this.sectors.nextSetBit(start);
+            if (used < 0 || used - start >= count) {
+                return start;
+            }
+            start = this.sectors.nextClearBit(used);
+        }
+    }
+
+    /**
+     * Force the written chunks to the storage device.
+     */
+    public synchronized void force() throws IOException {
+        this.channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.mapping = null;
+        this.channel.close();
+    }
+
+}
@@ -0,0 +1,341 @@
+package no.hyp.domains.persistence;
+
+import no.hyp.domains.*;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A repository storing claimed chunks in region files of 32 by 32 chunks, with a
+ * directory per world, while domains and titles are stored by another repository.
+ *
+ * A world with many claims is read a region at a time from memory mapped files
+ * instead of a row at a time from a database.
+ */
+public class RegionFileRepository implements Repository {
+
+    private static final Pattern REGION_FILE = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.claims");
+
+    /**
+     * The repository storing domains and titles.
+     */
+    private final Repository repository;
+
+    private final Path directory;
+
+    /**
+     * The open region files, by world and region coordinates.
+     */
+    private final WorldChunkMap<RegionFile> regions;
+
+    public RegionFileRepository(Repository repository, Path directory) {
+        this.repository = repository;
+        this.directory = directory;
+        this.regions = new WorldChunkMap<>();
+    }
+
+    private Path regionPath(UUID worldUuid, int regionX, int regionZ) {
+        return this.directory.resolve(worldUuid.toString()).resolve(String.format("r.%d.%d.claims", regionX, regionZ));
+    }
+
+    /**
+     * Get the region file containing a chunk.
+     *
+     * @param create Whether to create the file if it does not exist.
+     * @return The region file, or null if it does not exist and is not created.
+     */
+    private synchronized @Nullable RegionFile getRegion(UUID worldUuid, int chunkX, int chunkZ, boolean create) throws IOException {
+        int regionX = Math.floorDiv(chunkX, RegionFile.CHUNKS);
+        int regionZ = Math.floorDiv(chunkZ, RegionFile.CHUNKS);
+        RegionFile region = this.regions.get(worldUuid, regionX, regionZ);
+        if (region == null) {
+            Path path = this.regionPath(worldUuid, regionX, regionZ);
+            if (!create && !Files.exists(path)) {
+                return null;
+            }
+            Files.createDirectories(path.getParent());
+            region = RegionFile.open(path, worldUuid, regionX, regionZ);
+            this.regions.put(worldUuid, regionX, regionZ, region);
+        }
+        return region;
+    }
+
+    /**
+     * Open every region file in the directory.
+     */
+    private synchronized Collection<RegionFile> getRegions() throws IOException {
+        Collection<RegionFile> regions = new ArrayList<>();
+        if (!Files.isDirectory(this.directory)) {
+            return regions;
+        }
+        try (DirectoryStream<Path> worlds = Files.newDirectoryStream(this.directory, Files::isDirectory)) {
+            for (Path world : worlds) {
+                UUID worldUuid;
+                try {
+                    worldUuid = UUID.fromString(world.getFileName().toString());
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(world)) {
+                    for (Path file : files) {
+                        Matcher matcher = REGION_FILE.matcher(file.getFileName().toString());
+                        if (matcher.matches()) {
+                            int regionX = Integer.parseInt(matcher.group(1));
+                            int regionZ = Integer.parseInt(matcher.group(2));
+                            regions.add(this.getRegion(worldUuid, regionX * RegionFile.CHUNKS, regionZ * RegionFile.CHUNKS, true));
+                        }
+                    }
+                }
+            }
+        }
+        return regions;
+    }
+
+    @Override
+    public Optional<Domain> loadDomain(Key domainKey) throws RepositoryException {
+        return this.repository.loadDomain(domainKey);
+    }
+
+    @Override
+    public Collection<Domain> loadDomains() throws RepositoryException {
+        return this.repository.loadDomains();
+    }
+
+    @Override
+    public Collection<Domain> loadDomains(TitleLoader titleLoader) throws RepositoryException {
+        return this.repository.loadDomains(titleLoader);
+    }
+
+    @Override
+    public void saveDomain(Domain domain, @Nullable Map<UUID, Title> titleChanges) throws RepositoryException {
+        this.repository.saveDomain(domain, titleChanges);
+    }
+
+    /**
+     * Delete a domain and its exclusive chunks, like the database does when a domain
+     * is deleted. This reads every region file.
+     */
+    @Override
+    public void deleteDomain(Key domainKey) throws RepositoryException {
+        this.repository.deleteDomain(domainKey);
+        try {
+            for (RegionFile region : this.getRegions()) {
+                for (ClaimedChunk chunk : region.readAll()) {
+                    if (chunk instanceof ExclusiveChunk && ((ExclusiveChunk) chunk).getDomainKey() == domainKey) {
+                        region.delete(chunk.getChunkX(), chunk.getChunkZ());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("I/O error while deleting the chunks of a Domain.", e);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Invalid value loaded from region file.", e);
+        }
+    }
+
+    @Override
+    public ChunkType loadChunkType(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        try {
+            RegionFile region = this.getRegion(worldUuid, chunkX, chunkZ, false);
+            return region != null ? region.readType(chunkX, chunkZ) : ChunkType.UNCLAIMED;
+        } catch (IOException e) {
+            throw new RepositoryException("I/O error while loading a ChunkType.", e);
+        }
+    }
+
+    @Override
+    public Optional<ClaimedChunk> loadChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        try {
+            RegionFile region = this.getRegion(worldUuid, chunkX, chunkZ, false);
+            return region != null ? Optional.ofNullable(region.read(chunkX, chunkZ)) : Optional.empty();
+        } catch (IOException e) {
+            throw new RepositoryException("I/O error while loading a chunk.", e);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Invalid value loaded from region file.", e);
+        }
+    }
+
+    @Override
+    public Optional<ExclusiveChunk> loadExclusiveChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        return this.loadChunk(worldUuid, chunkX, chunkZ).filter(c -> c instanceof ExclusiveChunk).map(c -> (ExclusiveChunk) c);
+    }
+
+    @Override
+    public void saveExclusiveChunk(ExclusiveChunk chunk) throws RepositoryException {
+        this.saveChunk(chunk);
+    }
+
+    @Override
+    public Optional<PartitionedChunk> loadPartitionedChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        return this.loadChunk(worldUuid, chunkX, chunkZ).filter(c -> c instanceof PartitionedChunk).map(c -> (PartitionedChunk) c);
+    }
+
+    @Override
+    public void savePartitionedChunk(PartitionedChunk chunk) throws RepositoryException {
+        this.saveChunk(chunk);
+    }
+
+    private void saveChunk(ClaimedChunk chunk) throws RepositoryException {
+        try {
+            this.getRegion(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ(), true).write(chunk);
+        } catch (IOException e) {
+            throw new RepositoryException("I/O error while saving a chunk.", e);
+        }
+    }
+
+    @Override
+    public void deleteChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        try {
+            RegionFile region = this.getRegion(worldUuid, chunkX, chunkZ, false);
+            if (region != null) {
+                region.delete(chunkX, chunkZ);
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("I/O error while deleting a chunk.", e);
+        }
+    }
+
+    @Override
+    public Collection<ClaimedChunk> loadChunks() throws RepositoryException {
+        try {
+            Collection<ClaimedChunk> chunks = new ArrayList<>();
+            for (RegionFile region : this.getRegions()) {
+                chunks.addAll(region.readAll());
+            }
+            return chunks;
+        } catch (IOException e) {
+            throw new RepositoryException("I/O error while loading all chunks.", e);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Invalid value loaded from region file.", e);
+        }
+    }
+
+    /**
+     * Load the chunks from the region files overlapping the bounds.
+     */
+    @Override
+    public Collection<ClaimedChunk> loadChunks(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) throws RepositoryException {
+        try {
+            Collection<ClaimedChunk> chunks = new ArrayList<>();
+            int regionX = Math.floorDiv(minChunkX, RegionFile.CHUNKS);
+            while (regionX <= Math.floorDiv(maxChunkX, RegionFile.CHUNKS)) {
+                int regionZ = Math.floorDiv(minChunkZ, RegionFile.CHUNKS);
+                while (regionZ <= Math.floorDiv(maxChunkZ, RegionFile.CHUNKS)) {
+                    RegionFile region = this.getRegion(worldUuid, regionX * RegionFile.CHUNKS, regionZ * RegionFile.CHUNKS, false);
+                    if (region != null) {
+                        int chunkX = Math.max(minChunkX, regionX * RegionFile.CHUNKS);
+                        while (chunkX <= Math.min(maxChunkX, regionX * RegionFile.CHUNKS + RegionFile.CHUNKS - 1)) {
+                            int chunkZ = Math.max(minChunkZ, regionZ * RegionFile.CHUNKS);
+                            while (chunkZ <= Math.min(maxChunkZ, regionZ * RegionFile.CHUNKS + RegionFile.CHUNKS - 1)) {
+                                ClaimedChunk chunk = region.read(chunkX, chunkZ);
+                                if (chunk != null) {
+                                    chunks.add(chunk);
+                                }
+                                chunkZ++;
+                            }
+                            chunkX++;
+                        }
+                    }
+                    regionZ++;
+                }
+                regionX++;
+            }
+            return chunks;
+        } catch (IOException e) {
+            throw new RepositoryException("I/O error while loading chunks in a region.", e);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Invalid value loaded from region file.", e);
+        }
+    }
+
+    @Override
+    public Collection<Title> loadPlayerTitles(UUID playerUuid) throws RepositoryException {
+        return this.repository.loadPlayerTitles(playerUuid);
+    }
+
+    @Override
+    public Collection<Title> loadDomainTitles(Key domainKey) throws RepositoryException {
+        return this.repository.loadDomainTitles(domainKey);
+    }
+
+    @Override
+    public Optional<Title> loadTitle(Key domainKey, UUID playerUuid) throws RepositoryException {
+        return this.repository.loadTitle(domainKey, playerUuid);
+    }
+
+    @Override
+    public List<Title> loadDomainTitles(Key domainKey, int offset, int limit) throws RepositoryException {
+        return this.repository.loadDomainTitles(domainKey, offset, limit);
+    }
+
+    /**
+     * Get the region files that are open.
+     */
+    private synchronized List<RegionFile> getOpenRegions() {
+        List<RegionFile> open = new ArrayList<>();
+        for (UUID worldUuid : this.regions.getWorldUuids()) {
+            ChunkMap<RegionFile> regions = this.regions.getWorld(worldUuid);
+            int slot = 0;
+            while (slot < regions.capacity()) {
+                RegionFile region = regions.valueAt(slot);
+                if (region != null) {
+                    open.add(region);
+                }
+                slot++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Force the written chunks of every open region file to the storage device.
+     */
+    @Override
+    public void flush() throws RepositoryException {
+        this.repository.flush();
+        try {
+            for (RegionFile region : this.getOpenRegions()) {
+                region.force();
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("I/O error while flushing region files.", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws RepositoryException {
+        RepositoryException exception = null;
+        for (RegionFile region : this.getOpenRegions()) {
+            try {
+                region.force();
+                region.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = new RepositoryException("Error closing region files.", e);
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        this.regions.clear();
+        try {
+            this.repository.close();
+        } catch (RepositoryException e) {
+            if (exception == null) {
+                exception = e;
+            } else {
+                exception.addSuppressed(e);
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+}
@@ -2,15 +2,52 @@ package no.hyp.domains.persistence;
 
 import no.hyp.domains.*;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
-public interface Repository extends AutoCloseable {
+public interface Repository extends AutoCloseable, TitleLoader {
 
+    /**
+     * Load a domain. Its titles may be loaded on demand, see {@link Domain#hasAllTitles()}.
+     */
     Optional<Domain> loadDomain(Key domainKey) throws RepositoryException;
 
-    void saveDomain(Domain domain) throws RepositoryException;
+    /**
+     * Load every domain, including their titles.
+     */
+    Collection<Domain> loadDomains() throws RepositoryException;
+
+    /**
+     * Load every domain with its titles loaded on demand through a title loader, so
+     * that no title is loaded up front. Repositories that cannot load titles on demand
+     * load every title.
+     */
+    default Collection<Domain> loadDomains(TitleLoader titleLoader) throws RepositoryException {
+        return this.loadDomains();
+    }
+
+    /**
+     * Save a domain and the changes to its titles since it was last saved, as taken
+     * with {@link Domain#takeTitleChanges()}.
+     */
+    default void saveDomain(Domain domain) throws RepositoryException {
+        this.saveDomain(domain, domain.takeTitleChanges());
+    }
+
+    /**
+     * Save a domain and changes to its titles. Only the key, default role and display
+     * name of the domain are read, unless every title is written.
+     *
+     * @param titleChanges The new title of each changed player, or null for a removed
+     *                     title. If null, every title of the domain is written.
+     */
+    void saveDomain(Domain domain, @Nullable Map<UUID, Title> titleChanges) throws RepositoryException;
 
     void deleteDomain(Key domainKey) throws RepositoryException;
 
@@ -26,19 +63,117 @@ public interface Repository extends AutoCloseable {
 
     void deleteChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException;
 
-    Collection<Title> loadPlayerTitles(UUID playerUuid) throws RepositoryException;
-
-    Collection<Title> loadDomainTitles(Key domainKey) throws RepositoryException;
+    /**
+     * Save and delete the chunks of a batch. Repositories that can should write the
+     * whole batch in one transaction.
+     */
+    default void saveChunks(ChunkBatch batch) throws RepositoryException {
+        for (ClaimedChunk chunk : batch.getSaved()) {
+            if (chunk instanceof ExclusiveChunk) {
+                this.saveExclusiveChunk((ExclusiveChunk) chunk);
+            } else if (chunk instanceof PartitionedChunk) {
+                this.savePartitionedChunk((PartitionedChunk) chunk);
+            }
+        }
+        for (ChunkBatch.Position position : batch.getDeleted()) {
+            this.deleteChunk(position.getWorldUuid(), position.getChunkX(), position.getChunkZ());
+        }
+    }
 
-    default Domain getDomain(UUID worldUuid, int x, int z) throws RepositoryException {
-        int chunkX = x / 16;
-        int chunkZ = z / 16;
+    /**
+     * Load the claims of a chunk, whatever its type.
+     *
+     * @return The chunk, or empty if it is unclaimed.
+     */
+    default Optional<ClaimedChunk> loadChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
         ChunkType type = this.loadChunkType(worldUuid, chunkX, chunkZ);
         if (type == ChunkType.EXCLUSIVE) {
-            ExclusiveChunk chunk = this.loadExclusiveChunk(worldUuid, chunkX, chunkZ).;
+            return this.loadExclusiveChunk(worldUuid, chunkX, chunkZ).map(chunk -> chunk);
         } else if (type == ChunkType.PARTITIONED) {
-            PartitionedChunk chunk = this.loadPartitionedChunk(worldUuid, chunkX, chunkZ);
+            return this.loadPartitionedChunk(worldUuid, chunkX, chunkZ).map(chunk -> chunk);
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Load every claimed chunk in every world.
+     */
+    Collection<ClaimedChunk> loadChunks() throws RepositoryException;
+
+    /**
+     * Load every claimed chunk in a world within chunk bounds. The bounds are inclusive.
+     */
+    default Collection<ClaimedChunk> loadChunks(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) throws RepositoryException {
+        Collection<ClaimedChunk> chunks = new ArrayList<>();
+        int chunkX = minChunkX;
+        while (chunkX <= maxChunkX) {
+            int chunkZ = minChunkZ;
+            while (chunkZ <= maxChunkZ) {
+                ChunkType type = this.loadChunkType(worldUuid, chunkX, chunkZ);
+                if (type == ChunkType.EXCLUSIVE) {
+                    this.loadExclusiveChunk(worldUuid, chunkX, chunkZ).ifPresent(chunks::add);
+                } else if (type == ChunkType.PARTITIONED) {
+                    this.loadPartitionedChunk(worldUuid, chunkX, chunkZ).ifPresent(chunks::add);
+                }
+                chunkZ++;
+            }
+            chunkX++;
+        }
+        return chunks;
+    }
+
+    Collection<Title> loadPlayerTitles(UUID playerUuid) throws RepositoryException;
+
+    @Override
+    Collection<Title> loadDomainTitles(Key domainKey) throws RepositoryException;
+
+    @Override
+    default Optional<Title> loadTitle(Key domainKey, UUID playerUuid) throws RepositoryException {
+        for (Title title : this.loadDomainTitles(domainKey)) {
+            if (title.getPlayerUuid().equals(playerUuid)) {
+                return Optional.of(title);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Load a page of the titles of a domain. The titles are ordered by player, so that
+     * consecutive pages list every title once.
+     *
+     * @param offset The number of titles before the page.
+     * @param limit The maximum number of titles in the page.
+     */
+    default List<Title> loadDomainTitles(Key domainKey, int offset, int limit) throws RepositoryException {
+        List<Title> titles = new ArrayList<>(this.loadDomainTitles(domainKey));
+        titles.sort(Comparator.comparing(Title::getPlayerUuid));
+        int from = Math.min(offset, titles.size());
+        int to = (int) Math.min((long) offset + limit, titles.size());
+        return new ArrayList<>(titles.subList(from, to));
+    }
+
+    /**
+     * Wait until all writes made through this repository are persisted.
+     * Repositories that write synchronously have nothing to flush.
+     */
+    default void flush() throws RepositoryException {
+    }
+
+    @Override
+    void close() throws RepositoryException;
+
+    /**
+     * Get the domain owning the column at the given block coordinates.
+     *
+     * @return The domain, or null if the column is unclaimed.
+     */
+    default @Nullable Domain getDomain(UUID worldUuid, int x, int z) throws RepositoryException {
+        Key domainKey = this.loadChunk(worldUuid, x >> 4, z >> 4).map(c -> c.getColumnKey(x & 15, z & 15)).orElse(null);
+        if (domainKey == null) {
+            return null;
         }
+        return this.loadDomain(domainKey).orElse(null);
     }
 
 }
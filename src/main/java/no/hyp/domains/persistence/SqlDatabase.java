@@ -4,6 +4,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.List;
 
 public interface SqlDatabase extends AutoCloseable {
 
@@ -31,20 +32,62 @@ public interface SqlDatabase extends AutoCloseable {
 
     @Nullable DomainData selectDomain(String domainKey) throws SQLException;
 
+    Collection<DomainData> selectDomains() throws SQLException;
+
     void upsertDomain(String domainKey, String defaultRole, @Nullable String displayName) throws SQLException;
 
+    /**
+     * Delete a domain with its titles and exclusive claims.
+     */
     void deleteDomain(String domainKey) throws SQLException;
 
+    /**
+     * Get the id of the row of a domain, which the palettes of partitioned chunks
+     * refer to.
+     *
+     * @return The id, or -1 if the domain has no row.
+     */
+    int selectDomainId(String domainKey) throws SQLException;
+
+    /**
+     * Get the key of the domain with an id.
+     *
+     * @return The key, or null if there is no domain with the id.
+     */
+    @Nullable String selectDomainKey(int domainId) throws SQLException;
+
     @Nullable TitleData selectTitle(String domainKey, String playerUuid) throws SQLException;
 
     void upsertTitle(String domainKey,  String playerUuid, String role, String title) throws SQLException;
 
     void deleteTitle(String domainKey, String playerUuid) throws SQLException;
 
+    /**
+     * Insert or update many titles of a domain in a single batch.
+     */
+    void upsertTitles(String domainKey, Collection<TitleData> titles) throws SQLException;
+
+    /**
+     * Delete many titles of a domain in a single batch.
+     */
+    void deleteTitles(String domainKey, Collection<String> playerUuids) throws SQLException;
+
+    /**
+     * Delete every title of a domain.
+     */
+    void deleteDomainTitles(String domainKey) throws SQLException;
+
     Collection<TitleData> selectDomainTitles(String domainKey) throws SQLException;
 
+    /**
+     * Load a page of the titles of a domain, ordered by player.
+     */
+    List<TitleData> selectDomainTitles(String domainKey, int offset, int limit) throws SQLException;
+
     Collection<TitleData> selectPlayerTitles(String playerUuid) throws SQLException;
 
+    Collection<TitleData> selectTitles() throws SQLException;
+
     @Nullable String selectChunkType(String worldUuid, int chunkX, int chunkZ) throws SQLException;
 
     void upsertChunkType(String worldUuid, int chunkX, int chunkZ, String type) throws SQLException;
@@ -57,20 +100,56 @@ public interface SqlDatabase extends AutoCloseable {
 
     void deleteExclusiveChunk(String worldUuid, int chunkX, int chunkZ) throws SQLException;
 
-    String[] selectPartitionedChunk(String worldUuid, int chunkX, int chunkZ) throws SQLException;
+    Collection<ExclusiveChunkData> selectExclusiveChunks() throws SQLException;
 
-    @Nullable String selectPartitionedChunkColumn(String worldUuid, int chunkX, int chunkZ, int columnNumber) throws SQLException;
+    /**
+     * Select the exclusive chunks of a world within chunk bounds. The bounds are inclusive.
+     */
+    Collection<ExclusiveChunkData> selectExclusiveChunks(String worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) throws SQLException;
+
+    /**
+     * Select the claims of a partitioned chunk, encoded by {@link PartitionedChunkBlob}.
+     */
+    @Nullable byte[] selectPartitionedChunk(String worldUuid, int chunkX, int chunkZ) throws SQLException;
 
-    void upsertPartitionedChunkColumn(String worldUuid, int chunkX, int chunkZ, int columnNumber, String domainKey) throws SQLException;
+    /**
+     * Select the type and claims of a chunk with a single query.
+     *
+     * @return An {@link ExclusiveChunkData}, a {@link PartitionedChunkData} whose claims
+     * are null if no column is claimed, or null if the chunk is unclaimed.
+     */
+    @Nullable ChunkData selectChunk(String worldUuid, int chunkX, int chunkZ) throws SQLException;
 
-    void deletePartitionedChunkColumn(String worldUuid, int chunkX, int chunkZ, int columnNumber) throws SQLException;
+    void upsertPartitionedChunk(String worldUuid, int chunkX, int chunkZ, byte[] claims) throws SQLException;
 
     void deletePartitionedChunk(String worldUuid, int chunkX, int chunkZ) throws SQLException;
 
+    Collection<PartitionedChunkData> selectPartitionedChunks() throws SQLException;
+
+    /**
+     * Select the partitioned chunks of a world within chunk bounds. The bounds are inclusive.
+     */
+    Collection<PartitionedChunkData> selectPartitionedChunks(String worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) throws SQLException;
+
     default void deleteChunk(String worldUuid, int chunkX, int chunkZ) throws SQLException {
         this.deleteChunkType(worldUuid, chunkX, chunkZ);
         this.deleteExclusiveChunk(worldUuid, chunkX, chunkZ);
         this.deletePartitionedChunk(worldUuid, chunkX, chunkZ);
     }
 
+    /**
+     * Delete the type and claims of many chunks, as one batch per table.
+     */
+    void deleteChunks(Collection<? extends ChunkData> chunks) throws SQLException;
+
+    void deleteExclusiveChunks(Collection<? extends ChunkData> chunks) throws SQLException;
+
+    void deletePartitionedChunks(Collection<? extends ChunkData> chunks) throws SQLException;
+
+    void upsertChunkTypes(Collection<? extends ChunkData> chunks, String type) throws SQLException;
+
+    void upsertExclusiveChunks(Collection<ExclusiveChunkData> chunks) throws SQLException;
+
+    void upsertPartitionedChunks(Collection<PartitionedChunkData> chunks) throws SQLException;
+
 }
@@ -10,8 +10,26 @@ public class SqlRepository implements Repository {
 
     private final SqlDatabase database;
 
+    private final DomainIdCache domainIdCache;
+
+    /**
+     * Resolves the palettes of partitioned chunks, which refer to domains by id.
+     */
+    private final PartitionedChunkBlob.DomainIds domainIds;
+
     public SqlRepository(SqlDatabase database) {
+        this(database, new DomainIdCache());
+    }
+
+    /**
+     * @param domainIdCache The ids of the domains, shared with every other repository
+     *                      on a connection to the same database, so that domains
+     *                      deleted through one repository are not resolved by another.
+     */
+    public SqlRepository(SqlDatabase database, DomainIdCache domainIdCache) {
         this.database = database;
+        this.domainIdCache = domainIdCache;
+        this.domainIds = domainIdCache.through(database);
     }
 
     /**
@@ -30,6 +48,10 @@ public class SqlRepository implements Repository {
         }
     }
 
+    /**
+     * Load a domain whose titles are loaded on demand through this repository, so
+     * that loading a domain with many titles to check one player reads a single title.
+     */
     @Override
     public Optional<Domain> loadDomain(Key domainKey) throws RepositoryException {
         try {
@@ -40,19 +62,7 @@ public class SqlRepository implements Repository {
                 @Nullable String displayName = data.displayName;
                 String roleString = data.defaultRole;
                 Role defaultRole = Role.valueOf(roleString);
-                Map<UUID, Title> titles = new HashMap<>();
-                {
-                    Collection<TitleData> titlesData = database.selectDomainTitles(domainKey.toString());
-                    for (TitleData titleData : titlesData) {
-                            UUID playerUuid = UUID.fromString(titleData.playerUuid);
-                            Role role = Role.valueOf(titleData.role);
-                            String name = titleData.title;
-                            Title title = new Title(domainKey, playerUuid, name, role);
-                            titles.put(playerUuid, title);
-
-                    }
-                }
-                return Optional.of(new Domain(domainKey, defaultRole, Optional.ofNullable(displayName), titles));
+                return Optional.of(new Domain(domainKey, defaultRole, displayName, this));
             } else {
                 return Optional.empty();
             }
@@ -64,41 +74,104 @@ public class SqlRepository implements Repository {
     }
 
     @Override
-    public void saveDomain(Domain domain) throws RepositoryException {
+    public Collection<Domain> loadDomains() throws RepositoryException {
         try {
-            String domainKey = domain.getKey().toString();
-            String defaultRole = domain.getDefaultRole().name();
-            String displayName = domain.getDisplayName().orElse(null);
-            Map<UUID, Title> titles = domain.getTitles();
             this.database.transaction();
-            // Retrieve the saved titles, compare them and delete the titles that have been removed.
-            Collection<TitleData> storedTitles = this.database.selectDomainTitles(domainKey);
-            for (TitleData titleData : storedTitles) {
-                String playerUuid = titleData.playerUuid;
-                if (titles.keySet().stream().noneMatch(x -> x.toString().equalsIgnoreCase(playerUuid))) {
-                    this.database.deleteTitle(domainKey, playerUuid);
-                }
+            Collection<DomainData> domainsData = this.database.selectDomains();
+            Collection<TitleData> titlesData = this.database.selectTitles();
+            this.database.commit();
+            // Group the titles by domain.
+            Map<String, Map<UUID, Title>> titlesByDomain = new HashMap<>();
+            for (TitleData titleData : titlesData) {
+                Key domainKey = Key.of(titleData.domainKey);
+                UUID playerUuid = UUID.fromString(titleData.playerUuid);
+                Role role = Role.valueOf(titleData.role);
+                Title title = new Title(domainKey, playerUuid, titleData.title, role);
+                titlesByDomain.computeIfAbsent(titleData.domainKey, x -> new HashMap<>()).put(playerUuid, title);
             }
-            // Insert the titles into the database.
-            for (Map.Entry<UUID, Title> entry : titles.entrySet()) {
-                String playerUuid = entry.getKey().toString();
-                String roleString = entry.getValue().getRole().name();
-                String title = entry.getValue().getName();
-                this.database.upsertTitle(domainKey, playerUuid, roleString, title);
+            Collection<Domain> domains = new ArrayList<>();
+            for (DomainData data : domainsData) {
+                Key domainKey = Key.of(data.domainKey);
+                Role defaultRole = Role.valueOf(data.defaultRole);
+                Map<UUID, Title> titles = titlesByDomain.getOrDefault(data.domainKey, new HashMap<>());
+                Domain domain = new Domain(domainKey, defaultRole, data.displayName, titles);
+                domain.markTitlesSaved();
+                domains.add(domain);
+            }
+            return domains;
+        } catch (SQLException e) {
+            throw this.wrapSqlException("Persistence error while loading all Domains.", e);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Invalid value loaded from database.", e);
+        }
+    }
+
+    /**
+     * Load the domains without reading the Title table.
+     */
+    @Override
+    public Collection<Domain> loadDomains(TitleLoader titleLoader) throws RepositoryException {
+        try {
+            Collection<DomainData> domainsData = this.database.selectDomains();
+            Collection<Domain> domains = new ArrayList<>();
+            for (DomainData data : domainsData) {
+                Key domainKey = Key.of(data.domainKey);
+                Role defaultRole = Role.valueOf(data.defaultRole);
+                domains.add(new Domain(domainKey, defaultRole, data.displayName, titleLoader));
+            }
+            return domains;
+        } catch (SQLException e) {
+            throw this.wrapSqlException("Persistence error while loading all Domains.", e);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Invalid value loaded from database.", e);
+        }
+    }
+
+    /**
+     * Save the domain and write the title changes with one batch of deletes and one
+     * batch of upserts. If every title is written, the stored titles are replaced.
+     */
+    @Override
+    public void saveDomain(Domain domain, @Nullable Map<UUID, Title> titleChanges) throws RepositoryException {
+        String domainKey = domain.getKey().toString();
+        String defaultRole = domain.getDefaultRole().name();
+        String displayName = domain.getDisplayName().orElse(null);
+        Collection<TitleData> upserted = new ArrayList<>();
+        Collection<String> deleted = new ArrayList<>();
+        Map<UUID, Title> titles = titleChanges != null ? titleChanges : domain.getTitles();
+        for (Map.Entry<UUID, Title> entry : titles.entrySet()) {
+            Title title = entry.getValue();
+            if (title != null) {
+                upserted.add(new TitleData(domainKey, entry.getKey().toString(), title.getRole().name(), title.getName()));
+            } else {
+                deleted.add(entry.getKey().toString());
             }
+        }
+        try {
+            this.database.transaction();
+            // The titles refer to the domain, so it is saved first.
             this.database.upsertDomain(domainKey, defaultRole, displayName);
+            if (titleChanges == null) {
+                this.database.deleteDomainTitles(domainKey);
+            }
+            this.database.deleteTitles(domainKey, deleted);
+            this.database.upsertTitles(domainKey, upserted);
             this.database.commit();
         } catch (SQLException e) {
             throw this.wrapSqlException("Persistence error while saving a Domain.", e);
         }
     }
 
+    /**
+     * Delete the domain with its titles and exclusive claims in one transaction.
+     */
     @Override
     public void deleteDomain(Key domainKey) throws RepositoryException {
         try {
             this.database.transaction();
             this.database.deleteDomain(domainKey.toString());
             this.database.commit();
+            this.domainIdCache.invalidate(domainKey);
         } catch (SQLException e) {
             throw this.wrapSqlException("Persistence error while deleting a Domain.", e);
         }
@@ -125,24 +198,38 @@ public class SqlRepository implements Repository {
         }
     }
 
+    /**
+     * Load the type and claims of a chunk with a single query. A single statement is
+     * atomic, so it runs without an explicit transaction.
+     */
     @Override
-    public Optional<ExclusiveChunk> loadExclusiveChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+    public Optional<ClaimedChunk> loadChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
         try {
-            this.database.transaction();
-            String domainKey = this.database.selectExclusiveChunk(worldUuid.toString(), chunkX, chunkZ);
-            this.database.commit();
-            try {
-                return Optional.of(new ExclusiveChunk(worldUuid, chunkX, chunkZ, new Key(domainKey)));
-            } catch (IllegalArgumentException e) {
-                throw new RepositoryException("Illegal domain key loaded from database.", e);
+            ChunkData data = this.database.selectChunk(worldUuid.toString(), chunkX, chunkZ);
+            if (data instanceof ExclusiveChunkData) {
+                return Optional.of(new ExclusiveChunk(worldUuid, chunkX, chunkZ, Key.of(((ExclusiveChunkData) data).domainKey)));
+            } else if (data instanceof PartitionedChunkData) {
+                byte[] claims = ((PartitionedChunkData) data).claims;
+                if (claims == null) {
+                    // A chunk without a BLOB has no claimed columns.
+                    return Optional.of(new PartitionedChunk(worldUuid, chunkX, chunkZ));
+                }
+                return Optional.of(PartitionedChunkBlob.decode(worldUuid, chunkX, chunkZ, claims, this.domainIds));
+            } else {
+                return Optional.empty();
             }
         } catch (SQLException e) {
-            throw this.wrapSqlException("Persistence error while loading an ExclusiveChunk.", e);
+            throw this.wrapSqlException("Persistence error while loading a chunk.", e);
         } catch (IllegalArgumentException e) {
             throw new RepositoryException("Invalid value loaded from database.", e);
         }
     }
 
+    @Override
+    public Optional<ExclusiveChunk> loadExclusiveChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        return this.loadChunk(worldUuid, chunkX, chunkZ).filter(chunk -> chunk instanceof ExclusiveChunk).map(chunk -> (ExclusiveChunk) chunk);
+    }
+
     @Override
     public void saveExclusiveChunk(ExclusiveChunk chunk) throws RepositoryException {
         try {
@@ -151,8 +238,9 @@ public class SqlRepository implements Repository {
             int chunkX = chunk.getChunkX();
             int chunkZ = chunk.getChunkZ();
             String domainKey = chunk.getDomainKey().toString();
-            this.database.deleteChunk(worldUuidString, chunkX, chunkZ);
+            // Rows that are unchanged are not rewritten, and only the claims of another type are deleted.
             this.database.upsertChunkType(worldUuidString, chunkX, chunkZ, ChunkType.EXCLUSIVE.name());
+            this.database.deletePartitionedChunk(worldUuidString, chunkX, chunkZ);
             this.database.upsertExclusiveChunk(worldUuidString, chunkX, chunkZ, domainKey);
             this.database.commit();
         } catch (SQLException e) {
@@ -162,28 +250,7 @@ public class SqlRepository implements Repository {
 
     @Override
     public Optional<PartitionedChunk> loadPartitionedChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
-        try {
-            this.database.transaction();
-            String sWorldUuid = worldUuid.toString();
-            String sType = this.database.selectChunkType(sWorldUuid, chunkX, chunkZ);
-            ChunkType type = ChunkType.valueOf(sType);
-            if (type != ChunkType.PARTITIONED) {
-                return Optional.empty();
-            }
-            String[] sColumns = this.database.selectPartitionedChunk(sWorldUuid, chunkX, chunkZ);
-            Key[] columns = new Key[16 * 16];
-            int m = 0;
-            while (m < 16 * 16) {
-                columns[m] = new Key(sColumns[m]);
-                m++;
-            }
-            this.database.commit();
-            return Optional.of(new PartitionedChunk(worldUuid, chunkX, chunkZ, columns));
-        } catch (SQLException e) {
-            throw this.wrapSqlException("Persistence error while loading a PartitionedChunk.", e);
-        } catch (IllegalArgumentException e) {
-            throw new RepositoryException("Invalid value loaded from database.", e);
-        }
+        return this.loadChunk(worldUuid, chunkX, chunkZ).filter(chunk -> chunk instanceof PartitionedChunk).map(chunk -> (PartitionedChunk) chunk);
     }
 
     @Override
@@ -192,21 +259,11 @@ public class SqlRepository implements Repository {
             this.database.transaction();
             String worldUuidString = chunk.getWorldUuid().toString();
             int chunkX = chunk.getChunkX();
-            int chunkZ = chunk.getChunkX();
-            Key[] claims = chunk.getClaims();
-            this.database.deleteChunk(worldUuidString, chunkX, chunkZ);
+            int chunkZ = chunk.getChunkZ();
+            // Rows that are unchanged are not rewritten, and only the claims of another type are deleted.
             this.database.upsertChunkType(worldUuidString, chunkX, chunkZ, ChunkType.PARTITIONED.name());
-            int m = 0;
-            while (m < 16 * 16) {
-                Key domainKey = claims[m];
-                if (domainKey != null) {
-                    String domainKeyString = domainKey.toString();
-                    this.database.upsertPartitionedChunkColumn(worldUuidString, chunkX, chunkZ, m, domainKeyString);
-                } else {
-                    continue;
-                }
-                m++;
-            }
+            this.database.deleteExclusiveChunk(worldUuidString, chunkX, chunkZ);
+            this.database.upsertPartitionedChunk(worldUuidString, chunkX, chunkZ, PartitionedChunkBlob.encode(chunk, this.domainIds));
             this.database.commit();
         } catch (SQLException e) {
             throw this.wrapSqlException("Persistence error while saving a PartitionedChunk.", e);
@@ -224,6 +281,96 @@ public class SqlRepository implements Repository {
         }
     }
 
+    /**
+     * Write the batch in one transaction, with one JDBC batch per table and statement.
+     */
+    @Override
+    public void saveChunks(ChunkBatch batch) throws RepositoryException {
+        Collection<ChunkData> deleted = new ArrayList<>();
+        Collection<ExclusiveChunkData> exclusiveChunks = new ArrayList<>();
+        Collection<PartitionedChunkData> partitionedChunks = new ArrayList<>();
+        for (ChunkBatch.Position position : batch.getDeleted()) {
+            deleted.add(new ChunkData(position.getWorldUuid().toString(), position.getChunkX(), position.getChunkZ()));
+        }
+        try {
+            this.database.transaction();
+            // The palettes are encoded in the transaction, since they refer to the ids of the domains.
+            for (ClaimedChunk chunk : batch.getSaved()) {
+                String worldUuidString = chunk.getWorldUuid().toString();
+                if (chunk instanceof ExclusiveChunk) {
+                    String domainKeyString = ((ExclusiveChunk) chunk).getDomainKey().toString();
+                    exclusiveChunks.add(new ExclusiveChunkData(worldUuidString, chunk.getChunkX(), chunk.getChunkZ(), domainKeyString));
+                } else if (chunk instanceof PartitionedChunk) {
+                    byte[] claims = PartitionedChunkBlob.encode((PartitionedChunk) chunk, this.domainIds);
+                    partitionedChunks.add(new PartitionedChunkData(worldUuidString, chunk.getChunkX(), chunk.getChunkZ(), claims));
+                }
+            }
+            // Delete the claims of another type than the saved claims. Unchanged rows are not rewritten.
+            this.database.deleteChunks(deleted);
+            this.database.deletePartitionedChunks(exclusiveChunks);
+            this.database.deleteExclusiveChunks(partitionedChunks);
+            this.database.upsertChunkTypes(exclusiveChunks, ChunkType.EXCLUSIVE.name());
+            this.database.upsertChunkTypes(partitionedChunks, ChunkType.PARTITIONED.name());
+            this.database.upsertExclusiveChunks(exclusiveChunks);
+            this.database.upsertPartitionedChunks(partitionedChunks);
+            this.database.commit();
+        } catch (SQLException e) {
+            throw this.wrapSqlException("Persistence error while saving a batch of chunks.", e);
+        }
+    }
+
+    @Override
+    public Collection<ClaimedChunk> loadChunks() throws RepositoryException {
+        try {
+            this.database.transaction();
+            Collection<ExclusiveChunkData> exclusiveChunksData = this.database.selectExclusiveChunks();
+            Collection<PartitionedChunkData> partitionedChunksData = this.database.selectPartitionedChunks();
+            Collection<ClaimedChunk> chunks = new ArrayList<>();
+            for (ExclusiveChunkData data : exclusiveChunksData) {
+                UUID worldUuid = UUID.fromString(data.worldUuid);
+                chunks.add(new ExclusiveChunk(worldUuid, data.chunkX, data.chunkZ, Key.of(data.domainKey)));
+            }
+            // The palettes are decoded in the transaction, since they refer to the ids of the domains.
+            for (PartitionedChunkData data : partitionedChunksData) {
+                UUID worldUuid = UUID.fromString(data.worldUuid);
+                chunks.add(PartitionedChunkBlob.decode(worldUuid, data.chunkX, data.chunkZ, data.claims, this.domainIds));
+            }
+            this.database.commit();
+            return chunks;
+        } catch (SQLException e) {
+            throw this.wrapSqlException("Persistence error while loading all chunks.", e);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Invalid value loaded from database.", e);
+        }
+    }
+
+    /**
+     * Load the chunks with one range query per chunk table.
+     */
+    @Override
+    public Collection<ClaimedChunk> loadChunks(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) throws RepositoryException {
+        try {
+            this.database.transaction();
+            String sWorldUuid = worldUuid.toString();
+            Collection<ExclusiveChunkData> exclusiveChunksData = this.database.selectExclusiveChunks(sWorldUuid, minChunkX, minChunkZ, maxChunkX, maxChunkZ);
+            Collection<PartitionedChunkData> partitionedChunksData = this.database.selectPartitionedChunks(sWorldUuid, minChunkX, minChunkZ, maxChunkX, maxChunkZ);
+            Collection<ClaimedChunk> chunks = new ArrayList<>();
+            for (ExclusiveChunkData data : exclusiveChunksData) {
+                chunks.add(new ExclusiveChunk(worldUuid, data.chunkX, data.chunkZ, Key.of(data.domainKey)));
+            }
+            // The palettes are decoded in the transaction, since they refer to the ids of the domains.
+            for (PartitionedChunkData data : partitionedChunksData) {
+                chunks.add(PartitionedChunkBlob.decode(worldUuid, data.chunkX, data.chunkZ, data.claims, this.domainIds));
+            }
+            this.database.commit();
+            return chunks;
+        } catch (SQLException e) {
+            throw this.wrapSqlException("Persistence error while loading chunks in a region.", e);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Invalid value loaded from database.", e);
+        }
+    }
+
     @Override
     public Collection<Title> loadPlayerTitles(UUID playerUuid) throws RepositoryException {
         try {
@@ -232,7 +379,7 @@ public class SqlRepository implements Repository {
             this.database.commit();
             Collection<Title> titles = new ArrayList<>();
             for (TitleData titleData : titlesData) {
-                Key domainKey = new Key(titleData.domainKey);
+                Key domainKey = Key.of(titleData.domainKey);
                 String title = titleData.title;
                 Role role = Role.valueOf(titleData.role);
                 titles.add(new Title(domainKey, playerUuid, title, role));
@@ -245,6 +392,42 @@ public class SqlRepository implements Repository {
         }
     }
 
+    /**
+     * Load the title of a player with a single point lookup on the primary key. A
+     * single statement is atomic, so it runs without an explicit transaction.
+     */
+    @Override
+    public Optional<Title> loadTitle(Key domainKey, UUID playerUuid) throws RepositoryException {
+        try {
+            TitleData data = this.database.selectTitle(domainKey.toString(), playerUuid.toString());
+            if (data == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new Title(domainKey, playerUuid, data.title, Role.valueOf(data.role)));
+        } catch (SQLException e) {
+            throw this.wrapSqlException("Persistence error while loading a title.", e);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Invalid value loaded from database.", e);
+        }
+    }
+
+    @Override
+    public List<Title> loadDomainTitles(Key domainKey, int offset, int limit) throws RepositoryException {
+        try {
+            List<TitleData> titlesData = this.database.selectDomainTitles(domainKey.toString(), offset, limit);
+            List<Title> titles = new ArrayList<>();
+            for (TitleData titleData : titlesData) {
+                UUID playerUuid = UUID.fromString(titleData.playerUuid);
+                titles.add(new Title(domainKey, playerUuid, titleData.title, Role.valueOf(titleData.role)));
+            }
+            return titles;
+        } catch (SQLException e) {
+            throw this.wrapSqlException("Persistence error while loading a page of domain titles.", e);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Invalid value loaded from database.", e);
+        }
+    }
+
     @Override
     public Collection<Title> loadDomainTitles(Key domainKey) throws RepositoryException {
         try {
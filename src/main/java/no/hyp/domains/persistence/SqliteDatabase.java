@@ -1,18 +1,141 @@
 package no.hyp.domains.persistence;
 
+import no.hyp.domains.ChunkType;
+import no.hyp.domains.Key;
+import no.hyp.domains.PartitionedChunk;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SqliteDatabase implements SqlDatabase {
 
+    /**
+     * The schema version created by {@link #upgradeDatabase()}.
+     */
+    public static final int VERSION = 4;
+
+    private final String databasePath;
+
+    private final int cacheSizeKib;
+
+    private final long mmapSize;
+
+    private final int busyTimeoutMillis;
+
     private final Connection connection;
 
+    /**
+     * The statements prepared on the connection, by their SQL. Each statement is
+     * prepared once and reused, so SQLite does not parse and plan it again.
+     */
+    private final Map<String, PreparedStatement> statements;
+
+    private final AtomicLong statementHits;
+
+    private final AtomicLong statementMisses;
+
+    /**
+     * The ids of the worlds in the World table, by their UUID. Worlds are never
+     * deleted, so the ids are cached for the lifetime of the connection.
+     */
+    private final Map<String, Integer> worldIds;
+
     public SqliteDatabase(String databasePath) throws SQLException {
+        this(databasePath, false, 8192, 64L * 1024 * 1024, 5000);
+    }
+
+    /**
+     * Open a connection to a database in WAL mode, so that readers on other
+     * connections are not blocked by the writer.
+     *
+     * @param readOnly Whether the connection may only read. A database has a single
+     *                 writing connection and any number of reading connections.
+     * @param cacheSizeKib The size of the page cache of the connection in KiB.
+     * @param mmapSize The number of bytes of the database file that are memory mapped.
+     * @param busyTimeoutMillis How long to wait for a lock held by another connection.
+     */
+    public SqliteDatabase(String databasePath, boolean readOnly, int cacheSizeKib, long mmapSize, int busyTimeoutMillis) throws SQLException {
+        this.databasePath = databasePath;
+        this.cacheSizeKib = cacheSizeKib;
+        this.mmapSize = mmapSize;
+        this.busyTimeoutMillis = busyTimeoutMillis;
         String connectionString = "jdbc:sqlite:" + databasePath;
         this.connection = DriverManager.getConnection(connectionString);
+        this.statements = new HashMap<>();
+        this.statementHits = new AtomicLong();
+        this.statementMisses = new AtomicLong();
+        this.worldIds = new HashMap<>();
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute(String.format("PRAGMA busy_timeout = %d; ", busyTimeoutMillis));
+            // A negative cache size is in KiB rather than pages.
+            statement.execute(String.format("PRAGMA cache_size = %d; ", -cacheSizeKib));
+            statement.execute(String.format("PRAGMA mmap_size = %d; ", mmapSize));
+            // Foreign keys are off by default and are set per connection, so the
+            // claims and titles of a deleted domain are only deleted with it if
+            // every connection turns them on.
+            statement.execute("PRAGMA foreign_keys = ON; ");
+            if (readOnly) {
+                statement.execute("PRAGMA query_only = ON; ");
+            } else {
+                // The journal mode is persistent, so it only has to be set by the writer.
+                // In WAL mode, commits are durable across crashes of the process with
+                // synchronous NORMAL, and only lost on power failure.
+                statement.execute("PRAGMA journal_mode = WAL; ");
+                statement.execute("PRAGMA synchronous = NORMAL; ");
+            }
+        } catch (SQLException e) {
+            this.connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open another connection to the same database that may only read, with the same settings.
+     */
+    public SqliteDatabase openReader() throws SQLException {
+        return new SqliteDatabase(this.databasePath, true, this.cacheSizeKib, this.mmapSize, this.busyTimeoutMillis);
+    }
+
+    /**
+     * Get the cached statement of some SQL, preparing it if it is not cached. The
+     * parameters and batch of a reused statement are cleared. The statement must not
+     * be closed by the caller.
+     */
+    private PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = this.statements.get(sql);
+        if (statement == null) {
+            statement = this.connection.prepareStatement(sql);
+            this.statements.put(sql, statement);
+            this.statementMisses.incrementAndGet();
+        } else {
+            statement.clearParameters();
+            statement.clearBatch();
+            this.statementHits.incrementAndGet();
+        }
+        return statement;
+    }
+
+    /**
+     * The number of times a cached statement was reused.
+     */
+    public long getStatementHits() {
+        return this.statementHits.get();
+    }
+
+    /**
+     * The number of times a statement had to be prepared.
+     */
+    public long getStatementMisses() {
+        return this.statementMisses.get();
     }
 
     @Override
@@ -31,96 +154,482 @@ public class SqliteDatabase implements SqlDatabase {
         this.connection.setAutoCommit(false);
     }
 
+    /**
+     * End the transaction and return to autocommit, so that an idle connection does
+     * not hold a transaction open and keep the WAL from being checkpointed.
+     */
     @Override
     public void commit() throws SQLException {
         this.connection.commit();
+        this.connection.setAutoCommit(true);
     }
 
     @Override
     public void rollback() throws SQLException {
-        this.connection.rollback();
+        // Worlds inserted in the transaction are rolled back with it.
+        this.worldIds.clear();
+        if (!this.connection.getAutoCommit()) {
+            this.connection.rollback();
+            this.connection.setAutoCommit(true);
+        }
     }
 
+    /**
+     * Foreign keys are not enforced while the schema is migrated, since renaming and
+     * dropping a table that other tables refer to would otherwise rewrite or cascade
+     * to them. The pragma has no effect inside a transaction.
+     */
     @Override
     public void upgradeDatabase() throws SQLException {
-        // If version is 0, the database was just created.
-        if (this.version() == 0) {
-            this.setupDatabase();
+        this.setForeignKeys(false);
+        try {
+            // If version is 0, the database was just created.
+            if (this.version() == 0) {
+                this.setupDatabase();
+            }
+            // Migrate the schema one version at a time.
+            if (this.version() == 1) {
+                this.upgradeToVersion2();
+            }
+            if (this.version() == 2) {
+                this.upgradeToVersion3();
+            }
+            if (this.version() == 3) {
+                this.upgradeToVersion4();
+            }
+        } finally {
+            this.setForeignKeys(true);
+        }
+        int version = this.version();
+        if (version != VERSION) {
+            throw new SQLException(String.format("Unsupported database version: %d.", version));
+        }
+    }
+
+    private void setForeignKeys(boolean enabled) throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute(String.format("PRAGMA foreign_keys = %s; ", enabled ? "ON" : "OFF"));
         }
-        // Database version should now be 1, otherwise something is wrong.
-        this.version();
     }
 
     private void setupDatabase() throws SQLException {
-        String sql = "CREATE TABLE Domain ( "
-                   + "domain_key TEXT NOT NULL, "
-                   + "display_name TEXT, "
-                   + "default_role TEXT NOT NULL, "
-                   + "PRIMARY KEY ( domain_key ), "
-                   + "); "
-                   + " "
-                   + "CREATE TABLE Title ( "
-                   + "domain_key TEXT NOT NULL, "
-                   + "player_uuid TEXT NOT NULL, "
-                   + "role TEXT NOT NULL, "
-                   + "title TEXT NOT NULL, "
-                   + "PRIMARY KEY ( domain_key, player_uuid ), "
-                   + "FOREIGN KEY ( domain_key ) REFERENCES Domain ( domain_key ) ON DELETE CASCADE ON UPDATE CASCADE "
-                   + "); "
-                   + " "
-                   + "CREATE TABLE ClaimableType ( "
-                   + "world_uuid TEXT NOT NULL, "
-                   + "chunk_x INTEGER NOT NULL, "
-                   + "chunk_z INTEGER NOT NULL, "
-                   + "type TEXT CHECK(type IN ( \"COLUMNS\", \"CHUNK\" )) NOT NULL, "
-                   + "PRIMARY KEY ( world_uuid, chunk_x, chunk_z ), "
-                   + "FOREIGN KEY ( domain_key ) REFERENCES Domain ( domain_key ) ON DELETE CASCADE ON UPDATE CASCADE "
-                   + "); "
-                   + " "
-                   + "CREATE TABLE ClaimableChunk ( "
-                   + "world_uuid TEXT NOT NULL, "
-                   + "chunk_x INTEGER NOT NULL, "
-                   + "chunk_z INTEGER NOT NULL, "
-                   + "domain_key TEXT NOT NULL, "
-                   + "PRIMARY KEY ( world_uuid, chunk_x, chunk_z ), "
-                   + "FOREIGN KEY ( domain_key ) REFERENCES Domain ( domain_key ) ON DELETE CASCADE ON UPDATE CASCADE "
-                   + "); "
-                   + " "
-                   + "CREATE TABLE ClaimableColumn ( "
-                   + "world_uuid TEXT NOT NULL, "
-                   + "chunk_x INTEGER NOT NULL, "
-                   + "chunk_z INTEGER NOT NULL, "
-                   + "column_number INTEGER CHECK(column_number BETWEEN 0 AND 255) NOT NULL, "
-                   + " domain_key TEXT NOT NULL, "
-                   + "PRIMARY KEY ( world_uuid, chunk_x, chunk_z, column_number ), "
-                   + "FOREIGN KEY ( domain_key ) REFERENCES Domain ( domain_key ) ON DELETE CASCADE ON UPDATE CASCADE "
-                   + "); "
-                   + " "
-                   + "PRAGMA user_version = 1; "
-        ;
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.executeUpdate();
+        String[] sqls = {
+                  "CREATE TABLE Domain ( "
+                + "domain_key TEXT NOT NULL, "
+                + "display_name TEXT, "
+                + "default_role TEXT NOT NULL, "
+                + "PRIMARY KEY ( domain_key ) "
+                + "); "
+                ,
+                  "CREATE TABLE Title ( "
+                + "domain_key TEXT NOT NULL, "
+                + "player_uuid TEXT NOT NULL, "
+                + "role TEXT NOT NULL, "
+                + "title TEXT NOT NULL, "
+                + "PRIMARY KEY ( domain_key, player_uuid ), "
+                + "FOREIGN KEY ( domain_key ) REFERENCES Domain ( domain_key ) ON DELETE CASCADE ON UPDATE CASCADE "
+                + "); "
+                ,
+                  "CREATE TABLE ClaimableType ( "
+                + "world_uuid TEXT NOT NULL, "
+                + "chunk_x INTEGER NOT NULL, "
+                + "chunk_z INTEGER NOT NULL, "
+                + "type TEXT CHECK(type IN ( 'EXCLUSIVE', 'PARTITIONED' )) NOT NULL, "
+                + "PRIMARY KEY ( world_uuid, chunk_x, chunk_z ) "
+                + "); "
+                ,
+                  "CREATE TABLE ExclusiveChunk ( "
+                + "world_uuid TEXT NOT NULL, "
+                + "chunk_x INTEGER NOT NULL, "
+                + "chunk_z INTEGER NOT NULL, "
+                + "domain_key TEXT NOT NULL, "
+                + "PRIMARY KEY ( world_uuid, chunk_x, chunk_z ), "
+                + "FOREIGN KEY ( domain_key ) REFERENCES Domain ( domain_key ) ON DELETE CASCADE ON UPDATE CASCADE "
+                + "); "
+                ,
+                  "CREATE TABLE PartitionedChunkColumn ( "
+                + "world_uuid TEXT NOT NULL, "
+                + "chunk_x INTEGER NOT NULL, "
+                + "chunk_z INTEGER NOT NULL, "
+                + "column_number INTEGER CHECK(column_number BETWEEN 0 AND 255) NOT NULL, "
+                + "domain_key TEXT NOT NULL, "
+                + "PRIMARY KEY ( world_uuid, chunk_x, chunk_z, column_number ), "
+                + "FOREIGN KEY ( domain_key ) REFERENCES Domain ( domain_key ) ON DELETE CASCADE ON UPDATE CASCADE "
+                + "); "
+                ,
+                  "PRAGMA user_version = 1; "
+        };
+        // The driver only executes the first statement of a string, so execute them one by one.
+        try (Statement statement = this.connection.createStatement()) {
+            for (String sql : sqls) {
+                statement.executeUpdate(sql);
+            }
         }
     }
 
+    /**
+     * Version 2 stores the claims of each partitioned chunk as a single palette BLOB
+     * instead of a row per column. The existing columns are converted in a single
+     * transaction, and the column table is dropped.
+     */
+    private void upgradeToVersion2() throws SQLException {
+        this.transaction();
+        try {
+            try (Statement statement = this.connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE PartitionedChunk ( "
+                        + "world_uuid TEXT NOT NULL, "
+                        + "chunk_x INTEGER NOT NULL, "
+                        + "chunk_z INTEGER NOT NULL, "
+                        + "claims BLOB NOT NULL, "
+                        + "PRIMARY KEY ( world_uuid, chunk_x, chunk_z ) "
+                        + "); ");
+            }
+            String sql = "SELECT world_uuid, chunk_x, chunk_z, column_number, domain_key "
+                       + "FROM PartitionedChunkColumn "
+                       + "ORDER BY world_uuid, chunk_x, chunk_z; "
+            ;
+            String insertSql = "INSERT INTO PartitionedChunk ( world_uuid, chunk_x, chunk_z, claims ) "
+                             + "VALUES ( ?, ?, ?, ? ); "
+            ;
+            try (PreparedStatement statement = this.connection.prepareStatement(sql); PreparedStatement insert = this.connection.prepareStatement(insertSql)) {
+                try (ResultSet result = statement.executeQuery()) {
+                    // The rows are ordered by chunk, so each chunk is saved when the next begins.
+                    PartitionedChunk chunk = null;
+                    while (result.next()) {
+                        String worldUuid = result.getString("world_uuid");
+                        int chunkX = result.getInt("chunk_x");
+                        int chunkZ = result.getInt("chunk_z");
+                        if (chunk == null || !chunk.getWorldUuid().toString().equals(worldUuid) || chunk.getChunkX() != chunkX || chunk.getChunkZ() != chunkZ) {
+                            if (chunk != null) {
+                                SqliteDatabase.insertVersion2Chunk(insert, chunk);
+                            }
+                            chunk = new PartitionedChunk(UUID.fromString(worldUuid), chunkX, chunkZ);
+                        }
+                        int columnNumber = result.getInt("column_number");
+                        Key domainKey = Key.of(result.getString("domain_key"));
+                        chunk.setDomainKey(PartitionedChunk.iFromColumnNumber(columnNumber), PartitionedChunk.kFromColumnNumber(columnNumber), domainKey);
+                    }
+                    if (chunk != null) {
+                        SqliteDatabase.insertVersion2Chunk(insert, chunk);
+                    }
+                }
+            }
+            try (Statement statement = this.connection.createStatement()) {
+                statement.executeUpdate("DROP TABLE PartitionedChunkColumn; ");
+                statement.executeUpdate("PRAGMA user_version = 2; ");
+            }
+            this.commit();
+        } catch (SQLException | IllegalArgumentException e) {
+            this.rollback();
+            throw new SQLException("Could not upgrade the database to version 2.", e);
+        }
+    }
+
+    private static void insertVersion2Chunk(PreparedStatement insert, PartitionedChunk chunk) throws SQLException {
+        insert.setString(1, chunk.getWorldUuid().toString());
+        insert.setInt(2, chunk.getChunkX());
+        insert.setInt(3, chunk.getChunkZ());
+        insert.setBytes(4, PartitionedChunkBlob.encode(chunk));
+        insert.executeUpdate();
+    }
+
+    /**
+     * Version 3 stores UUIDs as 16 byte BLOBs, refers to worlds by the id of a row in
+     * a World table, and refers to domains by an integer id instead of their key. Chunk
+     * and title rows are smaller and faster to compare, and renaming a domain only
+     * changes its own row. The tables are rebuilt in a single transaction.
+     *
+     * The palettes of partitioned chunks are converted from domain keys to domain ids.
+     * Titles and claims of domains that no longer exist are dropped, along with the
+     * type of an exclusive chunk whose claim is dropped.
+     */
+    private void upgradeToVersion3() throws SQLException {
+        this.transaction();
+        try {
+            String[] tables = { "Domain", "Title", "ClaimableType", "ExclusiveChunk", "PartitionedChunk" };
+            String[] sqls = {
+                      "CREATE TABLE World ( "
+                    + "world_id INTEGER PRIMARY KEY, "
+                    + "world_uuid BLOB NOT NULL UNIQUE "
+                    + "); "
+                    ,
+                      "CREATE TABLE Domain ( "
+                    + "domain_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "domain_key TEXT NOT NULL UNIQUE, "
+                    + "display_name TEXT, "
+                    + "default_role TEXT NOT NULL "
+                    + "); "
+                    ,
+                      "CREATE TABLE Title ( "
+                    + "domain_id INTEGER NOT NULL, "
+                    + "player_uuid BLOB NOT NULL, "
+                    + "role TEXT NOT NULL, "
+                    + "title TEXT NOT NULL, "
+                    + "PRIMARY KEY ( domain_id, player_uuid ), "
+                    + "FOREIGN KEY ( domain_id ) REFERENCES Domain ( domain_id ) ON DELETE CASCADE "
+                    + "); "
+                    ,
+                      "CREATE TABLE ClaimableType ( "
+                    + "world_id INTEGER NOT NULL, "
+                    + "chunk_x INTEGER NOT NULL, "
+                    + "chunk_z INTEGER NOT NULL, "
+                    + "type TEXT CHECK(type IN ( 'EXCLUSIVE', 'PARTITIONED' )) NOT NULL, "
+                    + "PRIMARY KEY ( world_id, chunk_x, chunk_z ), "
+                    + "FOREIGN KEY ( world_id ) REFERENCES World ( world_id ) "
+                    + "); "
+                    ,
+                      "CREATE TABLE ExclusiveChunk ( "
+                    + "world_id INTEGER NOT NULL, "
+                    + "chunk_x INTEGER NOT NULL, "
+                    + "chunk_z INTEGER NOT NULL, "
+                    + "domain_id INTEGER NOT NULL, "
+                    + "PRIMARY KEY ( world_id, chunk_x, chunk_z ), "
+                    + "FOREIGN KEY ( world_id ) REFERENCES World ( world_id ), "
+                    + "FOREIGN KEY ( domain_id ) REFERENCES Domain ( domain_id ) ON DELETE CASCADE "
+                    + "); "
+                    ,
+                      "CREATE TABLE PartitionedChunk ( "
+                    + "world_id INTEGER NOT NULL, "
+                    + "chunk_x INTEGER NOT NULL, "
+                    + "chunk_z INTEGER NOT NULL, "
+                    + "claims BLOB NOT NULL, "
+                    + "PRIMARY KEY ( world_id, chunk_x, chunk_z ), "
+                    + "FOREIGN KEY ( world_id ) REFERENCES World ( world_id ) "
+                    + "); "
+                    ,
+                      "INSERT INTO Domain ( domain_key, display_name, default_role ) "
+                    + "SELECT domain_key, display_name, default_role FROM DomainV2; "
+            };
+            try (Statement statement = this.connection.createStatement()) {
+                for (String table : tables) {
+                    statement.executeUpdate(String.format("ALTER TABLE %s RENAME TO %sV2; ", table, table));
+                }
+                for (String sql : sqls) {
+                    statement.executeUpdate(sql);
+                }
+            }
+            // Copy the other rows through the version 3 statements, which convert the UUIDs.
+            String titlesSql = "SELECT domain_key, player_uuid, role, title "
+                             + "FROM TitleV2 "
+                             + "WHERE domain_key IN ( SELECT domain_key FROM DomainV2 ); "
+            ;
+            try (PreparedStatement statement = this.connection.prepareStatement(titlesSql); ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    this.upsertTitle(result.getString("domain_key"), result.getString("player_uuid"), result.getString("role"), result.getString("title"));
+                }
+            }
+            String typesSql = "SELECT world_uuid, chunk_x, chunk_z, type "
+                            + "FROM ClaimableTypeV2 "
+                            + "WHERE type <> 'EXCLUSIVE' OR EXISTS ( "
+                            + "SELECT 1 FROM ExclusiveChunkV2 "
+                            + "WHERE ExclusiveChunkV2.world_uuid = ClaimableTypeV2.world_uuid "
+                            + "AND ExclusiveChunkV2.chunk_x = ClaimableTypeV2.chunk_x AND ExclusiveChunkV2.chunk_z = ClaimableTypeV2.chunk_z "
+                            + "AND ExclusiveChunkV2.domain_key IN ( SELECT domain_key FROM DomainV2 ) "
+                            + "); "
+            ;
+            try (PreparedStatement statement = this.connection.prepareStatement(typesSql); ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    this.upsertChunkType(result.getString("world_uuid"), result.getInt("chunk_x"), result.getInt("chunk_z"), result.getString("type"));
+                }
+            }
+            String exclusiveSql = "SELECT world_uuid, chunk_x, chunk_z, domain_key "
+                                + "FROM ExclusiveChunkV2 "
+                                + "WHERE domain_key IN ( SELECT domain_key FROM DomainV2 ); "
+            ;
+            try (PreparedStatement statement = this.connection.prepareStatement(exclusiveSql); ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    this.upsertExclusiveChunk(result.getString("world_uuid"), result.getInt("chunk_x"), result.getInt("chunk_z"), result.getString("domain_key"));
+                }
+            }
+            String partitionedSql = "SELECT world_uuid, chunk_x, chunk_z, claims "
+                                  + "FROM PartitionedChunkV2; "
+            ;
+            try (PreparedStatement statement = this.connection.prepareStatement(partitionedSql); ResultSet result = statement.executeQuery()) {
+                PartitionedChunkBlob.DomainIds domainIds = PartitionedChunkBlob.DomainIds.of(this).cached();
+                while (result.next()) {
+                    String worldUuid = result.getString("world_uuid");
+                    int chunkX = result.getInt("chunk_x");
+                    int chunkZ = result.getInt("chunk_z");
+                    PartitionedChunk chunk = PartitionedChunkBlob.decode(UUID.fromString(worldUuid), chunkX, chunkZ, result.getBytes("claims"));
+                    // Columns of domains deleted before the upgrade are left unclaimed.
+                    Key[] palette = chunk.getPalette();
+                    int n = 0;
+                    while (n < palette.length) {
+                        if (palette[n] != null && domainIds.getDomainId(palette[n]) < 0) {
+                            palette[n] = null;
+                        }
+                        n++;
+                    }
+                    chunk = new PartitionedChunk(chunk.getWorldUuid(), chunkX, chunkZ, palette, chunk.getBitsPerColumn(), chunk.getPackedIndices());
+                    this.upsertPartitionedChunk(worldUuid, chunkX, chunkZ, PartitionedChunkBlob.encode(chunk, domainIds));
+                }
+            }
+            try (Statement statement = this.connection.createStatement()) {
+                for (String table : tables) {
+                    statement.executeUpdate(String.format("DROP TABLE %sV2; ", table));
+                }
+                statement.executeUpdate("PRAGMA user_version = 3; ");
+            }
+            this.commit();
+        } catch (SQLException | IllegalArgumentException e) {
+            this.rollback();
+            throw new SQLException("Could not upgrade the database to version 3.", e);
+        }
+    }
+
+    /**
+     * Version 4 stores the chunk tables WITHOUT ROWID, so that the rows are stored in
+     * the primary key on world, chunk x and chunk z. A query for the chunks in a
+     * rectangle is then a range scan of the primary key that covers every column,
+     * without a second lookup of each row.
+     */
+    private void upgradeToVersion4() throws SQLException {
+        this.transaction();
+        try {
+            String[] tables = { "ClaimableType", "ExclusiveChunk", "PartitionedChunk" };
+            String[] sqls = {
+                      "CREATE TABLE ClaimableType ( "
+                    + "world_id INTEGER NOT NULL, "
+                    + "chunk_x INTEGER NOT NULL, "
+                    + "chunk_z INTEGER NOT NULL, "
+                    + "type TEXT CHECK(type IN ( 'EXCLUSIVE', 'PARTITIONED' )) NOT NULL, "
+                    + "PRIMARY KEY ( world_id, chunk_x, chunk_z ), "
+                    + "FOREIGN KEY ( world_id ) REFERENCES World ( world_id ) "
+                    + ") WITHOUT ROWID; "
+                    ,
+                      "CREATE TABLE ExclusiveChunk ( "
+                    + "world_id INTEGER NOT NULL, "
+                    + "chunk_x INTEGER NOT NULL, "
+                    + "chunk_z INTEGER NOT NULL, "
+                    + "domain_id INTEGER NOT NULL, "
+                    + "PRIMARY KEY ( world_id, chunk_x, chunk_z ), "
+                    + "FOREIGN KEY ( world_id ) REFERENCES World ( world_id ), "
+                    + "FOREIGN KEY ( domain_id ) REFERENCES Domain ( domain_id ) ON DELETE CASCADE "
+                    + ") WITHOUT ROWID; "
+                    ,
+                      "CREATE TABLE PartitionedChunk ( "
+                    + "world_id INTEGER NOT NULL, "
+                    + "chunk_x INTEGER NOT NULL, "
+                    + "chunk_z INTEGER NOT NULL, "
+                    + "claims BLOB NOT NULL, "
+                    + "PRIMARY KEY ( world_id, chunk_x, chunk_z ), "
+                    + "FOREIGN KEY ( world_id ) REFERENCES World ( world_id ) "
+                    + ") WITHOUT ROWID; "
+            };
+            try (Statement statement = this.connection.createStatement()) {
+                for (String table : tables) {
+                    statement.executeUpdate(String.format("ALTER TABLE %s RENAME TO %sV3; ", table, table));
+                }
+                for (String sql : sqls) {
+                    statement.executeUpdate(sql);
+                }
+                for (String table : tables) {
+                    statement.executeUpdate(String.format("INSERT INTO %s SELECT * FROM %sV3; ", table, table));
+                    statement.executeUpdate(String.format("DROP TABLE %sV3; ", table));
+                }
+                statement.executeUpdate("PRAGMA user_version = 4; ");
+            }
+            this.commit();
+        } catch (SQLException e) {
+            this.rollback();
+            throw new SQLException("Could not upgrade the database to version 4.", e);
+        }
+    }
+
+    /**
+     * Get the id of a world.
+     *
+     * @return The id, or -1 if the world is not in the World table, which matches no rows.
+     */
+    private int selectWorldId(String worldUuid) throws SQLException {
+        Integer worldId = this.worldIds.get(worldUuid);
+        if (worldId != null) {
+            return worldId;
+        }
+        String sql = "SELECT world_id "
+                   + "FROM World "
+                   + "WHERE world_uuid = ?; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        statement.setBytes(1, SqliteDatabase.uuidBytes(worldUuid));
+        try (ResultSet result = statement.executeQuery()) {
+            if (result.next()) {
+                worldId = result.getInt("world_id");
+                this.worldIds.put(worldUuid, worldId);
+                return worldId;
+            } else {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Get the id of a world, inserting it into the World table if it is missing.
+     */
+    private int upsertWorldId(String worldUuid) throws SQLException {
+        int worldId = this.selectWorldId(worldUuid);
+        if (worldId >= 0) {
+            return worldId;
+        }
+        String sql = "INSERT INTO World ( world_uuid ) "
+                   + "VALUES ( ? ); "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        statement.setBytes(1, SqliteDatabase.uuidBytes(worldUuid));
+        statement.executeUpdate();
+        return this.selectWorldId(worldUuid);
+    }
+
+    /**
+     * Convert a UUID to 16 bytes, most significant first.
+     *
+     * @throws IllegalArgumentException If the string is not a UUID.
+     */
+    private static byte[] uuidBytes(String uuid) throws IllegalArgumentException {
+        UUID value = UUID.fromString(uuid);
+        return ByteBuffer.allocate(16).putLong(value.getMostSignificantBits()).putLong(value.getLeastSignificantBits()).array();
+    }
+
+    private static String uuidString(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong()).toString();
+    }
+
     @Override
     public @Nullable DomainData selectDomain(@Nonnull String domainKey) throws SQLException {
-        String sql = "SELECT ( default_role, display_name ) "
+        String sql = "SELECT default_role, display_name "
                    + "FROM Domain "
                    + "WHERE domain_key = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, domainKey);
-            try (ResultSet result = statement.executeQuery()) {
-                if (result.next()) {
-                    String defaultRole = result.getString("default_role");
-                    String displayName = result.getString("display_name");
-                    return new DomainData(domainKey, defaultRole, displayName);
-                } else {
-                    return null;
-                }
+        PreparedStatement statement = this.prepare(sql);
+        statement.setString(1, domainKey);
+        try (ResultSet result = statement.executeQuery()) {
+            if (result.next()) {
+                String defaultRole = result.getString("default_role");
+                String displayName = result.getString("display_name");
+                return new DomainData(domainKey, defaultRole, displayName);
+            } else {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public @Nonnull Collection<DomainData> selectDomains() throws SQLException {
+        Collection<DomainData> domains = new ArrayList<>();
+        String sql = "SELECT domain_key, default_role, display_name "
+                   + "FROM Domain; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                String domainKey = result.getString("domain_key");
+                String defaultRole = result.getString("default_role");
+                String displayName = result.getString("display_name");
+                domains.add(new DomainData(domainKey, defaultRole, displayName));
             }
         }
+        return domains;
     }
 
     @Override
@@ -132,73 +641,156 @@ public class SqliteDatabase implements SqlDatabase {
                    + "default_role = excluded.default_role, "
                    + "display_name = excluded.display_name; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
+        PreparedStatement statement = this.prepare(sql);
+        statement.setString(1, domainKey);
+        statement.setString(2, defaultRole);
+        statement.setString(3, displayName);
+        statement.executeUpdate();
+    }
+
+    /**
+     * The titles and exclusive chunks of the domain are deleted by their foreign keys,
+     * and the types of its exclusive chunks are deleted first. The palettes of
+     * partitioned chunks are not rewritten, but the ids of domains are never reused,
+     * so the columns of the domain are decoded as unclaimed.
+     */
+    @Override
+    public void deleteDomain(@Nonnull String domainKey) throws SQLException {
+        String[] sqls = {
+                  "DELETE FROM ClaimableType "
+                + "WHERE ( world_id, chunk_x, chunk_z ) IN ( "
+                + "SELECT world_id, chunk_x, chunk_z FROM ExclusiveChunk "
+                + "WHERE domain_id = ( SELECT domain_id FROM Domain WHERE domain_key = ? ) "
+                + "); "
+                ,
+                  "DELETE FROM Domain "
+                + "WHERE domain_key = ?; "
+        };
+        for (String sql : sqls) {
+            PreparedStatement statement = this.prepare(sql);
             statement.setString(1, domainKey);
-            statement.setString(2, defaultRole);
-            statement.setString(3, displayName);
             statement.executeUpdate();
         }
     }
 
     @Override
-    public void deleteDomain(@Nonnull String domainKey) throws SQLException {
-        String sql = "DELETE FROM Domain "
+    public int selectDomainId(@Nonnull String domainKey) throws SQLException {
+        String sql = "SELECT domain_id "
+                   + "FROM Domain "
                    + "WHERE domain_key = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, domainKey);
-            statement.executeUpdate();
+        PreparedStatement statement = this.prepare(sql);
+        statement.setString(1, domainKey);
+        try (ResultSet result = statement.executeQuery()) {
+            return result.next() ? result.getInt("domain_id") : -1;
+        }
+    }
+
+    @Override
+    public @Nullable String selectDomainKey(int domainId) throws SQLException {
+        String sql = "SELECT domain_key "
+                   + "FROM Domain "
+                   + "WHERE domain_id = ?; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, domainId);
+        try (ResultSet result = statement.executeQuery()) {
+            return result.next() ? result.getString("domain_key") : null;
         }
     }
 
     public @Nullable TitleData selectTitle(@Nonnull String domainKey, @Nonnull String playerUuid) throws SQLException {
-        String sql = "SELECT role, title "
-                   + "FROM Title "
-                   + "WHERE domain_key = ? AND player_uuid = ?; "
+        String sql = "SELECT Title.role, Title.title "
+                   + "FROM Title JOIN Domain ON Domain.domain_id = Title.domain_id "
+                   + "WHERE Domain.domain_key = ? AND Title.player_uuid = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, domainKey);
-            statement.setString(2, playerUuid);
-            try (ResultSet result = statement.executeQuery()) {
-                if (result.next()) {
-                    String role = result.getString("role");
-                    String title = result.getString("title");
-                    return new TitleData(domainKey, playerUuid, role, title);
-                } else {
-                    return null;
-                }
+        PreparedStatement statement = this.prepare(sql);
+        statement.setString(1, domainKey);
+        statement.setBytes(2, SqliteDatabase.uuidBytes(playerUuid));
+        try (ResultSet result = statement.executeQuery()) {
+            if (result.next()) {
+                String role = result.getString("role");
+                String title = result.getString("title");
+                return new TitleData(domainKey, playerUuid, role, title);
+            } else {
+                return null;
             }
         }
     }
 
+    /**
+     * The domain must have been inserted, since the title refers to its id.
+     */
     @Override
     public void upsertTitle(@Nonnull String domainKey, @Nonnull String playerUuid, @Nonnull String role, @Nonnull String title) throws SQLException {
-        String sql = "INSERT INTO Title ( domain_key, player_uuid, role, title ) "
-                   + "VALUES ( ?, ?, ?, ? ) "
-                   + "ON CONFLICT ( domain_key, player_uuid ) "
+        String sql = "INSERT INTO Title ( domain_id, player_uuid, role, title ) "
+                   + "VALUES ( ( SELECT domain_id FROM Domain WHERE domain_key = ? ), ?, ?, ? ) "
+                   + "ON CONFLICT ( domain_id, player_uuid ) "
                    + "DO UPDATE SET "
                    + "role = excluded.role, "
                    + "title = excluded.title; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
+        PreparedStatement statement = this.prepare(sql);
+        statement.setString(1, domainKey);
+        statement.setBytes(2, SqliteDatabase.uuidBytes(playerUuid));
+        statement.setString(3, role);
+        statement.setString(4, title);
+        statement.executeUpdate();
+    }
+
+    @Override
+    public void deleteTitle(@Nonnull String domainKey, @Nonnull String playerUuid) throws SQLException {
+        String sql = "DELETE FROM Title "
+                   + "WHERE domain_id = ( SELECT domain_id FROM Domain WHERE domain_key = ? ) AND player_uuid = ?; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        statement.setString(1, domainKey);
+        statement.setBytes(2, SqliteDatabase.uuidBytes(playerUuid));
+        statement.executeUpdate();
+    }
+
+    @Override
+    public void upsertTitles(@Nonnull String domainKey, @Nonnull Collection<TitleData> titles) throws SQLException {
+        String sql = "INSERT INTO Title ( domain_id, player_uuid, role, title ) "
+                   + "VALUES ( ( SELECT domain_id FROM Domain WHERE domain_key = ? ), ?, ?, ? ) "
+                   + "ON CONFLICT ( domain_id, player_uuid ) "
+                   + "DO UPDATE SET "
+                   + "role = excluded.role, "
+                   + "title = excluded.title; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        for (TitleData title : titles) {
             statement.setString(1, domainKey);
-            statement.setString(2, playerUuid);
-            statement.setString(3, role);
-            statement.setString(4, title);
-            statement.executeUpdate();
+            statement.setBytes(2, SqliteDatabase.uuidBytes(title.playerUuid));
+            statement.setString(3, title.role);
+            statement.setString(4, title.title);
+            statement.addBatch();
         }
+        statement.executeBatch();
     }
 
     @Override
-    public void deleteTitle(@Nonnull String domainKey, @Nonnull String playerUuid) throws SQLException {
+    public void deleteTitles(@Nonnull String domainKey, @Nonnull Collection<String> playerUuids) throws SQLException {
         String sql = "DELETE FROM Title "
-                   + "WHERE domain_key = ? AND player_uuid = ?; "
+                   + "WHERE domain_id = ( SELECT domain_id FROM Domain WHERE domain_key = ? ) AND player_uuid = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
+        PreparedStatement statement = this.prepare(sql);
+        for (String playerUuid : playerUuids) {
             statement.setString(1, domainKey);
-            statement.setString(2, playerUuid);
-            statement.executeUpdate();
+            statement.setBytes(2, SqliteDatabase.uuidBytes(playerUuid));
+            statement.addBatch();
         }
+        statement.executeBatch();
+    }
+
+    @Override
+    public void deleteDomainTitles(@Nonnull String domainKey) throws SQLException {
+        String sql = "DELETE FROM Title "
+                   + "WHERE domain_id = ( SELECT domain_id FROM Domain WHERE domain_key = ? ); "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        statement.setString(1, domainKey);
+        statement.executeUpdate();
     }
 
     /**
@@ -208,41 +800,86 @@ public class SqliteDatabase implements SqlDatabase {
     public @Nonnull Collection<TitleData> selectDomainTitles(@Nonnull String domainKey) throws SQLException {
         Collection<TitleData> titles = new ArrayList<>();
         {
-            String sql = "SELECT player_uuid, role, title "
-                       + "FROM Title "
-                       + "WHERE domain_key = ?; "
+            String sql = "SELECT Title.player_uuid, Title.role, Title.title "
+                       + "FROM Title JOIN Domain ON Domain.domain_id = Title.domain_id "
+                       + "WHERE Domain.domain_key = ?; "
             ;
-            try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-                statement.setString(1, domainKey);
-                try (ResultSet result = statement.executeQuery()) {
-                    while (result.next()) {
-                        String playerUuid = result.getString("player_uuid");
-                        String role = result.getString("role");
-                        String title = result.getString("title");
-                        titles.add(new TitleData(domainKey, playerUuid, role, title));
-                    }
+            PreparedStatement statement = this.prepare(sql);
+            statement.setString(1, domainKey);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    String playerUuid = SqliteDatabase.uuidString(result.getBytes("player_uuid"));
+                    String role = result.getString("role");
+                    String title = result.getString("title");
+                    titles.add(new TitleData(domainKey, playerUuid, role, title));
                 }
             }
         }
         return titles;
     }
 
+    /**
+     * Load a page of the titles granted in a domain. The rows are read in the order
+     * of the primary key, so a page is read without sorting the titles of the domain.
+     */
+    @Override
+    public @Nonnull List<TitleData> selectDomainTitles(@Nonnull String domainKey, int offset, int limit) throws SQLException {
+        List<TitleData> titles = new ArrayList<>();
+        String sql = "SELECT Title.player_uuid, Title.role, Title.title "
+                   + "FROM Title JOIN Domain ON Domain.domain_id = Title.domain_id "
+                   + "WHERE Domain.domain_key = ? "
+                   + "ORDER BY Title.player_uuid "
+                   + "LIMIT ? OFFSET ?; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        statement.setString(1, domainKey);
+        statement.setInt(2, limit);
+        statement.setInt(3, offset);
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                String playerUuid = SqliteDatabase.uuidString(result.getBytes("player_uuid"));
+                String role = result.getString("role");
+                String title = result.getString("title");
+                titles.add(new TitleData(domainKey, playerUuid, role, title));
+            }
+        }
+        return titles;
+    }
+
     @Override
     public @Nonnull Collection<TitleData> selectPlayerTitles(@Nonnull String playerUuid) throws SQLException {
         Collection<TitleData> titles = new ArrayList<>();
-        String sql = "SELECT domain_key, role, title "
-                   + "FROM Title "
-                   + "WHERE player_uuid = ?; "
+        String sql = "SELECT Domain.domain_key, Title.role, Title.title "
+                   + "FROM Title JOIN Domain ON Domain.domain_id = Title.domain_id "
+                   + "WHERE Title.player_uuid = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, playerUuid);
-            try (ResultSet result = statement.executeQuery()) {
-                while (result.next()) {
-                    String sDomainKey = result.getString("domain_key");
-                    String sRole = result.getString("role");
-                    String title = result.getString("title");
-                    titles.add(new TitleData(sDomainKey, playerUuid, sRole, title));
-                }
+        PreparedStatement statement = this.prepare(sql);
+        statement.setBytes(1, SqliteDatabase.uuidBytes(playerUuid));
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                String sDomainKey = result.getString("domain_key");
+                String sRole = result.getString("role");
+                String title = result.getString("title");
+                titles.add(new TitleData(sDomainKey, playerUuid, sRole, title));
+            }
+        }
+        return titles;
+    }
+
+    @Override
+    public @Nonnull Collection<TitleData> selectTitles() throws SQLException {
+        Collection<TitleData> titles = new ArrayList<>();
+        String sql = "SELECT Domain.domain_key, Title.player_uuid, Title.role, Title.title "
+                   + "FROM Title JOIN Domain ON Domain.domain_id = Title.domain_id; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                String domainKey = result.getString("domain_key");
+                String playerUuid = SqliteDatabase.uuidString(result.getBytes("player_uuid"));
+                String role = result.getString("role");
+                String title = result.getString("title");
+                titles.add(new TitleData(domainKey, playerUuid, role, title));
             }
         }
         return titles;
@@ -250,195 +887,398 @@ public class SqliteDatabase implements SqlDatabase {
 
     @Override
     public @Nullable String selectChunkType(@Nonnull String worldUuid, int chunkX, int chunkZ) throws SQLException {
-        String sql = "SELECT domain_key "
+        String sql = "SELECT type "
                    + "FROM ClaimableType "
-                   + "WHERE world_uuid = ? AND chunk_x = ? AND chunk_z = ?; "
+                   + "WHERE world_id = ? AND chunk_x = ? AND chunk_z = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            try (ResultSet result = statement.executeQuery()) {
-                if (result.next()) {
-                    return result.getString("domain_key");
-                } else {
-                    return null;
-                }
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, this.selectWorldId(worldUuid));
+        statement.setInt(2, chunkX);
+        statement.setInt(3, chunkZ);
+        try (ResultSet result = statement.executeQuery()) {
+            if (result.next()) {
+                return result.getString("type");
+            } else {
+                return null;
             }
         }
     }
 
     @Override
     public void upsertChunkType(@Nonnull String worldUuid, int chunkX, int chunkZ, @Nonnull String type) throws SQLException {
-        String sql = "INSERT INTO ClaimableType ( world_uuid, chunk_x, chunk_z, type ) "
+        String sql = "INSERT INTO ClaimableType ( world_id, chunk_x, chunk_z, type ) "
                    + "VALUES ( ?, ?, ?, ? ) "
-                   + "ON CONFLICT ( world_uuid, chunk_x, chunk_z ) "
+                   + "ON CONFLICT ( world_id, chunk_x, chunk_z ) "
                    + "DO UPDATE SET "
-                   + "type = excluded.type; "
+                   + "type = excluded.type "
+                   + "WHERE type <> excluded.type; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.setString(4, type);
-            statement.executeUpdate();
-        }
+        int worldId = this.upsertWorldId(worldUuid);
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, worldId);
+        statement.setInt(2, chunkX);
+        statement.setInt(3, chunkZ);
+        statement.setString(4, type);
+        statement.executeUpdate();
     }
 
     @Override
     public void deleteChunkType(@Nonnull String worldUuid, int chunkX, int chunkZ) throws SQLException {
         String sql = "DELETE FROM ClaimableType "
-                   + "WHERE world_uuid = ? AND chunk_x = ? AND chunk_z = ?; "
+                   + "WHERE world_id = ? AND chunk_x = ? AND chunk_z = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.executeUpdate();
-        }
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, this.selectWorldId(worldUuid));
+        statement.setInt(2, chunkX);
+        statement.setInt(3, chunkZ);
+        statement.executeUpdate();
     }
 
     @Override
     public @Nullable String selectExclusiveChunk(@Nonnull String worldUuid, int chunkX, int chunkZ) throws SQLException {
-        String sql = "SELECT domain_key "
-                   + "FROM ExclusiveChunk "
-                   + "WHERE world_uuid = ? AND chunk_x = ? AND chunk_z = ?; "
+        String sql = "SELECT Domain.domain_key "
+                   + "FROM ExclusiveChunk JOIN Domain ON Domain.domain_id = ExclusiveChunk.domain_id "
+                   + "WHERE ExclusiveChunk.world_id = ? AND ExclusiveChunk.chunk_x = ? AND ExclusiveChunk.chunk_z = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            try (ResultSet result = statement.executeQuery()) {
-                if (result.next()) {
-                    return result.getString("domain_key");
-                } else {
-                    return null;
-                }
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, this.selectWorldId(worldUuid));
+        statement.setInt(2, chunkX);
+        statement.setInt(3, chunkZ);
+        try (ResultSet result = statement.executeQuery()) {
+            if (result.next()) {
+                return result.getString("domain_key");
+            } else {
+                return null;
             }
         }
     }
 
+    /**
+     * The domain must have been inserted, since the chunk refers to its id.
+     */
     @Override
     public void upsertExclusiveChunk(@Nonnull String worldUuid, int chunkX, int chunkZ, @Nonnull String domainKey) throws SQLException {
-        String sql = "INSERT INTO ExclusiveChunk ( world_uuid, chunk_x, chunk_z, domain_key ) "
-                   + "VALUES ( ?, ?, ?, ? ) "
-                   + "ON CONFLICT ( world_uuid, chunk_x, chunk_z ) "
+        String sql = "INSERT INTO ExclusiveChunk ( world_id, chunk_x, chunk_z, domain_id ) "
+                   + "VALUES ( ?, ?, ?, ( SELECT domain_id FROM Domain WHERE domain_key = ? ) ) "
+                   + "ON CONFLICT ( world_id, chunk_x, chunk_z ) "
                    + "DO UPDATE SET "
-                   + "domain_key = excluded.domain_key; "
+                   + "domain_id = excluded.domain_id "
+                   + "WHERE domain_id <> excluded.domain_id; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.setString(4, domainKey);
-            statement.executeUpdate();
-        }
+        int worldId = this.upsertWorldId(worldUuid);
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, worldId);
+        statement.setInt(2, chunkX);
+        statement.setInt(3, chunkZ);
+        statement.setString(4, domainKey);
+        statement.executeUpdate();
     }
 
     @Override
     public void deleteExclusiveChunk(@Nonnull String worldUuid, int chunkX, int chunkZ) throws SQLException {
         String sql = "DELETE FROM ExclusiveChunk "
-                   + "WHERE world_uuid = ? AND chunk_x = ? AND chunk_z = ?; "
+                   + "WHERE world_id = ? AND chunk_x = ? AND chunk_z = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.executeUpdate();
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, this.selectWorldId(worldUuid));
+        statement.setInt(2, chunkX);
+        statement.setInt(3, chunkZ);
+        statement.executeUpdate();
+    }
+
+    @Override
+    public @Nonnull Collection<ExclusiveChunkData> selectExclusiveChunks() throws SQLException {
+        Collection<ExclusiveChunkData> chunks = new ArrayList<>();
+        String sql = "SELECT World.world_uuid, ExclusiveChunk.chunk_x, ExclusiveChunk.chunk_z, Domain.domain_key "
+                   + "FROM ExclusiveChunk "
+                   + "JOIN World ON World.world_id = ExclusiveChunk.world_id "
+                   + "JOIN Domain ON Domain.domain_id = ExclusiveChunk.domain_id; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                String worldUuid = SqliteDatabase.uuidString(result.getBytes("world_uuid"));
+                int chunkX = result.getInt("chunk_x");
+                int chunkZ = result.getInt("chunk_z");
+                String domainKey = result.getString("domain_key");
+                chunks.add(new ExclusiveChunkData(worldUuid, chunkX, chunkZ, domainKey));
+            }
         }
+        return chunks;
     }
 
     @Override
-    public @Nonnull String[] selectPartitionedChunk(String worldUuid, int chunkX, int chunkZ) throws SQLException {
-        String[] columns = new String[16 * 16];
-        String sql = "SELECT column_number, domain_key "
-                   + "FROM PartitionedChunkColumn "
-                   + "WHERE world_uuid = ? AND chunk_x = ? AND chunk_z = ?; "
+    public @Nonnull Collection<ExclusiveChunkData> selectExclusiveChunks(@Nonnull String worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) throws SQLException {
+        Collection<ExclusiveChunkData> chunks = new ArrayList<>();
+        String sql = "SELECT ExclusiveChunk.chunk_x, ExclusiveChunk.chunk_z, Domain.domain_key "
+                   + "FROM ExclusiveChunk JOIN Domain ON Domain.domain_id = ExclusiveChunk.domain_id "
+                   + "WHERE ExclusiveChunk.world_id = ? "
+                   + "AND ExclusiveChunk.chunk_x BETWEEN ? AND ? "
+                   + "AND ExclusiveChunk.chunk_z BETWEEN ? AND ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    int columnNumber = resultSet.getInt("column_number");
-                    String sDomainKey = resultSet.getString("domain_key");
-                    columns[columnNumber] = sDomainKey;
-                }
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, this.selectWorldId(worldUuid));
+        statement.setInt(2, minChunkX);
+        statement.setInt(3, maxChunkX);
+        statement.setInt(4, minChunkZ);
+        statement.setInt(5, maxChunkZ);
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                int chunkX = result.getInt("chunk_x");
+                int chunkZ = result.getInt("chunk_z");
+                String domainKey = result.getString("domain_key");
+                chunks.add(new ExclusiveChunkData(worldUuid, chunkX, chunkZ, domainKey));
             }
         }
-        return columns;
+        return chunks;
     }
 
     @Override
-    public @Nullable String selectPartitionedChunkColumn(@Nonnull String worldUuid, int chunkX, int chunkZ, int columnNumber) throws SQLException {
-        String sql = "SELECT domain_key "
-                   + "FROM PartitionedChunkColumn "
-                   + "WHERE world_uuid = ? AND chunk_x = ? AND chunk_z = ? AND column_number = ?; "
+    public @Nullable byte[] selectPartitionedChunk(@Nonnull String worldUuid, int chunkX, int chunkZ) throws SQLException {
+        String sql = "SELECT claims "
+                   + "FROM PartitionedChunk "
+                   + "WHERE world_id = ? AND chunk_x = ? AND chunk_z = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.setInt(4, columnNumber);
-            try (ResultSet result = statement.executeQuery()) {
-                if (result.next()) {
-                    return result.getString("domain_key");
-                } else {
-                    return null;
-                }
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, this.selectWorldId(worldUuid));
+        statement.setInt(2, chunkX);
+        statement.setInt(3, chunkZ);
+        try (ResultSet result = statement.executeQuery()) {
+            if (result.next()) {
+                return result.getBytes("claims");
+            } else {
+                return null;
             }
         }
     }
 
     @Override
-    public void upsertPartitionedChunkColumn(@Nonnull String worldUuid, int chunkX, int chunkZ, int columnNumber, @Nonnull String domainKey) throws SQLException {
-        String sql = "INSERT INTO PartitionedChunkColumn ( world_uuid, chunk_x, chunk_z, column_number, domain_key ) "
-                   + "VALUES ( ?, ?, ?, ?, ? ) "
-                   + "ON CONFLICT ( world_uuid, chunk_x, chunk_z ) "
+    public @Nullable ChunkData selectChunk(@Nonnull String worldUuid, int chunkX, int chunkZ) throws SQLException {
+        String sql = "SELECT ClaimableType.type, Domain.domain_key, PartitionedChunk.claims "
+                   + "FROM ClaimableType "
+                   + "LEFT JOIN ExclusiveChunk ON ExclusiveChunk.world_id = ClaimableType.world_id "
+                   + "AND ExclusiveChunk.chunk_x = ClaimableType.chunk_x AND ExclusiveChunk.chunk_z = ClaimableType.chunk_z "
+                   + "LEFT JOIN Domain ON Domain.domain_id = ExclusiveChunk.domain_id "
+                   + "LEFT JOIN PartitionedChunk ON PartitionedChunk.world_id = ClaimableType.world_id "
+                   + "AND PartitionedChunk.chunk_x = ClaimableType.chunk_x AND PartitionedChunk.chunk_z = ClaimableType.chunk_z "
+                   + "WHERE ClaimableType.world_id = ? AND ClaimableType.chunk_x = ? AND ClaimableType.chunk_z = ?; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, this.selectWorldId(worldUuid));
+        statement.setInt(2, chunkX);
+        statement.setInt(3, chunkZ);
+        try (ResultSet result = statement.executeQuery()) {
+            if (!result.next()) {
+                return null;
+            }
+            String type = result.getString("type");
+            String domainKey = result.getString("domain_key");
+            if (ChunkType.EXCLUSIVE.name().equals(type)) {
+                // The type is deleted along with the exclusive claim, so this only
+                // happens if the claim was deleted without it.
+                return domainKey != null ? new ExclusiveChunkData(worldUuid, chunkX, chunkZ, domainKey) : null;
+            } else {
+                return new PartitionedChunkData(worldUuid, chunkX, chunkZ, result.getBytes("claims"));
+            }
+        }
+    }
+
+    @Override
+    public void upsertPartitionedChunk(@Nonnull String worldUuid, int chunkX, int chunkZ, @Nonnull byte[] claims) throws SQLException {
+        String sql = "INSERT INTO PartitionedChunk ( world_id, chunk_x, chunk_z, claims ) "
+                   + "VALUES ( ?, ?, ?, ? ) "
+                   + "ON CONFLICT ( world_id, chunk_x, chunk_z ) "
                    + "DO UPDATE SET "
-                   + "column_number = excluded.column_number, "
-                   + "domain_key = excluded.domain_key; "
+                   + "claims = excluded.claims "
+                   + "WHERE claims <> excluded.claims; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.setInt(4, columnNumber);
-            statement.setString(5, domainKey);
-            statement.executeUpdate();
+        int worldId = this.upsertWorldId(worldUuid);
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, worldId);
+        statement.setInt(2, chunkX);
+        statement.setInt(3, chunkZ);
+        statement.setBytes(4, claims);
+        statement.executeUpdate();
+    }
+
+    @Override
+    public void deletePartitionedChunk(@Nonnull String worldUuid, int chunkX, int chunkZ) throws SQLException {
+        String sql = "DELETE FROM PartitionedChunk "
+                   + "WHERE world_id = ? AND chunk_x = ? AND chunk_z = ?; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, this.selectWorldId(worldUuid));
+        statement.setInt(2, chunkX);
+        statement.setInt(3, chunkZ);
+        statement.executeUpdate();
+    }
+
+    @Override
+    public @Nonnull Collection<PartitionedChunkData> selectPartitionedChunks() throws SQLException {
+        Collection<PartitionedChunkData> chunks = new ArrayList<>();
+        String sql = "SELECT World.world_uuid, PartitionedChunk.chunk_x, PartitionedChunk.chunk_z, PartitionedChunk.claims "
+                   + "FROM PartitionedChunk "
+                   + "JOIN World ON World.world_id = PartitionedChunk.world_id; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                String worldUuid = SqliteDatabase.uuidString(result.getBytes("world_uuid"));
+                int chunkX = result.getInt("chunk_x");
+                int chunkZ = result.getInt("chunk_z");
+                byte[] claims = result.getBytes("claims");
+                chunks.add(new PartitionedChunkData(worldUuid, chunkX, chunkZ, claims));
+            }
         }
+        return chunks;
     }
 
     @Override
-    public void deletePartitionedChunkColumn(@Nonnull String worldUuid, int chunkX, int chunkZ, int columnNumber) throws SQLException {
-        String sql = "DELETE FROM PartitionedChunkColumn "
-                   + "WHERE world_uuid = ? AND chunk_x = ? AND chunk_z = ? AND column_number = ?; "
+    public @Nonnull Collection<PartitionedChunkData> selectPartitionedChunks(@Nonnull String worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) throws SQLException {
+        Collection<PartitionedChunkData> chunks = new ArrayList<>();
+        String sql = "SELECT chunk_x, chunk_z, claims "
+                   + "FROM PartitionedChunk "
+                   + "WHERE world_id = ? "
+                   + "AND chunk_x BETWEEN ? AND ? "
+                   + "AND chunk_z BETWEEN ? AND ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.setInt(4, columnNumber);
-            statement.executeUpdate();
+        PreparedStatement statement = this.prepare(sql);
+        statement.setInt(1, this.selectWorldId(worldUuid));
+        statement.setInt(2, minChunkX);
+        statement.setInt(3, maxChunkX);
+        statement.setInt(4, minChunkZ);
+        statement.setInt(5, maxChunkZ);
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                int chunkX = result.getInt("chunk_x");
+                int chunkZ = result.getInt("chunk_z");
+                byte[] claims = result.getBytes("claims");
+                chunks.add(new PartitionedChunkData(worldUuid, chunkX, chunkZ, claims));
+            }
         }
+        return chunks;
     }
 
     @Override
-    public void deletePartitionedChunk(@Nonnull String worldUuid, int chunkX, int chunkZ) throws SQLException {
-        String sql = "DELETE FROM PartitionedChunkColumn "
-                   + "WHERE worldUuid = ? AND chunk_x = ? AND chunk_z = ?; "
+    public void deleteChunks(@Nonnull Collection<? extends ChunkData> chunks) throws SQLException {
+        String[] sqls = {
+                  "DELETE FROM ClaimableType "
+                + "WHERE world_id = ? AND chunk_x = ? AND chunk_z = ?; "
+                ,
+                  "DELETE FROM ExclusiveChunk "
+                + "WHERE world_id = ? AND chunk_x = ? AND chunk_z = ?; "
+                ,
+                  "DELETE FROM PartitionedChunk "
+                + "WHERE world_id = ? AND chunk_x = ? AND chunk_z = ?; "
+        };
+        for (String sql : sqls) {
+            PreparedStatement statement = this.prepare(sql);
+            for (ChunkData chunk : chunks) {
+                statement.setInt(1, this.selectWorldId(chunk.worldUuid));
+                statement.setInt(2, chunk.chunkX);
+                statement.setInt(3, chunk.chunkZ);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    @Override
+    public void deleteExclusiveChunks(@Nonnull Collection<? extends ChunkData> chunks) throws SQLException {
+        String sql = "DELETE FROM ExclusiveChunk "
+                   + "WHERE world_id = ? AND chunk_x = ? AND chunk_z = ?; "
         ;
-        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
-            statement.setString(1, worldUuid);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.executeUpdate();
+        PreparedStatement statement = this.prepare(sql);
+        for (ChunkData chunk : chunks) {
+            statement.setInt(1, this.selectWorldId(chunk.worldUuid));
+            statement.setInt(2, chunk.chunkX);
+            statement.setInt(3, chunk.chunkZ);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    @Override
+    public void deletePartitionedChunks(@Nonnull Collection<? extends ChunkData> chunks) throws SQLException {
+        String sql = "DELETE FROM PartitionedChunk "
+                   + "WHERE world_id = ? AND chunk_x = ? AND chunk_z = ?; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        for (ChunkData chunk : chunks) {
+            statement.setInt(1, this.selectWorldId(chunk.worldUuid));
+            statement.setInt(2, chunk.chunkX);
+            statement.setInt(3, chunk.chunkZ);
+            statement.addBatch();
         }
+        statement.executeBatch();
+    }
+
+    @Override
+    public void upsertChunkTypes(@Nonnull Collection<? extends ChunkData> chunks, @Nonnull String type) throws SQLException {
+        String sql = "INSERT INTO ClaimableType ( world_id, chunk_x, chunk_z, type ) "
+                   + "VALUES ( ?, ?, ?, ? ) "
+                   + "ON CONFLICT ( world_id, chunk_x, chunk_z ) "
+                   + "DO UPDATE SET "
+                   + "type = excluded.type "
+                   + "WHERE type <> excluded.type; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        for (ChunkData chunk : chunks) {
+            statement.setInt(1, this.upsertWorldId(chunk.worldUuid));
+            statement.setInt(2, chunk.chunkX);
+            statement.setInt(3, chunk.chunkZ);
+            statement.setString(4, type);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    @Override
+    public void upsertExclusiveChunks(@Nonnull Collection<ExclusiveChunkData> chunks) throws SQLException {
+        String sql = "INSERT INTO ExclusiveChunk ( world_id, chunk_x, chunk_z, domain_id ) "
+                   + "VALUES ( ?, ?, ?, ( SELECT domain_id FROM Domain WHERE domain_key = ? ) ) "
+                   + "ON CONFLICT ( world_id, chunk_x, chunk_z ) "
+                   + "DO UPDATE SET "
+                   + "domain_id = excluded.domain_id "
+                   + "WHERE domain_id <> excluded.domain_id; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        for (ExclusiveChunkData chunk : chunks) {
+            statement.setInt(1, this.upsertWorldId(chunk.worldUuid));
+            statement.setInt(2, chunk.chunkX);
+            statement.setInt(3, chunk.chunkZ);
+            statement.setString(4, chunk.domainKey);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    @Override
+    public void upsertPartitionedChunks(@Nonnull Collection<PartitionedChunkData> chunks) throws SQLException {
+        String sql = "INSERT INTO PartitionedChunk ( world_id, chunk_x, chunk_z, claims ) "
+                   + "VALUES ( ?, ?, ?, ? ) "
+                   + "ON CONFLICT ( world_id, chunk_x, chunk_z ) "
+                   + "DO UPDATE SET "
+                   + "claims = excluded.claims "
+                   + "WHERE claims <> excluded.claims; "
+        ;
+        PreparedStatement statement = this.prepare(sql);
+        for (PartitionedChunkData chunk : chunks) {
+            statement.setInt(1, this.upsertWorldId(chunk.worldUuid));
+            statement.setInt(2, chunk.chunkX);
+            statement.setInt(3, chunk.chunkZ);
+            statement.setBytes(4, chunk.claims);
+            statement.addBatch();
+        }
+        statement.executeBatch();
     }
 
     @Override
     public void close() throws SQLException {
+        for (PreparedStatement statement : this.statements.values()) {
+            statement.close();
+        }
+        this.statements.clear();
         this.connection.close();
     }
 
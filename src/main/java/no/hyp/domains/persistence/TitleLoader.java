@@ -0,0 +1,25 @@
+package no.hyp.domains.persistence;
+
+import no.hyp.domains.Key;
+import no.hyp.domains.Title;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Loads the titles of a domain whose titles are loaded on demand, one player at a
+ * time or all at once.
+ */
+public interface TitleLoader {
+
+    /**
+     * Load the title of a player in a domain.
+     *
+     * @return The title, or empty if the player has no title in the domain.
+     */
+    Optional<Title> loadTitle(Key domainKey, UUID playerUuid) throws RepositoryException;
+
+    Collection<Title> loadDomainTitles(Key domainKey) throws RepositoryException;
+
+}
@@ -0,0 +1,404 @@
+package no.hyp.domains.persistence;
+
+import no.hyp.domains.*;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A repository that performs writes in the background on a single I/O thread.
+ *
+ * Saves and deletes return immediately, and are executed later by the I/O thread in
+ * the order they were queued. If an entity is written again before its previous
+ * write has been executed, the writes are coalesced and only the latest is executed.
+ * A coalesced domain write keeps the place of the first write, while a coalesced chunk
+ * write takes the place of the latest. Chunk writes are thereby always executed after
+ * the writes of the domains they reference, since those keep a place before them.
+ * Reads are also executed on the I/O thread, after all previously queued writes, so the
+ * underlying repository is only ever accessed by one thread.
+ *
+ * If reading repositories are given, such as repositories on read-only connections to
+ * the same database, reads are instead executed on the calling thread by one of them
+ * whenever every queued write has been persisted. Such reads see every write made so
+ * far and do not wait for the I/O thread.
+ *
+ * Since saves return before they are persisted, errors are logged rather than thrown.
+ * Call {@link #flush()} to wait until all queued writes are persisted.
+ */
+public class WriteBehindRepository implements Repository {
+
+    private final Repository repository;
+
+    private final Logger logger;
+
+    private final ExecutorService executor;
+
+    /**
+     * The queued writes that have not been executed yet, by the entity they write.
+     */
+    private final ConcurrentMap<String, Write> pending;
+
+    /**
+     * The queued domain saves, by domain, whose title changes are merged until the
+     * save is executed. Guarded by itself.
+     */
+    private final Map<Key, DomainWrite> pendingDomains;
+
+    /**
+     * The number of batches queued so far, for giving each batch a unique id.
+     */
+    private final AtomicLong batches;
+
+    /**
+     * The number of queued writes that have not been persisted yet, including the
+     * write being executed.
+     */
+    private final AtomicInteger unpersisted;
+
+    /**
+     * The idle reading repositories.
+     */
+    private final BlockingQueue<Repository> readers;
+
+    private final List<Repository> allReaders;
+
+    public WriteBehindRepository(Repository repository, Logger logger) {
+        this(repository, Collections.emptyList(), logger);
+    }
+
+    /**
+     * @param readers Repositories reading the same data as the repository, that can be
+     *                used from other threads than the I/O thread.
+     */
+    public WriteBehindRepository(Repository repository, Collection<? extends Repository> readers, Logger logger) {
+        this.repository = repository;
+        this.logger = logger;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Domains I/O");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pending = new ConcurrentHashMap<>();
+        this.pendingDomains = new HashMap<>();
+        this.batches = new AtomicLong();
+        this.unpersisted = new AtomicInteger();
+        this.readers = new LinkedBlockingQueue<>(readers);
+        this.allReaders = new ArrayList<>(readers);
+    }
+
+    @FunctionalInterface
+    private interface Write {
+
+        void write(Repository repository) throws RepositoryException;
+
+    }
+
+    @FunctionalInterface
+    private interface Read<T> {
+
+        T read(Repository repository) throws RepositoryException;
+
+    }
+
+    private static String domainId(Key domainKey) {
+        return "domain:" + domainKey;
+    }
+
+    private static String chunkId(UUID worldUuid, int chunkX, int chunkZ) {
+        return "chunk:" + worldUuid + ":" + chunkX + ":" + chunkZ;
+    }
+
+    /**
+     * Queue a write of an entity. If a write of the same entity is already queued,
+     * it is replaced by this write, which is executed in its place.
+     */
+    private void queue(String id, Write write) {
+        if (this.pending.put(id, write) == null) {
+            this.unpersisted.incrementAndGet();
+            this.executor.execute(() -> {
+                try {
+                    Write latest = this.pending.remove(id);
+                    if (latest != null) {
+                        latest.write(this.repository);
+                    }
+                } catch (RepositoryException | RuntimeException e) {
+                    this.logger.log(Level.SEVERE, String.format("Could not persist %s.", id), e);
+                } finally {
+                    this.unpersisted.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Queue a write of an entity after every queued write. If a write of the same
+     * entity is already queued, it is replaced by this write, and is skipped when
+     * its place in the queue is reached.
+     */
+    private void queueLast(String id, Write write) {
+        this.pending.put(id, write);
+        this.unpersisted.incrementAndGet();
+        this.executor.execute(() -> {
+            try {
+                // The write is only executed if it has not been replaced or dropped since.
+                if (this.pending.remove(id, write)) {
+                    write.write(this.repository);
+                }
+            } catch (RepositoryException | RuntimeException e) {
+                this.logger.log(Level.SEVERE, String.format("Could not persist %s.", id), e);
+            } finally {
+                this.unpersisted.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Execute a read on an idle reading repository if every write has been persisted,
+     * and otherwise on the I/O thread after the queued writes.
+     */
+    private <T> T read(Read<T> read) throws RepositoryException {
+        Repository reader = this.readers.poll();
+        if (reader != null) {
+            try {
+                if (this.unpersisted.get() == 0) {
+                    return read.read(reader);
+                }
+            } finally {
+                this.readers.add(reader);
+            }
+        }
+        return this.readQueued(read);
+    }
+
+    /**
+     * Execute a read on the I/O thread and wait for the result.
+     */
+    private <T> T readQueued(Read<T> read) throws RepositoryException {
+        Future<T> future = this.executor.submit(() -> read.read(this.repository));
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for the database.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) e.getCause();
+            }
+            throw new RepositoryException("Error while reading from the database.", e.getCause());
+        }
+    }
+
+    /**
+     * The number of queued writes that have not been executed yet.
+     */
+    public int getPendingWrites() {
+        return this.pending.size();
+    }
+
+    /**
+     * Wait until every write queued before this call has been executed.
+     */
+    @Override
+    public void flush() throws RepositoryException {
+        this.readQueued(repository -> {
+            repository.flush();
+            return null;
+        });
+    }
+
+    @Override
+    public Optional<Domain> loadDomain(Key domainKey) throws RepositoryException {
+        Optional<Domain> domain = this.read(repository -> repository.loadDomain(domainKey));
+        // Titles loaded on demand are read through this repository, since the repository that loaded the domain belongs to another thread.
+        return domain.map(d -> d.hasAllTitles() ? d : new Domain(d.getKey(), d.getDefaultRole(), d.getDisplayName().orElse(null), this));
+    }
+
+    @Override
+    public Collection<Domain> loadDomains() throws RepositoryException {
+        return this.read(Repository::loadDomains);
+    }
+
+    @Override
+    public Collection<Domain> loadDomains(TitleLoader titleLoader) throws RepositoryException {
+        return this.read(repository -> repository.loadDomains(titleLoader));
+    }
+
+    /**
+     * Queue a save of the domain. The title changes are merged with those of a queued
+     * save of the same domain, so that no change is lost when the save is replaced.
+     */
+    @Override
+    public void saveDomain(Domain domain, @Nullable Map<UUID, Title> titleChanges) throws RepositoryException {
+        Key domainKey = domain.getKey();
+        synchronized (this.pendingDomains) {
+            DomainWrite previous = this.pendingDomains.get(domainKey);
+            DomainWrite write;
+            if (titleChanges == null || (previous != null && previous.titleChanges == null)) {
+                // The domain is mutable, so write a copy of its current state when every title is written.
+                Domain copy = new Domain(domainKey, domain.getDefaultRole(), domain.getDisplayName().orElse(null), new HashMap<>(domain.getTitles()));
+                write = new DomainWrite(copy, null);
+            } else if (previous != null) {
+                previous.titleChanges.putAll(titleChanges);
+                write = new DomainWrite(domain, previous.titleChanges);
+            } else {
+                write = new DomainWrite(domain, new HashMap<>(titleChanges));
+            }
+            this.pendingDomains.put(domainKey, write);
+        }
+        this.queue(WriteBehindRepository.domainId(domainKey), repository -> {
+            DomainWrite write;
+            synchronized (this.pendingDomains) {
+                write = this.pendingDomains.remove(domainKey);
+            }
+            if (write != null) {
+                repository.saveDomain(write.domain, write.titleChanges);
+            }
+        });
+    }
+
+    @Override
+    public void deleteDomain(Key domainKey) throws RepositoryException {
+        synchronized (this.pendingDomains) {
+            this.pendingDomains.remove(domainKey);
+        }
+        this.queue(WriteBehindRepository.domainId(domainKey), repository -> repository.deleteDomain(domainKey));
+    }
+
+    @Override
+    public ChunkType loadChunkType(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        return this.read(repository -> repository.loadChunkType(worldUuid, chunkX, chunkZ));
+    }
+
+    @Override
+    public Optional<ExclusiveChunk> loadExclusiveChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        return this.read(repository -> repository.loadExclusiveChunk(worldUuid, chunkX, chunkZ));
+    }
+
+    @Override
+    public void saveExclusiveChunk(ExclusiveChunk chunk) throws RepositoryException {
+        String id = WriteBehindRepository.chunkId(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ());
+        this.queueLast(id, repository -> repository.saveExclusiveChunk(chunk));
+    }
+
+    @Override
+    public Optional<PartitionedChunk> loadPartitionedChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        return this.read(repository -> repository.loadPartitionedChunk(worldUuid, chunkX, chunkZ));
+    }
+
+    @Override
+    public Optional<ClaimedChunk> loadChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        return this.read(repository -> repository.loadChunk(worldUuid, chunkX, chunkZ));
+    }
+
+    @Override
+    public void savePartitionedChunk(PartitionedChunk chunk) throws RepositoryException {
+        // The chunk is mutable, so write a copy of its current state.
+        PartitionedChunk copy = chunk.copy();
+        String id = WriteBehindRepository.chunkId(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ());
+        this.queueLast(id, repository -> repository.savePartitionedChunk(copy));
+    }
+
+    @Override
+    public void deleteChunk(UUID worldUuid, int chunkX, int chunkZ) throws RepositoryException {
+        String id = WriteBehindRepository.chunkId(worldUuid, chunkX, chunkZ);
+        this.queueLast(id, repository -> repository.deleteChunk(worldUuid, chunkX, chunkZ));
+    }
+
+    /**
+     * Queue the batch as a single write. Queued writes of chunks in the batch have
+     * not been executed yet and are superseded by the batch, so they are dropped.
+     * Their places in the queue only execute the write they were queued with, so a
+     * later save of the same chunk is executed after the batch rather than before it.
+     */
+    @Override
+    public void saveChunks(ChunkBatch batch) throws RepositoryException {
+        for (ClaimedChunk chunk : batch.getSaved()) {
+            this.pending.remove(WriteBehindRepository.chunkId(chunk.getWorldUuid(), chunk.getChunkX(), chunk.getChunkZ()));
+        }
+        for (ChunkBatch.Position position : batch.getDeleted()) {
+            this.pending.remove(WriteBehindRepository.chunkId(position.getWorldUuid(), position.getChunkX(), position.getChunkZ()));
+        }
+        this.queue("batch:" + this.batches.incrementAndGet(), repository -> repository.saveChunks(batch));
+    }
+
+    @Override
+    public Collection<ClaimedChunk> loadChunks() throws RepositoryException {
+        return this.read(Repository::loadChunks);
+    }
+
+    @Override
+    public Collection<ClaimedChunk> loadChunks(UUID worldUuid, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) throws RepositoryException {
+        return this.read(repository -> repository.loadChunks(worldUuid, minChunkX, minChunkZ, maxChunkX, maxChunkZ));
+    }
+
+    @Override
+    public Collection<Title> loadPlayerTitles(UUID playerUuid) throws RepositoryException {
+        return this.read(repository -> repository.loadPlayerTitles(playerUuid));
+    }
+
+    @Override
+    public Collection<Title> loadDomainTitles(Key domainKey) throws RepositoryException {
+        return this.read(repository -> repository.loadDomainTitles(domainKey));
+    }
+
+    @Override
+    public Optional<Title> loadTitle(Key domainKey, UUID playerUuid) throws RepositoryException {
+        return this.read(repository -> repository.loadTitle(domainKey, playerUuid));
+    }
+
+    @Override
+    public List<Title> loadDomainTitles(Key domainKey, int offset, int limit) throws RepositoryException {
+        return this.read(repository -> repository.loadDomainTitles(domainKey, offset, limit));
+    }
+
+    /**
+     * Resolve the domain in a single round trip to the I/O thread.
+     */
+    @Override
+    public @Nullable Domain getDomain(UUID worldUuid, int x, int z) throws RepositoryException {
+        return this.read(repository -> repository.getDomain(worldUuid, x, z));
+    }
+
+    /**
+     * Persist all queued writes, stop the I/O thread and close the underlying and reading repositories.
+     */
+    @Override
+    public void close() throws RepositoryException {
+        this.flush();
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                this.logger.severe("The I/O thread did not terminate in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Repository reader : this.allReaders) {
+            reader.close();
+        }
+        this.repository.close();
+    }
+
+    /**
+     * A queued domain save. Only the immutable fields of the domain are read, unless
+     * the title changes are null and the domain is a copy.
+     */
+    private static final class DomainWrite {
+
+        private final Domain domain;
+
+        private final @Nullable Map<UUID, Title> titleChanges;
+
+        private DomainWrite(Domain domain, @Nullable Map<UUID, Title> titleChanges) {
+            this.domain = domain;
+            this.titleChanges = titleChanges;
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+package no.hyp.domains.persistence;
+
+import no.hyp.domains.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SqlRepositoryTest {
+
+    private static final UUID WORLD_UUID = new UUID(0x0123456789ABCDEFL, 0xFEDCBA9876543210L);
+
+    private static final UUID PLAYER_UUID = new UUID(0x1L, 0x2L);
+
+    private File file;
+
+    private SqliteDatabase database;
+
+    private DomainIdCache domainIdCache;
+
+    private SqlRepository repository;
+
+    @BeforeEach
+    public void open() throws IOException, SQLException {
+        this.file = File.createTempFile("domains", ".db");
+        this.database = new SqliteDatabase(this.file.getAbsolutePath());
+        this.database.upgradeDatabase();
+        this.domainIdCache = new DomainIdCache();
+        this.repository = new SqlRepository(this.database, this.domainIdCache);
+    }
+
+    @AfterEach
+    public void close() throws RepositoryException {
+        this.repository.close();
+        this.file.delete();
+    }
+
+    /**
+     * Deleting a domain deletes its titles and claims, and leaves the claims of other
+     * domains in place.
+     */
+    @Test
+    public void deleteDomainDeletesTitlesAndClaims() throws RepositoryException, SQLException {
+        Key deletedKey = Key.of("deleted");
+        Key keptKey = Key.of("kept");
+        for (Key domainKey : new Key[] { deletedKey, keptKey }) {
+            Domain domain = new Domain(domainKey, Role.VISITOR, null, new HashMap<>());
+            domain.setTitle(new Title(domainKey, PLAYER_UUID, "Resident", Role.RESIDENT));
+            this.repository.saveDomain(domain, null);
+        }
+        this.repository.saveExclusiveChunk(new ExclusiveChunk(WORLD_UUID, 0, 0, deletedKey));
+        this.repository.saveExclusiveChunk(new ExclusiveChunk(WORLD_UUID, 1, 0, keptKey));
+        PartitionedChunk partitioned = new PartitionedChunk(WORLD_UUID, 2, 0);
+        partitioned.setDomainKey(0, 0, deletedKey);
+        partitioned.setDomainKey(1, 0, keptKey);
+        this.repository.savePartitionedChunk(partitioned);
+
+        this.repository.deleteDomain(deletedKey);
+
+        // The lookups join the Domain table, so count the rows left behind directly.
+        assertEquals(1, this.count("Title"));
+        assertEquals(1, this.count("ExclusiveChunk"));
+        assertEquals(2, this.count("ClaimableType"));
+        assertFalse(this.repository.loadDomain(deletedKey).isPresent());
+        assertFalse(this.repository.loadTitle(deletedKey, PLAYER_UUID).isPresent());
+        assertTrue(this.repository.loadTitle(keptKey, PLAYER_UUID).isPresent());
+        assertFalse(this.repository.loadChunk(WORLD_UUID, 0, 0).isPresent());
+        assertNull(this.database.selectChunkType(WORLD_UUID.toString(), 0, 0));
+        assertEquals(Optional.of(keptKey), this.repository.loadExclusiveChunk(WORLD_UUID, 1, 0).map(ExclusiveChunk::getDomainKey));
+        Optional<PartitionedChunk> loaded = this.repository.loadPartitionedChunk(WORLD_UUID, 2, 0);
+        assertTrue(loaded.isPresent());
+        assertEquals(Optional.empty(), loaded.get().getDomainKey(0, 0));
+        assertEquals(Optional.of(keptKey), loaded.get().getDomainKey(1, 0));
+    }
+
+    /**
+     * Saving a partitioned chunk that claims columns for a domain that has not been
+     * saved fails, rather than saving the columns as unclaimed.
+     */
+    @Test
+    public void savePartitionedChunkOfUnsavedDomainFails() {
+        PartitionedChunk partitioned = new PartitionedChunk(WORLD_UUID, 0, 0);
+        partitioned.setDomainKey(0, 0, Key.of("unsaved"));
+        assertThrows(RepositoryException.class, () -> this.repository.savePartitionedChunk(partitioned));
+    }
+
+    /**
+     * A repository on another connection that shares the cached domain ids does not
+     * resolve the columns of a domain deleted through this repository.
+     */
+    @Test
+    public void readerDoesNotResolveDeletedDomain() throws RepositoryException, SQLException {
+        Key deletedKey = Key.of("deleted");
+        Key keptKey = Key.of("kept");
+        for (Key domainKey : new Key[] { deletedKey, keptKey }) {
+            this.repository.saveDomain(new Domain(domainKey, Role.VISITOR, null, new HashMap<>()), null);
+        }
+        PartitionedChunk partitioned = new PartitionedChunk(WORLD_UUID, 0, 0);
+        partitioned.setDomainKey(0, 0, deletedKey);
+        partitioned.setDomainKey(1, 0, keptKey);
+        this.repository.savePartitionedChunk(partitioned);
+        SqlRepository reader = new SqlRepository(this.database.openReader(), this.domainIdCache);
+        try {
+            assertEquals(Optional.of(deletedKey), reader.loadPartitionedChunk(WORLD_UUID, 0, 0).get().getDomainKey(0, 0));
+
+            this.repository.deleteDomain(deletedKey);
+
+            PartitionedChunk loaded = reader.loadPartitionedChunk(WORLD_UUID, 0, 0).get();
+            assertEquals(Optional.empty(), loaded.getDomainKey(0, 0));
+            assertEquals(Optional.of(keptKey), loaded.getDomainKey(1, 0));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private int count(String table) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.file.getAbsolutePath());
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(String.format("SELECT COUNT(*) FROM %s; ", table))) {
+            result.next();
+            return result.getInt(1);
+        }
+    }
+
+}
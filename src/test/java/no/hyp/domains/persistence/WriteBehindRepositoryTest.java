@@ -0,0 +1,81 @@
+package no.hyp.domains.persistence;
+
+import no.hyp.domains.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBehindRepositoryTest {
+
+    private static final UUID WORLD_UUID = new UUID(0x0123456789ABCDEFL, 0xFEDCBA9876543210L);
+
+    private File file;
+
+    private CountDownLatch released;
+
+    private WriteBehindRepository repository;
+
+    @BeforeEach
+    public void open() throws IOException, SQLException {
+        this.file = File.createTempFile("domains", ".db");
+        SqliteDatabase database = new SqliteDatabase(this.file.getAbsolutePath());
+        database.upgradeDatabase();
+        SqlRepository sqlRepository = new SqlRepository(database);
+        this.released = new CountDownLatch(1);
+        // Hold the I/O thread in the first write, so that the following writes are all queued before any is executed.
+        Repository blocking = (Repository) Proxy.newProxyInstance(Repository.class.getClassLoader(), new Class<?>[] { Repository.class }, (proxy, method, arguments) -> {
+            if (method.getName().equals("saveDomain")) {
+                this.released.await();
+            }
+            try {
+                return method.invoke(sqlRepository, arguments);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+        this.repository = new WriteBehindRepository(blocking, Logger.getLogger("Domains"));
+    }
+
+    @AfterEach
+    public void close() throws RepositoryException {
+        this.released.countDown();
+        this.repository.close();
+        this.file.delete();
+    }
+
+    /**
+     * A chunk saved, then saved in a batch, and then saved again, is persisted with
+     * its last save.
+     */
+    @Test
+    public void saveAfterBatchIsNotOverwrittenByBatch() throws RepositoryException {
+        Key[] domainKeys = new Key[] { Key.of("first"), Key.of("second"), Key.of("third") };
+        for (Key domainKey : domainKeys) {
+            this.repository.saveDomain(new Domain(domainKey, Role.VISITOR, null, new HashMap<>()), null);
+        }
+        this.repository.saveExclusiveChunk(new ExclusiveChunk(WORLD_UUID, 0, 0, domainKeys[0]));
+        ChunkBatch batch = new ChunkBatch();
+        batch.save(new ExclusiveChunk(WORLD_UUID, 0, 0, domainKeys[1]));
+        this.repository.saveChunks(batch);
+        this.repository.saveExclusiveChunk(new ExclusiveChunk(WORLD_UUID, 0, 0, domainKeys[2]));
+        this.released.countDown();
+        this.repository.flush();
+
+        Optional<Key> domainKey = this.repository.loadExclusiveChunk(WORLD_UUID, 0, 0).map(ExclusiveChunk::getDomainKey);
+        assertEquals(Optional.of(domainKeys[2]), domainKey);
+    }
+
+}